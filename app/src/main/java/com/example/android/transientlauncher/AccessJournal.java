@@ -0,0 +1,418 @@
+package com.example.android.transientlauncher;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+
+
+/*
+Class           Access Journal
+Description     Append-only write-ahead journal of the enable/disable operations. The intent (package, APK
+                path, enable or disable) is written before the chmod, and a commit once the enabled flag is
+                in the DB. Intents without a commit are the operations a crash, kill or su timeout cut
+                short: they are handed out once when the journal is opened, so startup only checks those.
+
+Notes           Record: length (int), payload, CRC32 of the payload (int). Each begin/commit is one write()
+                to the file, kept by the kernel if the process dies right after. A torn record at the end
+                (the process died in the middle of a write) is dropped when the journal is opened.
+                The file is emptied when nothing is in flight and it grew past COMPACT_BYTES.
+                A su timeout leaves the outcome unknown (the chmod may still be queued in the shell): only
+                the operations a stat confirms are committed, see confirmed().
+ */
+class AccessJournal {
+
+    /** Attributes **/
+    private static final String LOG_TAG = AccessJournal.class.getSimpleName();
+    static final String FILE_NAME = "access_journal.bin";
+    static final long COMPACT_BYTES = 16 * 1024;
+    private static final byte INTENT = 1;
+    private static final byte COMMIT = 2;
+    private static final int MAX_RECORD_BYTES = 64 * 1024;
+    private static AccessJournal INSTANCE;              // Shared journal, static (only one)
+
+    private final File file;
+    private FileOutputStream out;
+    private long length;
+    private long nextId = 1;
+    private final Map<Long, Entry> inFlight = new LinkedHashMap<>();
+    private List<Entry> recovered;                  // Unfinished entries found at open, until taken
+
+
+
+
+    /** Entry **/
+    /*
+    Class               Entry
+    Description         One enable or disable operation
+     */
+    static class Entry {
+
+        // Attributes
+        final long id;
+        final String packageName;
+        final String apkPath;
+        final boolean enable;
+
+        // Constructor
+        Entry(long id, String packageName, String apkPath, boolean enable) {
+            this.id = id;
+            this.packageName = packageName;
+            this.apkPath = apkPath;
+            this.enable = enable;
+        }
+
+        // Methods
+        @Override
+        public String toString() {
+            return (enable ? "enable " : "disable ") + packageName + " (" + id + ")";
+        }
+    }
+
+
+
+
+    /** Constructor **/
+    AccessJournal(File file) {
+        this.file = file;
+        replay();
+    }
+
+
+
+
+    /** Methods **/
+    /*
+    Name                getInstance
+    Description         Returns the access journal of the launcher
+     */
+    static AccessJournal getInstance(Context context) {
+
+        // If the instance is null, synchronize and check again
+        if (INSTANCE == null) {
+            synchronized (AccessJournal.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new AccessJournal(new File(context.getFilesDir(), FILE_NAME));
+                }
+            }
+        }
+
+        return INSTANCE;
+    }
+
+
+    /*
+    Name                begin
+    Description         Writes the intents of an operation on several packages (one record each, one write),
+                        before their APKs are changed. Returns the entries to commit once it is done.
+     */
+    synchronized List<Entry> begin(List<String> packageNames, List<String> apkPaths, boolean enable) throws IOException {
+
+        List<Entry> entries = new ArrayList<>(packageNames.size());
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        for (int pos = 0; pos < packageNames.size(); pos++) {
+            Entry entry = new Entry(nextId++, packageNames.get(pos), apkPaths.get(pos), enable);
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(payload);
+            data.writeByte(INTENT);
+            data.writeLong(entry.id);
+            data.writeBoolean(entry.enable);
+            data.writeUTF(entry.packageName);
+            data.writeUTF(entry.apkPath);
+            writeRecord(records, payload.toByteArray());
+            entries.add(entry);
+        }
+
+        append(records.toByteArray());
+        for (Entry entry : entries) {
+            inFlight.put(entry.id, entry);
+        }
+
+        return entries;
+    }
+
+
+    /*
+    Name                commit
+    Description         Marks operations as done (APK changed or failed, DB flag written)
+     */
+    synchronized void commit(List<Entry> entries) throws IOException {
+
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(payload);
+        data.writeByte(COMMIT);
+        data.writeInt(entries.size());
+        for (Entry entry : entries) {
+            data.writeLong(entry.id);
+        }
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        writeRecord(record, payload.toByteArray());
+        append(record.toByteArray());
+
+        for (Entry entry : entries) {
+            inFlight.remove(entry.id);
+        }
+
+        // Nothing left to recover: start the file over once it gets big
+        if (inFlight.isEmpty() && length > COMPACT_BYTES) {
+            closeOutput();
+            new FileOutputStream(file).close();
+            length = 0;
+        }
+    }
+
+
+    /*
+    Name                confirmed
+    Description         Returns the operations whose APK is in the state they asked for (read bits set for
+                        an enable, cleared for a disable), from a stat of every APK. None if the stat fails.
+                        For operations with an unknown outcome: the others must stay uncommitted.
+     */
+    static List<Entry> confirmed(ApkAccess access, List<Entry> entries) {
+
+        List<String> apkPaths = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            apkPaths.add(entry.apkPath);
+        }
+
+        List<Integer> modes;
+        try {
+            modes = access.getModes(apkPaths);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "* ERROR *   Couldn't check " + entries.size() + " operations: " + e.getMessage());
+            return Collections.emptyList();
+        }
+
+        List<Entry> confirmed = new ArrayList<>();
+        for (int pos = 0; pos < entries.size(); pos++) {
+            int mode = modes.get(pos);
+            if (mode != ApkAccess.NO_MODE && ((mode & ApkAccess.READ_BITS) == ApkAccess.READ_BITS) == entries.get(pos).enable) {
+                confirmed.add(entries.get(pos));
+            }
+        }
+
+        return confirmed;
+    }
+
+
+    /*
+    Name                takeRecovered
+    Description         Returns the unfinished operations found when the journal was opened (one per package,
+                        in order). Handed out once, the caller commits them once recovered.
+     */
+    synchronized List<Entry> takeRecovered() {
+
+        List<Entry> entries = recovered;
+        recovered = Collections.emptyList();
+
+        return entries;
+    }
+
+
+    /*
+    Name                getInFlightCount
+    Description         Number of operations begun and not committed yet (including recovered ones)
+     */
+    synchronized int getInFlightCount() {
+        return inFlight.size();
+    }
+
+
+    /*
+    Name                close
+    Description         Closes the file (it is opened again on the next write)
+     */
+    synchronized void close() {
+        closeOutput();
+    }
+
+
+    /*
+    Name                replay
+    Description         Reads the journal: intents without a commit are the unfinished operations.
+                        Stops at the first torn or corrupt record, and cuts the file there.
+     */
+    private void replay() {
+
+        Map<Long, Entry> unfinished = new LinkedHashMap<>();
+        long goodLength = 0;
+
+        if (file.isFile()) {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                while (true) {
+                    byte[] payload = readRecord(in);
+                    if (payload == null) {
+                        break;
+                    }
+                    DataInputStream data = new DataInputStream(new ByteArrayInputStream(payload));
+                    byte type = data.readByte();
+                    if (type == INTENT) {
+                        long id = data.readLong();
+                        boolean enable = data.readBoolean();
+                        String packageName = data.readUTF();
+                        String apkPath = data.readUTF();
+                        supersede(unfinished, packageName);
+                        unfinished.put(id, new Entry(id, packageName, apkPath, enable));
+                        nextId = Math.max(nextId, id + 1);
+                    } else if (type == COMMIT) {
+                        int count = data.readInt();
+                        for (int i = 0; i < count; i++) {
+                            unfinished.remove(data.readLong());
+                        }
+                    } else {
+                        break;
+                    }
+                    goodLength += 8 + payload.length;
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "* ERROR *   Couldn't read the access journal: " + e.getMessage());
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // Nothing to do
+                    }
+                }
+            }
+
+            // Drop a torn record at the end, so new records are not appended after it
+            if (goodLength < file.length()) {
+                Log.w(LOG_TAG, "** WARNING ** Dropping " + (file.length() - goodLength) + " bytes at the end of the access journal.");
+                truncate(goodLength);
+            }
+        }
+        length = goodLength;
+
+        inFlight.putAll(unfinished);
+        recovered = new ArrayList<>(unfinished.values());
+        if (!unfinished.isEmpty()) {
+            Log.d(LOG_TAG, "** INFO **    " + unfinished.size() + " unfinished operations in the access journal.");
+        }
+    }
+
+
+    /*
+    Name                supersede
+    Description         Forgets the unfinished operations on a package a later operation was begun on (the
+                        recovery checks the APK itself, only the package matters)
+     */
+    private static void supersede(Map<Long, Entry> unfinished, String packageName) {
+
+        Iterator<Entry> entries = unfinished.values().iterator();
+        while (entries.hasNext()) {
+            if (entries.next().packageName.equals(packageName)) {
+                entries.remove();
+            }
+        }
+    }
+
+
+    /*
+    Name                readRecord
+    Description         Reads one record, null at the end of the file or if the record is torn or corrupt
+     */
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+
+        try {
+            int size = in.readInt();
+            if (size <= 0 || size > MAX_RECORD_BYTES) {
+                return null;
+            }
+            byte[] payload = new byte[size];
+            in.readFully(payload);
+            int crc = in.readInt();
+
+            CRC32 check = new CRC32();
+            check.update(payload);
+            return (int) check.getValue() == crc ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+
+    private static void writeRecord(ByteArrayOutputStream records, byte[] payload) throws IOException {
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        DataOutputStream data = new DataOutputStream(records);
+        data.writeInt(payload.length);
+        data.write(payload);
+        data.writeInt((int) crc.getValue());
+    }
+
+
+    /*
+    Name                append
+    Description         Appends records to the file in a single write
+     */
+    private void append(byte[] records) throws IOException {
+
+        if (out == null) {
+            out = new FileOutputStream(file, true);
+        }
+        try {
+            out.write(records);
+            length += records.length;
+        } catch (IOException e) {
+            closeOutput();
+            throw e;
+        }
+    }
+
+
+    private void truncate(long newLength) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(newLength);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "* ERROR *   Couldn't cut the access journal: " + e.getMessage());
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // Nothing to do
+                }
+            }
+        }
+    }
+
+
+    private void closeOutput() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Nothing to do
+            }
+            out = null;
+        }
+    }
+}
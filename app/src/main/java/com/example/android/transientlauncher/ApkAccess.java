@@ -0,0 +1,57 @@
+package com.example.android.transientlauncher;
+
+import java.io.IOException;
+import java.util.List;
+
+
+
+/*
+Interface       Apk Access
+Description     Backend the TransiencyManager uses to make APK files readable (enabled) or unreadable
+                (disabled) for the system, and to read their permission bits.
+
+Notes           Two implementations: NativeApkAccess calls chmod/stat directly (needs the launcher to own
+                the files, e.g. installed as system) and ShellApkAccess sends the commands to the root shell.
+                TransiencyManager.selectApkAccess picks the native one when it works.
+                Both follow the contract in ApkAccessContract (unit tests).
+ */
+interface ApkAccess {
+
+    // Permission bits of a file that is missing or could not be read
+    int NO_MODE = -1;
+
+    // r--r--r--: the bits enable sets and disable clears, the others are left as they are
+    int READ_BITS = 0444;
+
+
+    // Short name for the logs
+    String getName();
+
+    // Whether this backend can change the access of APKs like the given one (without changing it)
+    boolean probe(String apkPath);
+
+    // Sets or clears the read bits of every APK, returns whether it worked for each one (in order)
+    Result setReadable(List<String> apkPaths, boolean readable) throws IOException;
+
+    // Returns the permission bits (e.g. 0644) of every APK, NO_MODE for the ones it could not read (in order)
+    List<Integer> getModes(List<String> apkPaths) throws IOException;
+
+
+    /*
+    Class           Result
+    Description     What setReadable did: whether it worked for each APK (in order), and when the change
+                    was sent (the launch trace tells the send from the confirmation)
+     */
+    class Result {
+
+        // Attributes
+        final List<Boolean> succeeded;
+        final long sentNanos;           // System.nanoTime() once the changes were handed over to the system
+
+        // Constructor
+        Result(List<Boolean> succeeded, long sentNanos) {
+            this.succeeded = succeeded;
+            this.sentNanos = sentNanos;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.android.transientlauncher;
+
+import android.support.annotation.NonNull;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+
+/*
+Class           App List Adapter
+Description     RecyclerView adapter of the launcher list. Rows are bound through view holders and have
+                stable IDs derived from the package name.
+
+Notes           The adapter shows an immutable view of the apps (AppRegistry.Apps), kept as is: no row
+                is copied. submitList() diffs the new view against the old one with DiffUtil, so enabling
+                or disabling one app only rebinds that row.
+ */
+class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.AppViewHolder> {
+
+    /** Attributes **/
+    private final LayoutInflater inflater;
+    private final IconCache iconCache;
+    private final OnAppClickListener clickListener;
+    private AppRegistry.Apps apps = AppRegistry.Apps.EMPTY;
+    private final Map<String, Long> stableIds = new HashMap<>();       // Package name -> row ID
+
+
+
+
+    /** Click Listener **/
+    /*
+    Interface           OnAppClickListener
+    Description         Receives short (open) and long (close) clicks on a row
+     */
+    interface OnAppClickListener {
+        void onAppClick(String packageName);
+        boolean onAppLongClick(String packageName);
+    }
+
+
+
+
+    /** View Holder **/
+    /*
+    Class               AppViewHolder
+    Description         Holds the views of a row, looked up once when the row is created
+     */
+    class AppViewHolder extends RecyclerView.ViewHolder {
+
+        // Attributes
+        final TextView appName;
+        final TextView packageName;
+        final ImageView appIcon;
+
+        // Constructor
+        AppViewHolder(View itemView) {
+            super(itemView);
+            appName = itemView.findViewById(R.id.app_name);
+            packageName = itemView.findViewById(R.id.package_name);
+            appIcon = itemView.findViewById(R.id.app_icon);
+
+            itemView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    int position = getAdapterPosition();
+                    if (position != RecyclerView.NO_POSITION) {
+                        clickListener.onAppClick(apps.getPackageName(position));
+                    }
+                }
+            });
+            itemView.setOnLongClickListener(new View.OnLongClickListener() {
+                @Override
+                public boolean onLongClick(View view) {
+                    int position = getAdapterPosition();
+                    return position != RecyclerView.NO_POSITION && clickListener.onAppLongClick(apps.getPackageName(position));
+                }
+            });
+        }
+    }
+
+
+
+
+    /** Constructor **/
+    AppListAdapter(LayoutInflater inflater, IconCache iconCache, OnAppClickListener clickListener) {
+        this.inflater = inflater;
+        this.iconCache = iconCache;
+        this.clickListener = clickListener;
+        setHasStableIds(true);
+    }
+
+
+
+
+    /** Methods **/
+    /*
+    Name                submitList
+    Description         Shows a new version of the list, only the rows that changed are updated
+     */
+    void submitList(final AppRegistry.Apps newApps) {
+
+        // Views never change, no copy needed
+        final AppRegistry.Apps oldApps = apps;
+
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldApps.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newApps.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return oldApps.getPackageName(oldPosition).equals(newApps.getPackageName(newPosition));
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                return oldApps.getLabel(oldPosition).equals(newApps.getLabel(newPosition))
+                        && oldApps.isEnabled(oldPosition) == newApps.isEnabled(newPosition)
+                        && oldApps.isTransient(oldPosition) == newApps.isTransient(newPosition);
+            }
+        }, false);
+
+        apps = newApps;
+        diff.dispatchUpdatesTo(this);
+    }
+
+
+    @NonNull
+    @Override
+    public AppViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new AppViewHolder(inflater.inflate(R.layout.list_item, parent, false));
+    }
+
+
+    @Override
+    public void onBindViewHolder(@NonNull AppViewHolder holder, int position) {
+
+        String packageName = apps.getPackageName(position);
+        holder.appName.setText(apps.getLabel(position));
+        holder.packageName.setText(packageName);
+
+        // Icon is loaded in the background, and cancelled if this row gets recycled
+        iconCache.load(holder.appIcon, packageName, apps.getVersionCode(position), apps.isEnabled(position));
+    }
+
+
+    @Override
+    public void onViewRecycled(@NonNull AppViewHolder holder) {
+        iconCache.cancel(holder.appIcon);
+    }
+
+
+    @Override
+    public int getItemCount() {
+        return apps.size();
+    }
+
+
+    /*
+    Name                getItemId
+    Description         Returns the stable ID of a row. IDs are handed out per package name, so they never
+                        collide and stay the same across list updates.
+     */
+    @Override
+    public long getItemId(int position) {
+
+        String packageName = apps.getPackageName(position);
+        Long id = stableIds.get(packageName);
+        if (id == null) {
+            id = (long) stableIds.size();
+            stableIds.put(packageName, id);
+        }
+
+        return id;
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.android.transientlauncher;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+
+/*
+Class           App List Snapshot
+Description     Compact binary copy of the last list shown to the user (package, label and flags), so
+                the list can be drawn on a cold start before Room is open.
+
+Notes           Format: MAGIC, VERSION, row count, then per row a flags byte and the package name and
+                label as (unsigned short length, UTF-8 bytes). A file with another magic or version, or
+                a truncated one, is ignored (the list then comes from the DB as before).
+                The file is read through a memory-mapped buffer, and written on a background thread to
+                a temporary file that is renamed over the old one, so a reader never sees half a file.
+ */
+class AppListSnapshot {
+
+    /** Attributes **/
+    private static final String LOG_TAG = AppListSnapshot.class.getSimpleName();
+    static final String FILE_NAME = "app_list.snapshot";
+    static final int MAGIC = 0x544C534E;        // "TLSN"
+    static final int VERSION = 1;               // Bump when the row format changes
+
+    private static final int FLAG_ENABLED = 1;
+    private static final int FLAG_TRANSIENT = 1 << 1;
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Executor WRITER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread thread = new Thread(r, "AppListSnapshot");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    private final File file;
+    private final AtomicReference<AppRegistry.Apps> pending = new AtomicReference<>();   // Next rows to write
+    private AppRegistry.Apps lastWritten;       // Only touched on the writer thread
+
+
+
+
+    /** Constructor **/
+    AppListSnapshot(File file) {
+        this.file = file;
+    }
+
+
+
+
+    /** Methods **/
+    /*
+    Name                read
+    Description         Returns the rows of the snapshot, or null if there is no (valid) snapshot
+     */
+    AppRegistry.Apps read() {
+
+        if (!file.isFile()) {
+            return null;
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return parse(buffer);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            Log.e(LOG_TAG, "* ERROR *   Couldn't read the app list snapshot: " + e.getMessage());
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // Nothing to do
+                }
+            }
+        }
+    }
+
+
+    /*
+    Name                save
+    Description         Writes the rows in the background. Only the latest list is written if several are
+                        saved before the writer gets to them, and nothing is written if the rows didn't change.
+     */
+    void save(AppRegistry.Apps apps) {
+
+        // Schedule a write only if none is waiting, otherwise the waiting one picks up these rows
+        // (views never change, no copy needed)
+        if (pending.getAndSet(apps) == null) {
+            WRITER.execute(new Runnable() {
+                @Override
+                public void run() {
+                    AppRegistry.Apps latest = pending.getAndSet(null);
+                    if (latest == null || (lastWritten != null && countStale(lastWritten, latest) == 0)) {
+                        return;
+                    }
+                    try {
+                        write(latest);
+                        lastWritten = latest;
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "* ERROR *   Couldn't write the app list snapshot: " + e.getMessage());
+                    }
+                }
+            });
+        }
+    }
+
+
+    /*
+    Name                write
+    Description         Writes the rows to a temporary file and renames it over the snapshot
+     */
+    void write(AppRegistry.Apps apps) throws IOException {
+
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Couldn't create " + parent);
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(temp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(apps.size());
+            for (int pos = 0; pos < apps.size(); pos++) {
+                int flags = 0;
+                if (apps.isEnabled(pos)) {
+                    flags |= FLAG_ENABLED;
+                }
+                if (apps.isTransient(pos)) {
+                    flags |= FLAG_TRANSIENT;
+                }
+                out.writeByte(flags);
+                writeString(out, apps.getPackageName(pos));
+                writeString(out, apps.getLabel(pos));
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Couldn't rename " + temp.getName());
+        }
+    }
+
+
+    /*
+    Name                countStale
+    Description         Returns how many rows of the snapshot differ from the DB (changed, added or removed)
+     */
+    static int countStale(AppRegistry.Apps snapshotRows, AppRegistry.Apps dbRows) {
+
+        int stale = 0;
+        int matched = 0;
+        for (int pos = 0; pos < dbRows.size(); pos++) {
+            int cached = snapshotRows.indexOf(dbRows.getPackageName(pos));
+            if (cached < 0) {
+                stale++;
+                continue;
+            }
+            matched++;
+            if (!sameRow(snapshotRows, cached, dbRows, pos)) {
+                stale++;
+            }
+        }
+
+        // Whatever is left is no longer in the DB
+        return stale + snapshotRows.size() - matched;
+    }
+
+
+    /*
+    Name                parse
+    Description         Reads the rows from a snapshot buffer, null if the header doesn't match
+     */
+    private static AppRegistry.Apps parse(ByteBuffer buffer) {
+
+        if (buffer.remaining() < 12 || buffer.getInt() != MAGIC) {
+            Log.w(LOG_TAG, "** WARNING ** Not an app list snapshot, ignoring it.");
+            return null;
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            Log.w(LOG_TAG, "** WARNING ** Snapshot version " + version + " (expected " + VERSION + "), ignoring it.");
+            return null;
+        }
+
+        int count = buffer.getInt();
+        if (count < 0) {
+            return null;
+        }
+        AppRegistry apps = new AppRegistry();
+        for (int i = 0; i < count; i++) {
+            int flags = buffer.get();
+            String packageName = readString(buffer);
+            String appName = readString(buffer);
+            apps.put(new AppMetadata(appName, packageName,
+                    (flags & FLAG_ENABLED) != 0, (flags & FLAG_TRANSIENT) != 0));
+        }
+
+        return apps.view();
+    }
+
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        int length = Math.min(bytes.length, MAX_STRING_BYTES);
+        out.writeShort(length);
+        out.write(bytes, 0, length);
+    }
+
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+
+    private static boolean sameRow(AppRegistry.Apps a, int posA, AppRegistry.Apps b, int posB) {
+        return a.getPackageName(posA).equals(b.getPackageName(posB))
+                && a.getLabel(posA).equals(b.getLabel(posB))
+                && a.isEnabled(posA) == b.isEnabled(posB)
+                && a.isTransient(posA) == b.isTransient(posB);
+    }
+}
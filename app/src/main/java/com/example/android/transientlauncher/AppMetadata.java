@@ -2,6 +2,7 @@ package com.example.android.transientlauncher;
 
 import android.arch.persistence.room.ColumnInfo;
 import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Index;
 import android.arch.persistence.room.PrimaryKey;
 import android.support.annotation.NonNull;
 
@@ -10,8 +11,12 @@ import android.support.annotation.NonNull;
 /*
 Class           App Metadata
 Description     Definition of the metadata of an app. Used as the entry definition for the database.
+
+Notes           The (transientApp, enabledApp) index serves the sweeps (e.g. enabled transient apps only),
+                the sourceDir index the lookups by APK path.
  */
-@Entity(tableName = "apps_table")
+@Entity(tableName = "apps_table",
+        indices = {@Index({"transientApp", "enabledApp"}), @Index("lastUsed"), @Index("sourceDir")})
 class AppMetadata {
 
     // Attributes
@@ -29,6 +34,20 @@ class AppMetadata {
     @ColumnInfo(name = "transientApp")
     private Boolean transientApp;
 
+    @ColumnInfo(name = "lastUpdateTime")
+    private long lastUpdateTime;        // PackageInfo.lastUpdateTime when the row was synced (change token)
+
+    @ColumnInfo(name = "versionCode")
+    private long versionCode = UNKNOWN_VERSION;     // Version the appName label was loaded from
+
+    @ColumnInfo(name = "lastUsed")
+    private long lastUsed;              // Time of the last launch from the launcher (0: never)
+
+    @ColumnInfo(name = "sourceDir")
+    private String sourceDir;           // Path of the base APK, the file enable/disable chmod (null: unknown)
+
+    static final long UNKNOWN_VERSION = -1;         // Label not loaded yet (appName holds the package name)
+
 
     // Constructor
     AppMetadata(String appName, @NonNull String packageName, Boolean enabledApp, Boolean transientApp) {
@@ -52,6 +71,18 @@ class AppMetadata {
     Boolean getTransientApp() {
         return this.transientApp;
     }
+    long getLastUpdateTime() {
+        return this.lastUpdateTime;
+    }
+    long getVersionCode() {
+        return this.versionCode;
+    }
+    long getLastUsed() {
+        return this.lastUsed;
+    }
+    String getSourceDir() {
+        return this.sourceDir;
+    }
 
     void setAppName(String name) {
         this.appName = name;
@@ -65,4 +96,26 @@ class AppMetadata {
     void setTransientApp(Boolean tr) {
         this.transientApp = tr;
     }
+    void setLastUpdateTime(long time) {
+        this.lastUpdateTime = time;
+    }
+    void setVersionCode(long version) {
+        this.versionCode = version;
+    }
+    void setLastUsed(long time) {
+        this.lastUsed = time;
+    }
+    void setSourceDir(String dir) {
+        this.sourceDir = dir;
+    }
+
+    // Independent copy, so callers can change it without touching cached records
+    AppMetadata copy() {
+        AppMetadata app = new AppMetadata(appName, packageName, enabledApp, transientApp);
+        app.setLastUpdateTime(lastUpdateTime);
+        app.setVersionCode(versionCode);
+        app.setLastUsed(lastUsed);
+        app.setSourceDir(sourceDir);
+        return app;
+    }
 }
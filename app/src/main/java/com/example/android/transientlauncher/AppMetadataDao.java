@@ -16,16 +16,31 @@ Description     Interface used by the database class to send SQL commands to int
 @Dao
 public interface AppMetadataDao {
 
+    // Statements also run by the benchmark module (see AppsTable), which cannot run Room
+    String DELETE_ALL = "DELETE FROM apps_table";
+    String GET_ALL_APPS = "SELECT * FROM apps_table";
+    String UPDATE_ENABLE_FIELD = "UPDATE apps_table SET enabledApp=:flag WHERE packageName=:name";
+    String UPDATE_ENABLE_FIELDS = "UPDATE apps_table SET enabledApp=:flag WHERE packageName IN (:names)";
+    String GET_PACKAGES_BY_STATE = "SELECT packageName FROM apps_table WHERE transientApp=:transientApp AND enabledApp=:enabledApp";
+
     // Insert an app, replace if already exists
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     void insert(AppMetadata app);
 
+    // Insert several apps in a single transaction, replace the ones that already exist
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertAll(List<AppMetadata> apps);
+
     // Delete all entries from the table
-    @Query("DELETE FROM apps_table")
+    @Query(DELETE_ALL)
     void deleteAll();
 
+    // Delete the entries of several package names at once
+    @Query("DELETE FROM apps_table WHERE packageName IN (:names)")
+    void deleteApps(List<String> names);
+
     // Get all entries from the table
-    @Query("SELECT * FROM apps_table")
+    @Query(GET_ALL_APPS)
     List<AppMetadata> getAllApps();
 
     // Get the number of entries in the table
@@ -33,18 +48,56 @@ public interface AppMetadataDao {
     int recordCount();
 
     // Update the enabled flag for a given package name
-    @Query("UPDATE apps_table SET enabledApp=:flag WHERE packageName=:name")
+    @Query(UPDATE_ENABLE_FIELD)
     void updateEnableField(String name, Boolean flag);
 
+    // Update the enabled flag for several package names at once
+    @Query(UPDATE_ENABLE_FIELDS)
+    void updateEnableFields(List<String> names, Boolean flag);
+
+    // Update the label of a package, with the version code it was loaded from
+    @Query("UPDATE apps_table SET appName=:label, versionCode=:versionCode WHERE packageName=:name")
+    void updateLabel(String name, String label, long versionCode);
+
     // Update the transient flag for a given package name
     @Query("UPDATE apps_table SET transientApp=:flag WHERE packageName=:name")
     void updateTransientField(String name, Boolean flag);
 
-    // Get the enabled/transient flag value for a given package name
-    @Query("SELECT :recordType FROM apps_table WHERE packageName=:name")
-    Boolean getBooleanRecordField(String name, String recordType);
+    // Update the transient flag for several package names at once
+    @Query("UPDATE apps_table SET transientApp=:flag WHERE packageName IN (:names)")
+    void updateTransientFields(List<String> names, Boolean flag);
+
+    // Update the time a package was last launched
+    @Query("UPDATE apps_table SET lastUsed=:time WHERE packageName=:name")
+    void updateLastUsed(String name, long time);
+
+    // Get the enabled flag value for a given package name
+    @Query("SELECT enabledApp FROM apps_table WHERE packageName=:name")
+    Boolean getEnabledField(String name);
+
+    // Get the transient flag value for a given package name
+    @Query("SELECT transientApp FROM apps_table WHERE packageName=:name")
+    Boolean getTransientField(String name);
+
+    // Get the package names in a given state (e.g. enabled transient apps), read from the state index
+    @Query(GET_PACKAGES_BY_STATE)
+    List<String> getPackagesByState(Boolean transientApp, Boolean enabledApp);
+
+    // Get the APK paths of several package names at once (unknown paths are null)
+    @Query("SELECT packageName, sourceDir FROM apps_table WHERE packageName IN (:names)")
+    List<ApkPath> getSourceDirs(List<String> names);
 
     // Get record
     @Query("SELECT * from apps_table WHERE packageName=:name")
     AppMetadata getRecord(String name);
+
+
+    /*
+    Class           Apk Path
+    Description     Projection of a record on its package name and APK path
+     */
+    class ApkPath {
+        public String packageName;
+        public String sourceDir;
+    }
 }
@@ -1,17 +1,31 @@
 package com.example.android.transientlauncher;
 
+import android.arch.lifecycle.LiveData;
 import android.arch.persistence.db.SupportSQLiteDatabase;
 import android.arch.persistence.room.Database;
 import android.arch.persistence.room.Room;
 import android.arch.persistence.room.RoomDatabase;
+import android.arch.persistence.room.migration.Migration;
 import android.content.Context;
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
-import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 
@@ -21,25 +35,96 @@ Description     API to create and use a Room database to store with AppMetadata
 
 Requirements    To use this as a library for another package, add modifiers to the methods.
                 Currently: class and methods are package-private.
+
+Notes           All SQLite work runs on one dedicated DB thread, in the order it was submitted.
+                Writes return a Future. Reads have an async version (Future + callback on the main
+                thread) and a sync version that is served from the in-memory cache once it is loaded.
+                Main-thread queries are not allowed by Room, and the sync version throws on the main
+                thread when it would have to wait for the DB thread.
+                The cache is an AppRegistry (columns, not one object per app). observeApps() streams
+                immutable views of it: the writes that change the cache publish a new view, at most one
+                per frame.
  */
-@Database(entities = {AppMetadata.class}, version = 1, exportSchema = false)
+@Database(entities = {AppMetadata.class, LaunchRecord.class}, version = 5, exportSchema = false)
 abstract class AppMetadataRoomDatabase extends RoomDatabase {
 
     /** Attributes **/
     private static AppMetadataRoomDatabase INSTANCE;        // DB instance, static (only one)
     abstract AppMetadataDao appMetadataDao();        // DAO getter (instance of an interface)
-    private static int recordCount;
-    private static Boolean recordBooleanResult;
+    abstract LaunchHistoryDao launchHistoryDao();    // DAO of the launch history table
     private static final String LOG_TAG = AppMetadataRoomDatabase.class.getSimpleName();
+    private static final int MAX_BOUND_NAMES = 500;     // SQLite allows 999 bound variables per statement
+    private static final boolean ALLOW_MAIN_THREAD_QUERIES = false;     // Debugging only
+    private static final long PUBLISH_DELAY_MS = 16;        // Changes within a frame are published together
+
+    // Dedicated DB thread (one thread, so submitted queries and writes never race)
+    private static volatile Thread dbThread;
+    private static final ThreadPoolExecutor DB_EXECUTOR = new ThreadPoolExecutor(1, 1,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread thread = new Thread(r, "AppMetadataDb");
+            dbThread = thread;
+            return thread;
+        }
+    });
+    static {
+        DB_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    // Write-through cache of apps_table (packed in columns, see AppRegistry)
+    private final AppRegistry appCache = new AppRegistry();
+    private volatile boolean cacheLoaded;
+    private long cacheHits;
+    private long cacheMisses;
+    private final AppsLiveData appsLiveData = new AppsLiveData();
+    private final AtomicBoolean publishPending = new AtomicBoolean();
+
+    // Migrations
+    // v1 -> v2: lastUpdateTime change token, used by the incremental package sync
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE apps_table ADD COLUMN lastUpdateTime INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+    // v2 -> v3: versionCode the label was loaded from (existing labels get loaded again once)
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE apps_table ADD COLUMN versionCode INTEGER NOT NULL DEFAULT -1");
+        }
+    };
 
-    private final Boolean DEMO_MODE = Boolean.TRUE;
+    // v3 -> v4: launch history, used to predict the next launches
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `launch_history` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`packageName` TEXT, `launchTime` INTEGER NOT NULL, `previousPackage` TEXT)");
+            db.execSQL("CREATE INDEX `index_launch_history_launchTime` ON `launch_history` (`launchTime`)");
+        }
+    };
+
+    // v4 -> v5: last launch time and APK path, and indexes for the state sweeps and path lookups
+    //           (sourceDir is filled in by the next package sync)
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE apps_table ADD COLUMN lastUsed INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE apps_table ADD COLUMN sourceDir TEXT");
+            db.execSQL("CREATE INDEX `index_apps_table_transientApp_enabledApp` ON `apps_table` (`transientApp`, `enabledApp`)");
+            db.execSQL("CREATE INDEX `index_apps_table_lastUsed` ON `apps_table` (`lastUsed`)");
+            db.execSQL("CREATE INDEX `index_apps_table_sourceDir` ON `apps_table` (`sourceDir`)");
+        }
+    };
 
     // Room Callback
     private static RoomDatabase.Callback sRoomDatabaseCallback = new RoomDatabase.Callback() {
         @Override
         public void onOpen(@NonNull SupportSQLiteDatabase db) {
             super.onOpen(db);
-            //new DeleteDbAsync(INSTANCE).execute();
             // Insert anything desired to do every time the db opens
         }
     };
@@ -47,174 +132,119 @@ abstract class AppMetadataRoomDatabase extends RoomDatabase {
 
 
 
-    /** Async Tasks **/
+    /** Result Callback **/
     /*
-    Name                DeleteDbAsync
-    Description         Delete everything from DB
-    */
-    private static class DeleteDbAsync extends AsyncTask<Void, Void, Void> {
+    Interface           ResultCallback
+    Description         Receives the result of an async query, on the main thread
+     */
+    interface ResultCallback<T> {
+        void onResult(T result);
+    }
 
-        // Attributes
-        private final AppMetadataDao mDao;
 
-        // Constructor
-        DeleteDbAsync(AppMetadataRoomDatabase db) {
-            mDao = db.appMetadataDao();
-        }
-
-        // Methods
-        @Override
-        protected Void doInBackground(final Void... params) {
-            mDao.deleteAll();
-            return null;
-        }
-    }
 
 
+    /** Apps Live Data **/
     /*
-    Name                GetAllAppsFromDbAsync
-    Description         Get all apps from DB
-    */
-    private static class GetAllAppsFromDbAsync extends AsyncTask<Void, Void, List<AppMetadata>> {
-
-        // Attributes
-        private WeakReference<List<AppMetadata>> allApps;      // C Pointer-equivalent in Java
-        private final AppMetadataDao mDao;
+    Class               AppsLiveData
+    Description         The apps of the table, published again every time a write changes them
 
-        // Constructors
-        GetAllAppsFromDbAsync(List<AppMetadata> allApps, AppMetadataRoomDatabase db) {
-            mDao = db.appMetadataDao();
-            this.allApps = new WeakReference<>(allApps);
-        }
+    Notes               The first observer loads the cache (on the DB thread). Each value is an immutable view
+                        the observers may keep; several writes close to each other are delivered as one value.
+     */
+    private class AppsLiveData extends LiveData<AppRegistry.Apps> {
 
-        // Methods
         @Override
-        protected List<AppMetadata> doInBackground(final Void... params) {
-            return mDao.getAllApps();
+        protected void onActive() {
+            if (getValue() == null) {
+                submitWrite(new Runnable() {
+                    @Override
+                    public void run() {
+                        ensureCacheLoaded();
+                        publishApps();
+                    }
+                });
+            }
         }
 
-        protected void onPostExecute(List<AppMetadata> retrievedApps) {
-            allApps.get().addAll(retrievedApps);
+        void publish(AppRegistry.Apps apps) {
+            setValue(apps);
         }
     }
 
 
-    /*
-    Name                InsertAppToDbAsync
-    Description         Insert an app to the DB
-    */
-    private static class InsertAppToDbAsync extends AsyncTask<Void, Void, Void> {
-
-        // Attributes
-        private final AppMetadataDao mDao;
-        private AppMetadata app;
-
-        // Constructor
-        InsertAppToDbAsync(AppMetadata app, AppMetadataRoomDatabase db) {
-            mDao = db.appMetadataDao();
-            this.app = app;
-        }
-
-        // Methods
-        @Override
-        protected Void doInBackground(final Void... params) {
-            mDao.insert(app);
-            return null;
-        }
-    }
 
 
+    /** DB Thread **/
     /*
-    Name                RecordCountDbAsync
-    Description         Return the number of records in the DB
+    Name                submit
+    Description         Runs a query on the DB thread. The callback (optional) gets the result on the main thread.
      */
-    private static class RecordCountDbAsync extends AsyncTask<Void, Void, Void> {
-
-        // Attributes
-        private final AppMetadataDao mDao;
+    private static <T> Future<T> submit(final Callable<T> query, final ResultCallback<T> callback) {
 
-        // Constructor
-        RecordCountDbAsync(AppMetadataRoomDatabase db) {
-            mDao = db.appMetadataDao();
-        }
-
-        // Methods
-        @Override
-        protected Void doInBackground(final Void... params) {
-            recordCount = mDao.recordCount();
-            return null;
-        }
+        FutureTask<T> task = new FutureTask<T>(query) {
+            @Override
+            protected void done() {
+                if (callback == null || isCancelled()) {
+                    return;
+                }
+                try {
+                    final T result = get();
+                    MAIN_HANDLER.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onResult(result);
+                        }
+                    });
+                } catch (InterruptedException | ExecutionException e) {
+                    Log.e(LOG_TAG, "* ERROR * ---- DB query failed.", e);
+                }
+            }
+        };
+        DB_EXECUTOR.execute(task);
 
+        return task;
     }
 
 
     /*
-    Name                UpdateRecordFieldDbAsync
-    Description         For a given record (package), updates a field with a new value
+    Name                submitWrite
+    Description         Runs a write on the DB thread, after every query or write submitted before it
      */
-    private static class UpdateRecordFieldDbAsync extends AsyncTask<Void, Void, Void> {
-
-        // Attributes
-        private final AppMetadataDao mDao;
-        private String packageName;
-        private String flagType;
-        private Boolean flag;
-
-        // Constructor
-        UpdateRecordFieldDbAsync(AppMetadataRoomDatabase db, String packageName, String flagType, Boolean flag) {
-            mDao = db.appMetadataDao();
-            this.packageName = packageName;
-            this.flagType = flagType;
-            this.flag = flag;
-        }
-
-        // Methods
-        @Override
-        protected Void doInBackground(final Void... params) {
+    private static Future<Void> submitWrite(Runnable write) {
 
-            if (flagType.equals("enabledApp")) {
-                // Update enable field
-                mDao.updateEnableField(packageName, flag);
-            }
-            else if (flagType.equals("transientApp")) {
-                //Update transient field
-                mDao.updateTransientField(packageName, flag);
-            }
-            else {
-                Log.e(LOG_TAG, "* ERROR * ---- Error wrong flagType when trying to update DB record.");
-            }
+        FutureTask<Void> task = new FutureTask<>(write, null);
+        DB_EXECUTOR.execute(task);
 
-            return null;
-        }
+        return task;
     }
 
 
     /*
-    Name                GetRecordFieldDbAsync
-    Description         Returns the value of a field for a given record in the DB
-
-    Notes               Fields allowed are enabledApp and transientApp only (Booleans).
+    Name                await
+    Description         Runs a query on the DB thread and waits for its result (runs it directly if
+                        already on the DB thread). Throws on the main thread, like Room does.
      */
-    private static class GetRecordFieldDbAsync extends AsyncTask<Void, Void, Void> {
+    private static <T> T await(Callable<T> query) {
 
-        // Attributes
-        private final AppMetadataDao mDao;
-        private String packageName;
-        private String recordType;      // Boolean enabledApp or transientApp only!
-
-        // Constructor
-        GetRecordFieldDbAsync(AppMetadataRoomDatabase db, String packageName, String recordType) {
-            mDao = db.appMetadataDao();
-            this.packageName = packageName;
-            this.recordType = recordType;
+        if (!ALLOW_MAIN_THREAD_QUERIES && Looper.myLooper() == Looper.getMainLooper()) {
+            throw new IllegalStateException("Main thread is waiting for the DB, use the async API instead");
         }
 
-        // Methods
-        @Override
-        protected Void doInBackground(final Void... params) {
+        try {
+            if (Thread.currentThread() == dbThread) {
+                return query.call();
+            }
+
+            return submit(query, null).get();
 
-            recordBooleanResult = mDao.getBooleanRecordField(packageName, recordType);
-            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the DB", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("DB query failed", e.getCause());
+        } catch (Exception e) {
+            throw new IllegalStateException("DB query failed", e);
         }
     }
 
@@ -234,11 +264,14 @@ abstract class AppMetadataRoomDatabase extends RoomDatabase {
 
                 // If the instance of the DB is still null, create a new DB
                 if (INSTANCE == null) {
-                    INSTANCE = Room.databaseBuilder(context.getApplicationContext(),
-                            AppMetadataRoomDatabase.class, "apps_database")
-                            .allowMainThreadQueries()
-                            .addCallback(sRoomDatabaseCallback)
-                            .build();
+                    RoomDatabase.Builder<AppMetadataRoomDatabase> builder = Room.databaseBuilder(
+                            context.getApplicationContext(), AppMetadataRoomDatabase.class, "apps_database")
+                            .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5)
+                            .addCallback(sRoomDatabaseCallback);
+                    if (ALLOW_MAIN_THREAD_QUERIES) {
+                        builder.allowMainThreadQueries();
+                    }
+                    INSTANCE = builder.build();
                 }
             }
         }
@@ -251,48 +284,256 @@ abstract class AppMetadataRoomDatabase extends RoomDatabase {
     Name                deleteDb
     Description         Delete all entries of a DB
     */
-    void deleteDb() {
+    Future<Void> deleteDb() {
 
-        if (DEMO_MODE) {
-            INSTANCE.appMetadataDao().deleteAll();
-        } else {
-            // Delete all entries
-            new DeleteDbAsync(INSTANCE).execute();
+        // The cache now mirrors an empty table
+        synchronized (appCache) {
+            appCache.clear();
+            cacheLoaded = true;
         }
+        publishApps();
+
+        // Delete all entries
+        final AppMetadataDao dao = appMetadataDao();
+        return submitWrite(new Runnable() {
+            @Override
+            public void run() {
+                dao.deleteAll();
+            }
+        });
     }
 
 
     /*
     Name                getAllApps
-    Description         Returns a list of all apps in the DB
+    Description         Returns a list of all apps in the DB (copies, served from the cache)
      */
     List<AppMetadata> getAllApps() {
 
         // List to store retrieved apps
-        List<AppMetadata> list = new ArrayList<>();
-
-        if (DEMO_MODE) {
-            list = INSTANCE.appMetadataDao().getAllApps();
-        } else {
-            // Get values from the DB and store them in the list
-            new GetAllAppsFromDbAsync(list, INSTANCE).execute();
+        AppRegistry.Apps apps = getApps();
+        List<AppMetadata> list = new ArrayList<>(apps.size());
+        for (int pos = 0; pos < apps.size(); pos++) {
+            list.add(apps.toAppMetadata(pos));
         }
 
         return list;
     }
 
 
+    /*
+    Name                getApps
+    Description         Returns an immutable view of all apps in the DB (served from the cache, no row is
+                        copied). Prefer it to getAllApps for reads.
+     */
+    AppRegistry.Apps getApps() {
+
+        boolean hit = ensureCacheLoaded();
+        synchronized (appCache) {
+            if (hit) {
+                cacheHits++;
+            }
+            return appCache.view();
+        }
+    }
+
+
+    /*
+    Name                getAllAppsAsync
+    Description         Loads the apps on the DB thread and hands them to the callback on the main thread
+     */
+    Future<List<AppMetadata>> getAllAppsAsync(ResultCallback<List<AppMetadata>> callback) {
+        return submit(new Callable<List<AppMetadata>>() {
+            @Override
+            public List<AppMetadata> call() {
+                return getAllApps();
+            }
+        }, callback);
+    }
+
+
+    /*
+    Name                observeApps
+    Description         Returns the stream of apps of the table (immutable views), updated only when rows change
+     */
+    LiveData<AppRegistry.Apps> observeApps() {
+        return appsLiveData;
+    }
+
+
+    /*
+    Name                publishApps
+    Description         Hands a view of the cached apps to the observers (nothing if the cache is not loaded).
+                        The view is taken on the main thread a frame later, so a burst of writes (e.g. labels
+                        loaded one by one) makes one view, and the cache copies its columns once.
+     */
+    private void publishApps() {
+
+        if (!publishPending.compareAndSet(false, true)) {
+            return;
+        }
+        MAIN_HANDLER.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                publishPending.set(false);
+                AppRegistry.Apps apps;
+                synchronized (appCache) {
+                    if (!cacheLoaded) {
+                        return;
+                    }
+                    apps = appCache.view();
+                }
+                appsLiveData.publish(apps);
+            }
+        }, PUBLISH_DELAY_MS);
+    }
+
+
     /*
     Name                insertApp
     Description         Insert an app in the DB
      */
-    void insertApp(AppMetadata app) {
+    Future<Void> insertApp(AppMetadata app) {
 
-        if (DEMO_MODE) {
-            // Insert app
-            new InsertAppToDbAsync(app, INSTANCE).execute();
-        } else {
-            INSTANCE.appMetadataDao().insert(app);
+        // Write-through: update the cache first, then the table
+        final AppMetadata row = app.copy();
+        ensureCacheLoaded();
+        synchronized (appCache) {
+            appCache.put(app);
+        }
+        publishApps();
+
+        // Insert app
+        final AppMetadataDao dao = appMetadataDao();
+        return submitWrite(new Runnable() {
+            @Override
+            public void run() {
+                dao.insert(row);
+            }
+        });
+    }
+
+
+    /*
+    Name                insertApps
+    Description         Insert a list of apps in the DB in a single transaction.
+                        Returns a Future the caller can wait on to know the rows are committed.
+     */
+    Future<Void> insertApps(List<AppMetadata> apps) {
+
+        // Write-through: update the cache first, then the table
+        final List<AppMetadata> rows = new ArrayList<>(apps.size());
+        ensureCacheLoaded();
+        synchronized (appCache) {
+            for (AppMetadata app : apps) {
+                appCache.put(app);
+                rows.add(app.copy());
+            }
+        }
+        publishApps();
+
+        final AppMetadataDao dao = appMetadataDao();
+        return submitWrite(new Runnable() {
+            @Override
+            public void run() {
+                dao.insertAll(rows);
+            }
+        });
+    }
+
+
+    /*
+    Name                applySync
+    Description         Upserts and deletes the rows changed since the last package sync, in a single
+                        transaction. Returns a Future the caller can wait on to know the rows are committed.
+     */
+    Future<Void> applySync(List<AppMetadata> upserts, List<String> removals) {
+
+        // Write-through: update the cache first, then the table
+        final List<AppMetadata> rows = new ArrayList<>(upserts.size());
+        final List<String> removedNames = new ArrayList<>(removals);
+        ensureCacheLoaded();
+        synchronized (appCache) {
+            for (AppMetadata app : upserts) {
+                appCache.put(app);
+                rows.add(app.copy());
+            }
+            for (String packageName : removedNames) {
+                appCache.remove(packageName);
+            }
+        }
+        if (!rows.isEmpty() || !removedNames.isEmpty()) {
+            publishApps();
+        }
+
+        final AppMetadataDao dao = appMetadataDao();
+        return submitWrite(new Runnable() {
+            @Override
+            public void run() {
+                runInTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int from = 0; from < removedNames.size(); from += MAX_BOUND_NAMES) {
+                            int to = Math.min(from + MAX_BOUND_NAMES, removedNames.size());
+                            dao.deleteApps(removedNames.subList(from, to));
+                        }
+                        dao.insertAll(rows);
+                    }
+                });
+            }
+        });
+    }
+
+
+    /*
+    Name                updateAppLabels
+    Description         Stores loaded labels with the version code they belong to, in one transaction
+     */
+    Future<Void> updateAppLabels(List<LabelResolver.Label> labels) {
+
+        // Write-through: update the cache first, then the table
+        final List<LabelResolver.Label> rows = new ArrayList<>(labels);
+        boolean changed = false;
+        ensureCacheLoaded();
+        synchronized (appCache) {
+            for (LabelResolver.Label label : rows) {
+                changed |= appCache.setLabel(label.packageName, label.label, label.versionCode);
+            }
+        }
+        if (changed) {
+            publishApps();
+        }
+
+        final AppMetadataDao dao = appMetadataDao();
+        return submitWrite(new Runnable() {
+            @Override
+            public void run() {
+                runInTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (LabelResolver.Label label : rows) {
+                            dao.updateLabel(label.packageName, label.label, label.versionCode);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+
+    /*
+    Name                showAppLabel
+    Description         Puts a label that was just loaded in the cache, so the list shows it right away.
+                        The table gets it with the rest of the batch (updateAppLabels).
+     */
+    void showAppLabel(LabelResolver.Label label) {
+
+        boolean changed;
+        synchronized (appCache) {
+            changed = cacheLoaded && appCache.setLabel(label.packageName, label.label, label.versionCode);
+        }
+        if (changed) {
+            publishApps();
         }
     }
 
@@ -303,14 +544,7 @@ abstract class AppMetadataRoomDatabase extends RoomDatabase {
      */
     Boolean isEmpty() {
 
-        if (DEMO_MODE) {
-            recordCount = INSTANCE.appMetadataDao().recordCount();
-        } else {
-            // Get current record count (updates recordCount)
-            new RecordCountDbAsync(INSTANCE).execute();
-        }
-
-        if (recordCount > 0) {
+        if (getRecordCount() > 0) {
             return Boolean.FALSE;
         } else {
             return Boolean.TRUE;
@@ -318,19 +552,47 @@ abstract class AppMetadataRoomDatabase extends RoomDatabase {
     }
 
 
+    /*
+    Name                isEmptyAsync
+    Description         Checks on the DB thread whether the DB is empty, result on the main thread
+     */
+    Future<Boolean> isEmptyAsync(ResultCallback<Boolean> callback) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return isEmpty();
+            }
+        }, callback);
+    }
+
+
     /*
     Name                recordCount
-    Description         Returns the number of records in the database
+    Description         Returns the number of records in the database (served from the cache)
      */
     int getRecordCount() {
 
-        if (DEMO_MODE) {
-            recordCount = INSTANCE.appMetadataDao().recordCount();
-        } else {
-            // Get current record count (updates recordCount)
-            new RecordCountDbAsync(INSTANCE).execute();
+        boolean hit = ensureCacheLoaded();
+        synchronized (appCache) {
+            if (hit) {
+                cacheHits++;
+            }
+            return appCache.size();
         }
-        return recordCount;
+    }
+
+
+    /*
+    Name                getRecordCountAsync
+    Description         Counts the records on the DB thread, result on the main thread
+     */
+    Future<Integer> getRecordCountAsync(ResultCallback<Integer> callback) {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return getRecordCount();
+            }
+        }, callback);
     }
 
 
@@ -338,33 +600,378 @@ abstract class AppMetadataRoomDatabase extends RoomDatabase {
     Name                updateAppEnabled
     Description         Updates an app record's enabled flag accordingly in the DB
      */
-    void updateAppEnabled(String packageName, Boolean flag) {
+    Future<Void> updateAppEnabled(final String packageName, final Boolean flag) {
 
-        if (DEMO_MODE) {
-            INSTANCE.appMetadataDao().updateEnableField(packageName, flag);
-        } else {
-            // Update the enabled flag
-            new UpdateRecordFieldDbAsync(INSTANCE, packageName, "enabledApp", flag).execute();
+        // Write-through: update the cache first, then the table
+        boolean changed = false;
+        ensureCacheLoaded();
+        synchronized (appCache) {
+            changed = appCache.setEnabled(packageName, flag);
+        }
+        if (changed) {
+            publishApps();
         }
+
+        // Update the enabled flag
+        final AppMetadataDao dao = appMetadataDao();
+        return submitWrite(new Runnable() {
+            @Override
+            public void run() {
+                dao.updateEnableField(packageName, flag);
+            }
+        });
+    }
+
+
+    /*
+    Name                updateAppsEnabled
+    Description         Updates the enabled flag of several app records in one transaction
+     */
+    Future<Void> updateAppsEnabled(List<String> packageNames, final Boolean flag) {
+
+        // Write-through: update the cache first, then the table
+        final List<String> names = new ArrayList<>(packageNames);
+        boolean changed = false;
+        ensureCacheLoaded();
+        synchronized (appCache) {
+            for (String packageName : names) {
+                changed |= appCache.setEnabled(packageName, flag);
+            }
+        }
+        if (changed) {
+            publishApps();
+        }
+
+        // Update the enabled flags
+        return submitWrite(new Runnable() {
+            @Override
+            public void run() {
+                updateEnableFieldsInTransaction(names, flag);
+            }
+        });
+    }
+
+
+    /*
+    Name                updateEnableFieldsInTransaction
+    Description         Runs the enabled flag updates for a list of packages in a single transaction,
+                        split in chunks that fit in the SQLite bound variable limit
+     */
+    private void updateEnableFieldsInTransaction(final List<String> packageNames, final Boolean flag) {
+
+        final AppMetadataDao dao = appMetadataDao();
+        runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                for (int from = 0; from < packageNames.size(); from += MAX_BOUND_NAMES) {
+                    int to = Math.min(from + MAX_BOUND_NAMES, packageNames.size());
+                    dao.updateEnableFields(packageNames.subList(from, to), flag);
+                }
+            }
+        });
+    }
+
+
+    /*
+    Name                reclassifyApps
+    Description         Applies a transiency policy to every app record, in one transaction.
+                        Returns the number of records whose transient flag changed.
+     */
+    Future<Integer> reclassifyApps(TransiencyPolicy policy) {
+
+        // Write-through: update the cache first, then the table
+        final List<String> nowTransient = new ArrayList<>();
+        final List<String> nowPersistent = new ArrayList<>();
+        ensureCacheLoaded();
+        synchronized (appCache) {
+            for (String packageName : appCache.getPackageNames()) {
+                boolean transientApp = policy.isTransient(packageName);
+                if (appCache.setTransient(packageName, transientApp)) {
+                    (transientApp ? nowTransient : nowPersistent).add(packageName);
+                }
+            }
+        }
+        if (!nowTransient.isEmpty() || !nowPersistent.isEmpty()) {
+            publishApps();
+        }
+
+        final AppMetadataDao dao = appMetadataDao();
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                runInTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int from = 0; from < nowTransient.size(); from += MAX_BOUND_NAMES) {
+                            int to = Math.min(from + MAX_BOUND_NAMES, nowTransient.size());
+                            dao.updateTransientFields(nowTransient.subList(from, to), Boolean.TRUE);
+                        }
+                        for (int from = 0; from < nowPersistent.size(); from += MAX_BOUND_NAMES) {
+                            int to = Math.min(from + MAX_BOUND_NAMES, nowPersistent.size());
+                            dao.updateTransientFields(nowPersistent.subList(from, to), Boolean.FALSE);
+                        }
+                    }
+                });
+                return nowTransient.size() + nowPersistent.size();
+            }
+        }, null);
     }
 
 
     /*
     Name                enabledFlag
-    Description         Returns the enabled flag value for a package in the DB
+    Description         Returns the enabled flag value for a package (served from the cache)
+
+    Notes               Packages the launcher does not track are reported as enabled.
      */
-    Boolean enabledFlag(String packageName) {
+    Boolean enabledFlag(final String packageName) {
+
+        boolean loaded = ensureCacheLoaded();
+        synchronized (appCache) {
+            Boolean enabled = appCache.isEnabled(packageName);
+            if (enabled != null) {
+                if (loaded) {
+                    cacheHits++;
+                }
+                return enabled;
+            }
+            cacheMisses++;
+        }
 
-        if (DEMO_MODE) {
-            recordBooleanResult = INSTANCE.appMetadataDao().getBooleanRecordField(packageName, "enabledApp");
-        } else {
-            // Check the enabled flag (updates recordResult)
-            new GetRecordFieldDbAsync(INSTANCE, packageName, "enabledApp").execute();
+        // Not cached, ask the table for this flag only
+        final AppMetadataDao dao = appMetadataDao();
+        Boolean enabled = await(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return dao.getEnabledField(packageName);
+            }
+        });
+        if (enabled == null) {
+            Log.w(LOG_TAG, "** WARNING **   " + packageName + " is not in the DB, treating it as enabled.");
+            return Boolean.TRUE;
+        }
+
+        return enabled;
+    }
+
+
+    /*
+    Name                enabledFlagAsync
+    Description         Looks up the enabled flag on the DB thread, result on the main thread
+     */
+    Future<Boolean> enabledFlagAsync(final String packageName, ResultCallback<Boolean> callback) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return enabledFlag(packageName);
+            }
+        }, callback);
+    }
+
+
+    /*
+    Name                getPackagesByState
+    Description         Returns the package names of the apps with the given transient and enabled flags
+                        (e.g. TRUE, TRUE: the apps a sweep may disable)
+
+    Notes               Served from the cache if it is loaded, otherwise only this projection is read from
+                        the table (a sweep in a fresh process does not load every record). Call it off the
+                        main thread.
+     */
+    List<String> getPackagesByState(final Boolean transientApp, final Boolean enabledApp) {
+
+        if (cacheLoaded) {
+            synchronized (appCache) {
+                cacheHits++;
+                return appCache.getPackagesByState(transientApp, enabledApp);
+            }
         }
 
-        // Debug
-        AppMetadata app = INSTANCE.appMetadataDao().getRecord(packageName);
-        return app.getEnabledApp();
-        //return recordBooleanResult;
+        final AppMetadataDao dao = appMetadataDao();
+        return await(new Callable<List<String>>() {
+            @Override
+            public List<String> call() {
+                return dao.getPackagesByState(transientApp, enabledApp);
+            }
+        });
+    }
+
+
+    /*
+    Name                getSourceDirs
+    Description         Returns the APK path stored for each of the given packages. Packages that are not
+                        in the DB, or whose path is not known yet, are left out.
+
+    Notes               Served from the cache if it is loaded, otherwise only this projection is read from
+                        the table. Call it off the main thread.
+     */
+    Map<String, String> getSourceDirs(Collection<String> packageNames) {
+
+        final Map<String, String> sourceDirs = new HashMap<>();
+        if (cacheLoaded) {
+            synchronized (appCache) {
+                cacheHits++;
+                for (String packageName : packageNames) {
+                    String sourceDir = appCache.getSourceDir(packageName);
+                    if (sourceDir != null) {
+                        sourceDirs.put(packageName, sourceDir);
+                    }
+                }
+            }
+            return sourceDirs;
+        }
+
+        final List<String> names = new ArrayList<>(packageNames);
+        final AppMetadataDao dao = appMetadataDao();
+        return await(new Callable<Map<String, String>>() {
+            @Override
+            public Map<String, String> call() {
+                for (int from = 0; from < names.size(); from += MAX_BOUND_NAMES) {
+                    int to = Math.min(from + MAX_BOUND_NAMES, names.size());
+                    for (AppMetadataDao.ApkPath path : dao.getSourceDirs(names.subList(from, to))) {
+                        if (path.sourceDir != null) {
+                            sourceDirs.put(path.packageName, path.sourceDir);
+                        }
+                    }
+                }
+                return sourceDirs;
+            }
+        });
+    }
+
+
+    /*
+    Name                updateLastUsed
+    Description         Stores the time an app was last launched
+     */
+    Future<Void> updateLastUsed(final String packageName, final long time) {
+
+        // Write-through: update the cache (if loaded), then the table
+        boolean changed;
+        synchronized (appCache) {
+            changed = appCache.setLastUsed(packageName, time);
+        }
+        if (changed) {
+            publishApps();
+        }
+
+        final AppMetadataDao dao = appMetadataDao();
+        return submitWrite(new Runnable() {
+            @Override
+            public void run() {
+                dao.updateLastUsed(packageName, time);
+            }
+        });
+    }
+
+
+    /*
+    Name                runAfterWrites
+    Description         Runs a task on the DB thread once every write submitted before it is committed
+     */
+    Future<Void> runAfterWrites(Runnable task) {
+        return submitWrite(task);
+    }
+
+
+    /*
+    Name                recordLaunch
+    Description         Adds a launch to the launch history
+     */
+    Future<Void> recordLaunch(final LaunchRecord launch) {
+
+        final LaunchHistoryDao dao = launchHistoryDao();
+        return submitWrite(new Runnable() {
+            @Override
+            public void run() {
+                dao.insert(launch);
+            }
+        });
+    }
+
+
+    /*
+    Name                getLaunchHistory
+    Description         Returns the launches since a given time, oldest first (not cached, call it off the
+                        main thread)
+     */
+    List<LaunchRecord> getLaunchHistory(final long since) {
+
+        final LaunchHistoryDao dao = launchHistoryDao();
+        return await(new Callable<List<LaunchRecord>>() {
+            @Override
+            public List<LaunchRecord> call() {
+                return dao.getLaunchesSince(since);
+            }
+        });
+    }
+
+
+    /*
+    Name                pruneLaunchHistory
+    Description         Forgets the launches older than a given time
+     */
+    Future<Void> pruneLaunchHistory(final long before) {
+
+        final LaunchHistoryDao dao = launchHistoryDao();
+        return submitWrite(new Runnable() {
+            @Override
+            public void run() {
+                dao.deleteLaunchesBefore(before);
+            }
+        });
+    }
+
+
+    /*
+    Name                getCacheHits / getCacheMisses
+    Description         Counters of reads served from memory and reads that had to query the table
+     */
+    long getCacheHits() {
+        synchronized (appCache) {
+            return cacheHits;
+        }
+    }
+
+    long getCacheMisses() {
+        synchronized (appCache) {
+            return cacheMisses;
+        }
+    }
+
+
+    /*
+    Name                ensureCacheLoaded
+    Description         Loads the whole table into the cache (on the DB thread) the first time it is needed.
+                        Returns TRUE if the cache was already loaded (the caller's read is a hit).
+
+    Notes               Must not be called while holding the appCache lock, the DB thread needs it.
+     */
+    private boolean ensureCacheLoaded() {
+
+        if (cacheLoaded) {
+            return true;
+        }
+
+        final AppMetadataDao dao = appMetadataDao();
+        await(new Callable<Void>() {
+            @Override
+            public Void call() {
+                synchronized (appCache) {
+                    if (cacheLoaded) {
+                        return null;
+                    }
+                    cacheMisses++;
+                    for (AppMetadata app : dao.getAllApps()) {
+                        appCache.put(app);
+                    }
+                    cacheLoaded = true;
+                    Log.d(LOG_TAG, "** INFO **   Loaded " + appCache.size() + " records in the cache.");
+                }
+                return null;
+            }
+        });
+
+        return false;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,615 @@
+package com.example.android.transientlauncher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+
+/*
+Class           App Registry
+Description     In-memory copy of apps_table packed in columns: each app gets an int ID, its flags are
+                bits of BitSets, its strings and numbers slots of plain arrays. Replaces one AppMetadata
+                object (and its copies) per app, so thousands of packages (work profiles, several users)
+                cost a few arrays instead of thousands of small objects.
+
+Notes           view() returns an immutable Apps view that shares the arrays: the next change copies the
+                columns it touches, once (copy-on-write). Enabling an app after a view copies two BitSets,
+                a view costs nothing else, and the UI and services read it without a lock.
+                Labels and APK paths go through a string pool (the same app in two profiles shares its
+                label). A removed app keeps its ID (and gets it back if it is installed again) until more
+                than half the IDs are free, then the columns are compacted.
+                Not thread-safe, the DB synchronizes on the registry.
+ */
+class AppRegistry {
+
+    /** Attributes **/
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int NO_ID = -1;
+
+    // Column groups, copied separately when a view holds them
+    private static final int FLAGS = 1;                     // enabled, transientApps
+    private static final int LABELS = 1 << 1;
+    private static final int SOURCE_DIRS = 1 << 2;
+    private static final int NUMBERS = 1 << 3;              // lastUpdateTimes, versionCodes, lastUsed
+    private static final int NAMES = 1 << 4;                // packageNames, idTable
+    private static final int ALL_COLUMNS = FLAGS | LABELS | SOURCE_DIRS | NUMBERS | NAMES;
+
+    // Columns, indexed by app ID
+    private int idCount;                    // IDs handed out (present or removed)
+    private int size;                       // Apps present
+    private String[] packageNames = new String[INITIAL_CAPACITY];
+    private String[] labels = new String[INITIAL_CAPACITY];
+    private String[] sourceDirs = new String[INITIAL_CAPACITY];
+    private long[] lastUpdateTimes = new long[INITIAL_CAPACITY];
+    private long[] versionCodes = new long[INITIAL_CAPACITY];
+    private long[] lastUsed = new long[INITIAL_CAPACITY];
+    private BitSet present = new BitSet();
+    private BitSet enabled = new BitSet();
+    private BitSet transientApps = new BitSet();
+
+    // Package name -> ID (open addressing, linear probing, ID + 1 per slot, 0 if empty)
+    private int[] idTable = new int[INITIAL_CAPACITY * 2];
+
+    // Position in the list -> ID, and ID -> position (rebuilt after an app is added or removed)
+    private int[] order;
+    private int[] positions;
+
+    private final Map<String, String> stringPool = new HashMap<>();
+    private int sharedColumns;              // Column groups a view holds: copied before they change
+
+
+
+
+    /** Apps **/
+    /*
+    Class               Apps
+    Description         Immutable view of the registry at one point in time, read by position (0 to size - 1,
+                        in the order the apps were added)
+
+    Notes               Safe to hand to other threads and to keep: the registry never writes to the arrays of
+                        a view it handed out.
+     */
+    static final class Apps {
+
+        // Attributes
+        static final Apps EMPTY = new AppRegistry().view();
+
+        private final int[] order;
+        private final int[] positions;
+        private final int[] idTable;
+        private final String[] packageNames;
+        private final String[] labels;
+        private final String[] sourceDirs;
+        private final long[] lastUpdateTimes;
+        private final long[] versionCodes;
+        private final long[] lastUsed;
+        private final BitSet enabled;
+        private final BitSet transientApps;
+
+        // Constructor
+        private Apps(AppRegistry registry) {
+            order = registry.order;
+            positions = registry.positions;
+            idTable = registry.idTable;
+            packageNames = registry.packageNames;
+            labels = registry.labels;
+            sourceDirs = registry.sourceDirs;
+            lastUpdateTimes = registry.lastUpdateTimes;
+            versionCodes = registry.versionCodes;
+            lastUsed = registry.lastUsed;
+            enabled = registry.enabled;
+            transientApps = registry.transientApps;
+        }
+
+        private Apps(Apps apps, int[] order) {
+            this.order = order;
+            positions = null;               // Found by a scan of order (subsets are short)
+            idTable = apps.idTable;
+            packageNames = apps.packageNames;
+            labels = apps.labels;
+            sourceDirs = apps.sourceDirs;
+            lastUpdateTimes = apps.lastUpdateTimes;
+            versionCodes = apps.versionCodes;
+            lastUsed = apps.lastUsed;
+            enabled = apps.enabled;
+            transientApps = apps.transientApps;
+        }
+
+        // Methods
+        static Apps of(List<AppMetadata> apps) {
+            AppRegistry registry = new AppRegistry();
+            for (AppMetadata app : apps) {
+                registry.put(app);
+            }
+            return registry.view();
+        }
+
+        int size() {
+            return order.length;
+        }
+
+        String getPackageName(int position) {
+            return packageNames[order[position]];
+        }
+
+        // The package name until the label is loaded
+        String getLabel(int position) {
+            String label = labels[order[position]];
+            return label != null ? label : packageNames[order[position]];
+        }
+
+        boolean isEnabled(int position) {
+            return enabled.get(order[position]);
+        }
+
+        boolean isTransient(int position) {
+            return transientApps.get(order[position]);
+        }
+
+        String getSourceDir(int position) {
+            return sourceDirs[order[position]];
+        }
+
+        long getLastUsed(int position) {
+            return lastUsed[order[position]];
+        }
+
+        long getLastUpdateTime(int position) {
+            return lastUpdateTimes[order[position]];
+        }
+
+        long getVersionCode(int position) {
+            return versionCodes[order[position]];
+        }
+
+        // Position of an app, -1 if it is not in the view
+        int indexOf(String packageName) {
+            int id = find(idTable, packageNames, packageName);
+            if (id == NO_ID) {
+                return -1;
+            }
+            if (positions == null) {
+                for (int position = 0; position < order.length; position++) {
+                    if (order[position] == id) {
+                        return position;
+                    }
+                }
+                return -1;
+            }
+            return id < positions.length ? positions[id] : -1;     // -1 if removed
+        }
+
+        // View of some of the apps, in the given order (the ones not in this view are left out)
+        Apps select(List<String> packageNames) {
+            int[] ids = new int[packageNames.size()];
+            int count = 0;
+            for (String packageName : packageNames) {
+                int position = indexOf(packageName);
+                if (position >= 0) {
+                    ids[count++] = order[position];
+                }
+            }
+            return new Apps(this, Arrays.copyOf(ids, count));
+        }
+
+        // The row of an app as an object, for the code that stores or changes rows
+        AppMetadata toAppMetadata(int position) {
+            int id = order[position];
+            AppMetadata app = new AppMetadata(labels[id], packageNames[id], enabled.get(id), transientApps.get(id));
+            app.setSourceDir(sourceDirs[id]);
+            app.setLastUpdateTime(lastUpdateTimes[id]);
+            app.setVersionCode(versionCodes[id]);
+            app.setLastUsed(lastUsed[id]);
+            return app;
+        }
+    }
+
+
+
+
+    /** Methods **/
+    /*
+    Name                put
+    Description         Adds an app, or replaces every field of it
+     */
+    void put(AppMetadata app) {
+
+        int id = idOf(app.getPackageName());
+        if (id == NO_ID) {
+            id = newId(app.getPackageName());
+        } else {
+            beforeChange(FLAGS | LABELS | SOURCE_DIRS | NUMBERS);
+        }
+        if (!present.get(id)) {
+            present.set(id);
+            size++;
+            order = null;
+        }
+
+        labels[id] = pool(app.getAppName());
+        sourceDirs[id] = pool(app.getSourceDir());
+        lastUpdateTimes[id] = app.getLastUpdateTime();
+        versionCodes[id] = app.getVersionCode();
+        lastUsed[id] = app.getLastUsed();
+        enabled.set(id, app.getEnabledApp() == Boolean.TRUE);
+        transientApps.set(id, app.getTransientApp() == Boolean.TRUE);
+    }
+
+
+    /*
+    Name                remove
+    Description         Removes an app, returns TRUE if it was there
+     */
+    boolean remove(String packageName) {
+
+        int id = presentId(packageName);
+        if (id == NO_ID) {
+            return false;
+        }
+
+        beforeChange(FLAGS | LABELS | SOURCE_DIRS);
+        present.clear(id);
+        enabled.clear(id);
+        transientApps.clear(id);
+        labels[id] = null;
+        sourceDirs[id] = null;
+        size--;
+        order = null;
+
+        // Mostly free IDs: pack the columns again
+        if (idCount > INITIAL_CAPACITY && size < idCount / 2) {
+            compact();
+        }
+
+        return true;
+    }
+
+
+    /*
+    Name                clear
+    Description         Removes every app
+     */
+    void clear() {
+
+        // Start over with new arrays (a view may still use the old ones)
+        AppRegistry empty = new AppRegistry();
+        idCount = 0;
+        size = 0;
+        packageNames = empty.packageNames;
+        labels = empty.labels;
+        sourceDirs = empty.sourceDirs;
+        lastUpdateTimes = empty.lastUpdateTimes;
+        versionCodes = empty.versionCodes;
+        lastUsed = empty.lastUsed;
+        present = empty.present;
+        enabled = empty.enabled;
+        transientApps = empty.transientApps;
+        idTable = empty.idTable;
+        order = null;
+        positions = null;
+        stringPool.clear();
+        sharedColumns = 0;
+    }
+
+
+    /*
+    Name                setEnabled / setTransient / setLabel / setLastUsed
+    Description         Change one field of an app. Return TRUE if the app is there and the field changed.
+     */
+    boolean setEnabled(String packageName, boolean flag) {
+
+        int id = presentId(packageName);
+        if (id == NO_ID || enabled.get(id) == flag) {
+            return false;
+        }
+        beforeChange(FLAGS);
+        enabled.set(id, flag);
+        return true;
+    }
+
+    boolean setTransient(String packageName, boolean flag) {
+
+        int id = presentId(packageName);
+        if (id == NO_ID || transientApps.get(id) == flag) {
+            return false;
+        }
+        beforeChange(FLAGS);
+        transientApps.set(id, flag);
+        return true;
+    }
+
+    boolean setLabel(String packageName, String label, long versionCode) {
+
+        int id = presentId(packageName);
+        if (id == NO_ID) {
+            return false;
+        }
+        boolean sameLabel = label == null ? labels[id] == null : label.equals(labels[id]);
+        if (sameLabel && versionCodes[id] == versionCode) {
+            return false;
+        }
+        beforeChange(LABELS | NUMBERS);
+        labels[id] = pool(label);
+        versionCodes[id] = versionCode;
+        return true;
+    }
+
+    boolean setLastUsed(String packageName, long time) {
+
+        int id = presentId(packageName);
+        if (id == NO_ID || lastUsed[id] == time) {
+            return false;
+        }
+        beforeChange(NUMBERS);
+        lastUsed[id] = time;
+        return true;
+    }
+
+
+    /*
+    Name                Getters
+    Description         Read one app, null if it is not in the registry
+     */
+    int size() {
+        return size;
+    }
+
+    boolean contains(String packageName) {
+        return presentId(packageName) != NO_ID;
+    }
+
+    Boolean isEnabled(String packageName) {
+        int id = presentId(packageName);
+        return id == NO_ID ? null : Boolean.valueOf(enabled.get(id));
+    }
+
+    Boolean isTransient(String packageName) {
+        int id = presentId(packageName);
+        return id == NO_ID ? null : Boolean.valueOf(transientApps.get(id));
+    }
+
+    String getSourceDir(String packageName) {
+        int id = presentId(packageName);
+        return id == NO_ID ? null : sourceDirs[id];
+    }
+
+
+    /*
+    Name                getPackagesByState
+    Description         Returns the package names of the apps with the given flags (BitSet operations, no
+                        row is read)
+     */
+    List<String> getPackagesByState(boolean transientApp, boolean enabledApp) {
+
+        BitSet matches = (BitSet) present.clone();
+        if (transientApp) {
+            matches.and(transientApps);
+        } else {
+            matches.andNot(transientApps);
+        }
+        if (enabledApp) {
+            matches.and(enabled);
+        } else {
+            matches.andNot(enabled);
+        }
+
+        List<String> packageNames = new ArrayList<>(matches.cardinality());
+        for (int id = matches.nextSetBit(0); id >= 0; id = matches.nextSetBit(id + 1)) {
+            packageNames.add(this.packageNames[id]);
+        }
+
+        return packageNames;
+    }
+
+
+    /*
+    Name                getPackageNames
+    Description         Returns the package names of all the apps, in order
+     */
+    List<String> getPackageNames() {
+
+        List<String> names = new ArrayList<>(size);
+        for (int id = present.nextSetBit(0); id >= 0; id = present.nextSetBit(id + 1)) {
+            names.add(packageNames[id]);
+        }
+
+        return names;
+    }
+
+
+    /*
+    Name                view
+    Description         Returns an immutable view of the apps as they are now
+     */
+    Apps view() {
+
+        if (order == null) {
+            int[] newOrder = new int[size];
+            int[] newPositions = new int[idCount];
+            Arrays.fill(newPositions, -1);
+            int position = 0;
+            for (int id = present.nextSetBit(0); id >= 0; id = present.nextSetBit(id + 1)) {
+                newPositions[id] = position;
+                newOrder[position++] = id;
+            }
+            order = newOrder;
+            positions = newPositions;
+        }
+        sharedColumns = ALL_COLUMNS;
+
+        return new Apps(this);
+    }
+
+
+    /*
+    Name                beforeChange
+    Description         Copies the given column groups that a view still uses (copy-on-write).
+                        present, order and positions are not copied: views never see the first, and the
+                        others are replaced, not changed.
+     */
+    private void beforeChange(int columns) {
+
+        int copy = columns & sharedColumns;
+        if ((copy & FLAGS) != 0) {
+            enabled = (BitSet) enabled.clone();
+            transientApps = (BitSet) transientApps.clone();
+        }
+        if ((copy & LABELS) != 0) {
+            labels = labels.clone();
+        }
+        if ((copy & SOURCE_DIRS) != 0) {
+            sourceDirs = sourceDirs.clone();
+        }
+        if ((copy & NUMBERS) != 0) {
+            lastUpdateTimes = lastUpdateTimes.clone();
+            versionCodes = versionCodes.clone();
+            lastUsed = lastUsed.clone();
+        }
+        if ((copy & NAMES) != 0) {
+            packageNames = packageNames.clone();
+            idTable = idTable.clone();
+        }
+        sharedColumns &= ~copy;
+    }
+
+
+    /*
+    Name                newId
+    Description         Hands out the next ID to a package (growing the columns if they are full)
+     */
+    private int newId(String packageName) {
+
+        beforeChange(ALL_COLUMNS);
+        if (idCount == packageNames.length) {
+            int capacity = packageNames.length * 2;
+            packageNames = Arrays.copyOf(packageNames, capacity);
+            labels = Arrays.copyOf(labels, capacity);
+            sourceDirs = Arrays.copyOf(sourceDirs, capacity);
+            lastUpdateTimes = Arrays.copyOf(lastUpdateTimes, capacity);
+            versionCodes = Arrays.copyOf(versionCodes, capacity);
+            lastUsed = Arrays.copyOf(lastUsed, capacity);
+        }
+        if ((idCount + 1) * 2 > idTable.length) {
+            rehash(idTable.length * 2);
+        }
+
+        int id = idCount++;
+        packageNames[id] = packageName;
+        insert(idTable, packageName, id);
+        order = null;
+
+        return id;
+    }
+
+
+    /*
+    Name                compact
+    Description         Gives the apps present new IDs from 0, in the same order, and drops the free ones
+     */
+    private void compact() {
+
+        AppRegistry packed = new AppRegistry();
+        for (int id = present.nextSetBit(0); id >= 0; id = present.nextSetBit(id + 1)) {
+            int newId = packed.newId(packageNames[id]);
+            packed.present.set(newId);
+            packed.labels[newId] = packed.pool(labels[id]);
+            packed.sourceDirs[newId] = packed.pool(sourceDirs[id]);
+            packed.lastUpdateTimes[newId] = lastUpdateTimes[id];
+            packed.versionCodes[newId] = versionCodes[id];
+            packed.lastUsed[newId] = lastUsed[id];
+            packed.enabled.set(newId, enabled.get(id));
+            packed.transientApps.set(newId, transientApps.get(id));
+        }
+
+        int apps = size;
+        clear();
+        idCount = packed.idCount;
+        size = apps;
+        packageNames = packed.packageNames;
+        labels = packed.labels;
+        sourceDirs = packed.sourceDirs;
+        lastUpdateTimes = packed.lastUpdateTimes;
+        versionCodes = packed.versionCodes;
+        lastUsed = packed.lastUsed;
+        present = packed.present;
+        enabled = packed.enabled;
+        transientApps = packed.transientApps;
+        idTable = packed.idTable;
+        stringPool.putAll(packed.stringPool);
+    }
+
+
+    private void rehash(int tableSize) {
+        int[] table = new int[tableSize];
+        for (int id = 0; id < idCount; id++) {
+            insert(table, packageNames[id], id);
+        }
+        idTable = table;
+    }
+
+
+    private int idOf(String packageName) {
+        return find(idTable, packageNames, packageName);
+    }
+
+    private int presentId(String packageName) {
+        int id = idOf(packageName);
+        return id != NO_ID && present.get(id) ? id : NO_ID;
+    }
+
+
+    /*
+    Name                find / insert
+    Description         Lookup and insert in an ID table (the table is at most half full)
+     */
+    private static int find(int[] table, String[] packageNames, String packageName) {
+
+        int mask = table.length - 1;
+        for (int slot = hash(packageName) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (packageNames[id].equals(packageName)) {
+                return id;
+            }
+        }
+
+        return NO_ID;
+    }
+
+    private static void insert(int[] table, String packageName, int id) {
+
+        int mask = table.length - 1;
+        int slot = hash(packageName) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = id + 1;
+    }
+
+    private static int hash(String packageName) {
+        int h = packageName.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+
+    /*
+    Name                pool
+    Description         Returns the pooled copy of a string (equal strings are kept once)
+     */
+    private String pool(String value) {
+
+        if (value == null) {
+            return null;
+        }
+        String pooled = stringPool.get(value);
+        if (pooled == null) {
+            stringPool.put(value, value);
+            pooled = value;
+        }
+
+        return pooled;
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.android.transientlauncher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+
+/*
+Class           App Rows
+Description     Builds the apps_table rows of launchable packages: classified by the TransiencyPolicy,
+                enabled, and labeled with their package name until the label is loaded.
+
+Notes           Takes what the PackageManager reported as plain values (no Android types), so the
+                benchmark module runs the same code as getLaunchableAppsAndLoadDb.
+ */
+class AppRows {
+
+    /** Attributes **/
+    private final TransiencyPolicy policy;
+    private final List<AppMetadata> rows;
+
+
+
+
+    /** Constructor **/
+    AppRows(TransiencyPolicy policy, int expectedSize) {
+        this.policy = policy;
+        this.rows = new ArrayList<>(expectedSize);
+    }
+
+
+
+
+    /** Methods **/
+    /*
+    Name                newRow
+    Description         Returns the row of a package the DB does not know yet
+     */
+    static AppMetadata newRow(TransiencyPolicy policy, String packageName, long lastUpdateTime, String sourceDir) {
+
+        AppMetadata app = new AppMetadata(packageName, packageName, Boolean.TRUE, policy.isTransient(packageName));
+        app.setLastUpdateTime(lastUpdateTime);
+        app.setSourceDir(sourceDir);
+
+        return app;
+    }
+
+
+    /*
+    Name                add
+    Description         Adds the row of a launchable package, returns it
+     */
+    AppMetadata add(String packageName, long lastUpdateTime, String sourceDir) {
+
+        AppMetadata app = newRow(policy, packageName, lastUpdateTime, sourceDir);
+        rows.add(app);
+
+        return app;
+    }
+
+
+    /*
+    Name                get
+    Description         Returns the rows added so far (in order)
+     */
+    List<AppMetadata> get() {
+        return rows;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.android.transientlauncher;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Process;
+import android.util.Log;
+
+
+
+/*
+Class           Boot Receiver
+Description     Checks the APK modes of all apps against the DB once the device booted: an OTA update may
+                have replaced APKs (readable again) while the launcher was not running. For the same
+                reason, the next resume syncs every package (not only the logged package changes).
+
+Notes           The reconcile runs here, on a thread of its own while the broadcast is kept pending
+                (goAsync), not in the TransiencyService: Android 8+ does not let a boot receiver start a
+                background service, and a foreground one would show its notification for nothing.
+ */
+public class BootReceiver extends BroadcastReceiver {
+
+    /** Attributes **/
+    private static final String LOG_TAG = BootReceiver.class.getSimpleName();
+
+
+
+
+    /** Methods **/
+    @Override
+    public void onReceive(Context context, Intent intent) {
+
+        if (!Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
+            return;
+        }
+
+        Log.d(LOG_TAG, "** INFO **    Boot completed --> Reconciling APK modes with the DB.");
+        PackageChangeLog.getInstance(context).requestResync();
+
+        final Context appContext = context.getApplicationContext();
+        final PendingResult pendingResult = goAsync();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    TransiencyManager transiencyManager = TransiencyService.createTransiencyManager(appContext,
+                            AppMetadataRoomDatabase.getDatabase(appContext));
+                    TransiencyService.reconcileNow(appContext, transiencyManager, null);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "* ERROR *   Boot reconcile failed: " + e.getMessage());
+                } finally {
+                    pendingResult.finish();
+                }
+            }
+        }, "BootReconcile");
+        thread.start();
+    }
+}
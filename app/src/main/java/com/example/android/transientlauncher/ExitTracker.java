@@ -0,0 +1,294 @@
+package com.example.android.transientlauncher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+
+/*
+Class           Exit Tracker
+Description     Keeps track of when the enabled transient apps left the foreground, and decides which of
+                them are due to be disabled (left the foreground more than a grace period ago, and have
+                no process left).
+
+Notes           Not thread-safe, used from the TransiencyService thread only. Times are wall clock
+                milliseconds, the same base as the usage events.
+                An app that is past its grace period but still has a process is checked again later,
+                waiting twice as long every time (up to MAX_RETRY_MS).
+                Pre-enabled apps (see PreEnabler) are kept while the launcher is shown: they were enabled
+                for the next tap, their grace period starts once the launcher is hidden.
+                Nothing expires while transiency is off (Enable All, until the user disables an app again);
+                the apps in the background get a full grace period once it is back on.
+ */
+class ExitTracker {
+
+    /** Attributes **/
+    static final long NONE = -1;
+    static final long MAX_RETRY_MS = 15 * 60 * 1000;
+    static final long FOREGROUND_RECHECK_MS = 15 * 60 * 1000;  // Only apps in the foreground: check again then
+
+    private final long gracePeriodMs;
+    private final Map<String, State> states = new HashMap<>();
+    private boolean launcherShown;
+    private boolean transiencyOff;
+
+    private static class State {
+        boolean foreground;
+        boolean held;           // Pre-enabled while the launcher is shown
+        long since;             // Time of the last move to the foreground or background
+        long notBefore;         // Don't disable before this time
+        long retryMs;           // Wait before checking again, if the app still has a process
+    }
+
+
+
+
+    /** Constructor **/
+    ExitTracker(long gracePeriodMs) {
+        this.gracePeriodMs = gracePeriodMs;
+    }
+
+
+
+
+    /** Methods **/
+    /*
+    Name                onForeground
+    Description         An app moved to the foreground (e.g. just launched)
+     */
+    void onForeground(String packageName, long time) {
+
+        State state = stateOf(packageName, time);
+        if (time >= state.since) {
+            state.foreground = true;
+            state.held = false;
+            state.since = time;
+        }
+    }
+
+
+    /*
+    Name                onBackground
+    Description         An app left the foreground, its grace period starts now
+     */
+    void onBackground(String packageName, long time) {
+
+        State state = stateOf(packageName, time);
+        if (time >= state.since) {
+            moveToBackground(state, time);
+        }
+    }
+
+
+    /*
+    Name                onLauncherShown
+    Description         The launcher is in the foreground, so no other app is
+     */
+    void onLauncherShown(long time) {
+
+        launcherShown = true;
+        for (State state : states.values()) {
+            if (state.foreground && time >= state.since) {
+                moveToBackground(state, time);
+            }
+        }
+    }
+
+
+    /*
+    Name                onLauncherHidden
+    Description         The launcher left the foreground (an app was launched, the screen went off...): the
+                        grace period of the pre-enabled apps starts now
+     */
+    void onLauncherHidden(long time) {
+
+        launcherShown = false;
+        for (State state : states.values()) {
+            if (state.held) {
+                state.held = false;
+                moveToBackground(state, time);
+            }
+        }
+    }
+
+
+    /*
+    Name                watched
+    Description         Returns the candidates that may still expire: none while transiency is off, and not
+                        the pre-enabled ones while the launcher is shown (their grace period has not started)
+     */
+    static List<String> watched(Collection<String> candidates, Collection<String> preEnabled,
+                                boolean launcherShown, boolean transiencyOff) {
+
+        List<String> watched = new ArrayList<>();
+        if (transiencyOff) {
+            return watched;
+        }
+        for (String packageName : candidates) {
+            if (!launcherShown || !preEnabled.contains(packageName)) {
+                watched.add(packageName);
+            }
+        }
+
+        return watched;
+    }
+
+
+    /*
+    Name                isLauncherShown
+    Description         Returns TRUE if the launcher is in the foreground (last onLauncherShown/onLauncherHidden)
+     */
+    boolean isLauncherShown() {
+        return launcherShown;
+    }
+
+
+    /*
+    Name                setTransiencyOff
+    Description         Turns the disabling of the exited apps off (Enable All) or back on
+     */
+    void setTransiencyOff(boolean off, long time) {
+
+        if (transiencyOff && !off) {
+            for (State state : states.values()) {
+                if (!state.foreground && !state.held) {
+                    moveToBackground(state, time);
+                }
+            }
+        }
+        transiencyOff = off;
+    }
+
+
+    /*
+    Name                expired
+    Description         Returns the candidates that left the foreground more than a grace period ago.
+                        Candidates are the enabled transient apps, tracking stops for any other app.
+     */
+    List<String> expired(Collection<String> candidates, long now) {
+        return expired(candidates, Collections.<String>emptySet(), now);
+    }
+
+
+    /*
+    Name                expired
+    Description         Same as expired(candidates, now), keeping the pre-enabled candidates while the
+                        launcher is shown
+     */
+    List<String> expired(Collection<String> candidates, Collection<String> preEnabled, long now) {
+
+        // Apps that are no longer candidates (disabled by the user, uninstalled, ...)
+        Set<String> watched = new HashSet<>(candidates);
+        Iterator<String> iterator = states.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (!watched.contains(iterator.next())) {
+                iterator.remove();
+            }
+        }
+
+        List<String> expired = new ArrayList<>();
+        for (String packageName : watched) {
+            State state = stateOf(packageName, now);
+            if (launcherShown && !state.foreground && preEnabled.contains(packageName)) {
+                state.held = true;
+            }
+            if (!transiencyOff && !state.foreground && !state.held && now >= state.notBefore) {
+                expired.add(packageName);
+            }
+        }
+
+        return expired;
+    }
+
+
+    /*
+    Name                stillRunning
+    Description         An expired app still has a process, check it again later
+     */
+    void stillRunning(String packageName, long now) {
+
+        State state = stateOf(packageName, now);
+        state.notBefore = now + state.retryMs;
+        state.retryMs = Math.min(state.retryMs * 2, MAX_RETRY_MS);
+    }
+
+
+    /*
+    Name                forget
+    Description         Stops tracking an app (e.g. it was disabled)
+     */
+    void forget(String packageName) {
+        states.remove(packageName);
+    }
+
+
+    /*
+    Name                nextCheckTime
+    Description         Returns when the next app may expire, NONE if no app is tracked (or transiency is off)
+     */
+    long nextCheckTime(long now) {
+
+        if (transiencyOff) {
+            return NONE;
+        }
+
+        long next = NONE;
+        boolean anyForeground = false;
+        for (State state : states.values()) {
+            if (state.foreground || state.held) {
+                anyForeground = true;
+            } else if (next == NONE || state.notBefore < next) {
+                next = state.notBefore;
+            }
+        }
+
+        // Apps in the foreground (or held) expire on an event; re-check once in a while in case we miss it
+        if (next == NONE && anyForeground) {
+            next = now + FOREGROUND_RECHECK_MS;
+        }
+
+        return next;
+    }
+
+
+    /*
+    Name                isEmpty
+    Description         Returns TRUE if no app is tracked
+     */
+    boolean isEmpty() {
+        return states.isEmpty();
+    }
+
+
+    /*
+    Name                stateOf
+    Description         Returns the state of an app. An app seen for the first time is considered to have
+                        left the foreground at that time.
+     */
+    private State stateOf(String packageName, long time) {
+
+        State state = states.get(packageName);
+        if (state == null) {
+            state = new State();
+            moveToBackground(state, time);
+            states.put(packageName, state);
+        }
+
+        return state;
+    }
+
+
+    private void moveToBackground(State state, long time) {
+        state.foreground = false;
+        state.since = time;
+        state.notBefore = time + gracePeriodMs;
+        state.retryMs = Math.max(gracePeriodMs, 1000);
+    }
+}
@@ -0,0 +1,391 @@
+package com.example.android.transientlauncher;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+
+/*
+Class           Icon Cache
+Description     Two-tier cache of app icons: a byte-bounded LRU of bitmaps in memory, backed by a disk
+                cache of icons already scaled to the list size, keyed by package and version code.
+
+Notes           Both tiers are keyed by package and version code, so an updated app never shows the icon
+                of its previous version. Icons are loaded, scaled and written on background threads. The
+                pending load of a row is cancelled when the row is recycled for another app.
+                A disabled transient app has an unreadable APK, so its icon can only come from the disk
+                cache: save() stores it once the app is enabled, saveBeforeDisable() if it is still
+                missing when the app is disabled. A disabled app without a cached icon shows the default
+                icon.
+                Rows whose label was not loaded yet do not know their version code: they are shown with
+                the newest version of their package in memory, if any.
+ */
+class IconCache {
+
+    /** Attributes **/
+    private static final String LOG_TAG = IconCache.class.getSimpleName();
+    private static final String DIRECTORY = "icons";
+    private static final int MAX_MEMORY_BYTES = 8 * 1024 * 1024;
+    private static final long SAVE_TIMEOUT_MS = 1000;
+    private static IconCache INSTANCE;          // Shared cache, static (only one)
+
+    private final PackageManager packageManager;
+    private final File directory;
+    private final int iconSize;                 // Pixels
+    private final LruCache<String, Bitmap> memoryCache;
+    private final Map<String, Long> newestVersions = new ConcurrentHashMap<>();    // Package -> newest version put in memory
+    private final ExecutorService loader;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+
+
+
+    /** Constructor **/
+    private IconCache(Context context) {
+        this.packageManager = context.getPackageManager();
+        this.directory = new File(context.getCacheDir(), DIRECTORY);
+        this.iconSize = context.getResources().getDimensionPixelSize(R.dimen.icon_size);
+
+        // Memory tier: at most 1/16 of the heap, and no more than MAX_MEMORY_BYTES
+        int maxBytes = (int) Math.min(MAX_MEMORY_BYTES, Runtime.getRuntime().maxMemory() / 16);
+        this.memoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(2, 2, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                Thread thread = new Thread(r, "IconCache");
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        this.loader = pool;
+    }
+
+
+
+
+    /** Methods **/
+    /*
+    Name                getInstance
+    Description         Returns the icon cache of the launcher
+     */
+    static IconCache getInstance(Context context) {
+
+        // If the instance is null, synchronize and check again
+        if (INSTANCE == null) {
+            synchronized (IconCache.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new IconCache(context.getApplicationContext());
+                }
+            }
+        }
+
+        return INSTANCE;
+    }
+
+
+    /*
+    Name                load
+    Description         Shows the icon of an app in a (possibly recycled) ImageView. Memory hits are set
+                        right away, anything else is loaded in the background.
+     */
+    void load(final ImageView view, final String packageName, long versionCode, final boolean apkReadable) {
+
+        // Cancel the load of the app this row showed before
+        cancel(view);
+
+        if (versionCode == AppMetadata.UNKNOWN_VERSION && newestVersions.containsKey(packageName)) {
+            versionCode = newestVersions.get(packageName);
+        }
+        Bitmap cached = memoryCache.get(key(packageName, versionCode));
+        if (cached != null) {
+            view.setTag(R.id.app_icon, null);
+            view.setTag(R.id.package_name, packageName);
+            view.setImageBitmap(cached);
+            return;
+        }
+
+        view.setImageDrawable(packageManager.getDefaultActivityIcon());
+        Future<?> task = loader.submit(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = loadBitmap(packageName, apkReadable);
+                if (bitmap == null || Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Only if the row still shows this app
+                        if (packageName.equals(view.getTag(R.id.package_name))) {
+                            view.setImageBitmap(bitmap);
+                        }
+                    }
+                });
+            }
+        });
+        view.setTag(R.id.app_icon, task);
+        view.setTag(R.id.package_name, packageName);
+    }
+
+
+    /*
+    Name                cancel
+    Description         Cancels the pending icon load of an ImageView (e.g. its row was recycled)
+     */
+    void cancel(ImageView view) {
+
+        Object pending = view.getTag(R.id.app_icon);
+        if (pending instanceof Future) {
+            ((Future<?>) pending).cancel(true);
+        }
+        view.setTag(R.id.app_icon, null);
+        view.setTag(R.id.package_name, null);
+    }
+
+
+    /*
+    Name                save
+    Description         Stores the icon of an app on disk in the background (e.g. it was just enabled, its
+                        APK is readable), so it is there when the app gets disabled
+     */
+    void save(final String packageName) {
+
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    saveToDisk(packageManager.getPackageInfo(packageName, 0));
+                } catch (PackageManager.NameNotFoundException e) {
+                    // Uninstalled in the meantime
+                }
+            }
+        });
+    }
+
+
+    /*
+    Name                saveBeforeDisable
+    Description         Stores the icon of an app on disk while its APK is still readable, so it can still
+                        be shown once the app is disabled. The icon is drawn on a loader thread, the caller
+                        only waits for it if it is not on disk yet (at most SAVE_TIMEOUT_MS).
+     */
+    void saveBeforeDisable(final PackageInfo packageInfo) {
+
+        if (fileFor(packageInfo.packageName, packageInfo.versionCode).exists()) {
+            return;
+        }
+
+        Future<?> task = loader.submit(new Runnable() {
+            @Override
+            public void run() {
+                saveToDisk(packageInfo);
+            }
+        });
+        try {
+            task.get(SAVE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            Log.w(LOG_TAG, "** WARNING ** Icon of " + packageInfo.packageName + " not saved before disabling it.");
+        }
+    }
+
+
+    /*
+    Name                remove
+    Description         Forgets the icons of every version of a package (e.g. uninstalled), the files are
+                        deleted in the background
+     */
+    void remove(final String packageName) {
+
+        newestVersions.remove(packageName);
+        for (String key : memoryCache.snapshot().keySet()) {
+            if (packageName.equals(packageOf(key))) {
+                memoryCache.remove(key);
+            }
+        }
+
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = directory.listFiles();
+                if (files == null) {
+                    return;
+                }
+                for (File file : files) {
+                    String name = file.getName();
+                    if (name.endsWith(".png") && packageName.equals(packageOf(name.substring(0, name.length() - 4)))) {
+                        file.delete();
+                    }
+                }
+            }
+        });
+    }
+
+
+    /*
+    Name                saveToDisk
+    Description         Draws and writes the icon of a package version unless it is on disk already.
+                        Runs on a loader thread.
+     */
+    private void saveToDisk(PackageInfo packageInfo) {
+
+        File file = fileFor(packageInfo.packageName, packageInfo.versionCode);
+        if (file.exists()) {
+            return;
+        }
+
+        Bitmap bitmap = scale(packageInfo.applicationInfo.loadIcon(packageManager));
+        writeToDisk(file, bitmap);
+        putInMemory(packageInfo.packageName, packageInfo.versionCode, bitmap);
+    }
+
+
+    /*
+    Name                loadBitmap
+    Description         Returns the icon from disk, or from the APK (and saves it to disk) if it is readable.
+                        Runs on a loader thread.
+     */
+    private Bitmap loadBitmap(String packageName, boolean apkReadable) {
+
+        PackageInfo packageInfo;
+        try {
+            packageInfo = packageManager.getPackageInfo(packageName, 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+
+        // Disk tier
+        File file = fileFor(packageName, packageInfo.versionCode);
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+
+        // APK, only while the app is enabled (otherwise we would cache the default icon)
+        if (bitmap == null && apkReadable) {
+            bitmap = scale(packageInfo.applicationInfo.loadIcon(packageManager));
+            writeToDisk(file, bitmap);
+        }
+
+        if (bitmap != null) {
+            putInMemory(packageName, packageInfo.versionCode, bitmap);
+        }
+        return bitmap;
+    }
+
+
+    /*
+    Name                putInMemory
+    Description         Adds an icon to the memory tier, and remembers its version if it is the newest one
+     */
+    private void putInMemory(String packageName, long versionCode, Bitmap bitmap) {
+
+        memoryCache.put(key(packageName, versionCode), bitmap);
+        Long newest = newestVersions.get(packageName);
+        if (newest == null || newest < versionCode) {
+            newestVersions.put(packageName, versionCode);
+        }
+    }
+
+
+    /*
+    Name                scale
+    Description         Draws an icon into a bitmap of the list icon size
+     */
+    private Bitmap scale(Drawable icon) {
+
+        Bitmap bitmap = Bitmap.createBitmap(iconSize, iconSize, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        icon.setBounds(0, 0, iconSize, iconSize);
+        icon.draw(canvas);
+
+        return bitmap;
+    }
+
+
+    /*
+    Name                writeToDisk
+    Description         Writes a bitmap as PNG, through a temporary file so a crash never leaves half an icon
+     */
+    private void writeToDisk(File file, Bitmap bitmap) {
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(LOG_TAG, "* ERROR *   Couldn't create the icon cache directory.");
+            return;
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "* ERROR *   Couldn't write icon " + file.getName());
+            temp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Nothing to do
+                }
+            }
+        }
+    }
+
+
+    /*
+    Name                fileFor
+    Description         Returns the disk cache file of a package version
+     */
+    private File fileFor(String packageName, long versionCode) {
+        return new File(directory, key(packageName, versionCode) + ".png");
+    }
+
+
+    private static String key(String packageName, long versionCode) {
+        return packageName + "_" + versionCode;
+    }
+
+    // Package of a key (package names may contain '_' too, the version code is after the last one)
+    private static String packageOf(String key) {
+        int separator = key.lastIndexOf('_');
+        return separator > 0 ? key.substring(0, separator) : null;
+    }
+}
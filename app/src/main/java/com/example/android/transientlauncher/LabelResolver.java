@@ -0,0 +1,165 @@
+package com.example.android.transientlauncher;
+
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+
+/*
+Class           Label Resolver
+Description     Loads app labels in parallel on a small worker pool. ResolveInfo.loadLabel loads the
+                resources of the target app, which dominates a cold scan when done one by one.
+
+Notes           Every label is handed to the listener on the main thread as soon as it is loaded, and
+                the whole batch once the last one is done (to persist them together).
+ */
+class LabelResolver {
+
+    /** Attributes **/
+    private static final String LOG_TAG = LabelResolver.class.getSimpleName();
+    private static final int POOL_SIZE = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final ExecutorService POOL;
+    static {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                Thread thread = new Thread(r, "LabelResolver-" + count.incrementAndGet());
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        POOL = pool;
+    }
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    private final PackageManager packageManager;
+
+
+
+
+    /** Request / Label **/
+    /*
+    Class               Request
+    Description         An activity whose label has to be loaded, with the version code of its package
+     */
+    static class Request {
+
+        // Attributes
+        final ResolveInfo resolveInfo;
+        final long versionCode;
+
+        // Constructor
+        Request(ResolveInfo resolveInfo, long versionCode) {
+            this.resolveInfo = resolveInfo;
+            this.versionCode = versionCode;
+        }
+    }
+
+
+    /*
+    Class               Label
+    Description         A loaded label, for the package and version code it was loaded from
+     */
+    static class Label {
+
+        // Attributes
+        final String packageName;
+        final String label;
+        final long versionCode;
+
+        // Constructor
+        Label(String packageName, String label, long versionCode) {
+            this.packageName = packageName;
+            this.label = label;
+            this.versionCode = versionCode;
+        }
+    }
+
+
+    /*
+    Interface           Listener
+    Description         Receives the labels on the main thread
+     */
+    interface Listener {
+        void onLabelResolved(Label label);
+        void onAllResolved(List<Label> labels);
+    }
+
+
+
+
+    /** Constructor **/
+    LabelResolver(PackageManager pm) {
+        this.packageManager = pm;
+    }
+
+
+
+
+    /** Methods **/
+    /*
+    Name                resolve
+    Description         Loads the labels of all requests on the worker pool
+     */
+    void resolve(List<Request> requests, final Listener listener) {
+
+        if (requests.isEmpty()) {
+            listener.onAllResolved(Collections.<Label>emptyList());
+            return;
+        }
+
+        final List<Label> labels = Collections.synchronizedList(new ArrayList<Label>(requests.size()));
+        final AtomicInteger remaining = new AtomicInteger(requests.size());
+
+        for (final Request request : requests) {
+            POOL.execute(new Runnable() {
+                @Override
+                public void run() {
+
+                    // Load the label (falls back to the package name if it cannot be loaded)
+                    String packageName = request.resolveInfo.activityInfo.packageName;
+                    String name;
+                    try {
+                        name = request.resolveInfo.loadLabel(packageManager).toString();
+                    } catch (RuntimeException e) {
+                        Log.e(LOG_TAG, "* ERROR *   Couldn't load the label of " + packageName);
+                        name = packageName;
+                    }
+                    final Label label = new Label(packageName, name, request.versionCode);
+                    labels.add(label);
+
+                    // Hand it to the UI right away, and the whole batch after the last one
+                    final boolean last = remaining.decrementAndGet() == 0;
+                    MAIN_HANDLER.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onLabelResolved(label);
+                            if (last) {
+                                listener.onAllResolved(new ArrayList<>(labels));
+                            }
+                        }
+                    });
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.android.transientlauncher;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+
+
+/*
+Class           Latency Histogram
+Description     Fixed-memory histogram of latencies in microseconds, for percentiles (p50, p90, p99) and max.
+
+Notes           Log-linear buckets: values below SUB_BUCKETS get a bucket each, above that every power of
+                two is split in SUB_BUCKETS buckets, so a percentile is off by at most 1/SUB_BUCKETS
+                (12.5%). Values above the last bucket (about 4.7 hours) are counted in it.
+                Not thread-safe.
+ */
+class LatencyHistogram {
+
+    /** Attributes **/
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 33;
+    static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final int[] counts = new int[BUCKETS];
+    private long count;
+    private long max;
+    private long sum;
+
+
+
+
+    /** Methods **/
+    /*
+    Name                record
+    Description         Adds one latency, in microseconds
+     */
+    void record(long micros) {
+
+        long value = Math.max(0, micros);
+        counts[bucketOf(value)]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+
+    /*
+    Name                percentile
+    Description         Returns the latency (microseconds) under which the given share of the values are,
+                        e.g. 0.99 for p99. 0 if nothing was recorded.
+     */
+    long percentile(double share) {
+
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(share * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(bucket), max);
+            }
+        }
+
+        return max;
+    }
+
+
+    long getCount() {
+        return count;
+    }
+
+    long getMax() {
+        return max;
+    }
+
+    long getMean() {
+        return count > 0 ? sum / count : 0;
+    }
+
+
+    /*
+    Name                writeTo / readFrom
+    Description         Saves and restores the histogram (only the buckets in use are written)
+     */
+    void writeTo(DataOutput out) throws IOException {
+
+        out.writeLong(count);
+        out.writeLong(max);
+        out.writeLong(sum);
+
+        int used = 0;
+        for (int bucketCount : counts) {
+            if (bucketCount != 0) {
+                used++;
+            }
+        }
+        out.writeShort(used);
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            if (counts[bucket] != 0) {
+                out.writeShort(bucket);
+                out.writeInt(counts[bucket]);
+            }
+        }
+    }
+
+    static LatencyHistogram readFrom(DataInput in) throws IOException {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.count = in.readLong();
+        histogram.max = in.readLong();
+        histogram.sum = in.readLong();
+
+        int used = in.readShort();
+        for (int i = 0; i < used; i++) {
+            int bucket = in.readShort();
+            if (bucket < 0 || bucket >= BUCKETS) {
+                throw new IOException("Bad histogram bucket " + bucket);
+            }
+            histogram.counts[bucket] = in.readInt();
+        }
+
+        return histogram;
+    }
+
+
+    /*
+    Name                bucketOf / upperBoundOf
+    Description         Maps a value to its bucket, and a bucket to the largest value it holds
+     */
+    static int bucketOf(long value) {
+
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+
+        return SUB_BUCKETS + (exponent - SUB_BITS) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBoundOf(int bucket) {
+
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+        int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BITS);
+
+        return (1L << exponent) + (sub + 1) * width - 1;
+    }
+}
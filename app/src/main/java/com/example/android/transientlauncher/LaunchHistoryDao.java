@@ -0,0 +1,29 @@
+package com.example.android.transientlauncher;
+
+import android.arch.persistence.room.Dao;
+import android.arch.persistence.room.Insert;
+import android.arch.persistence.room.Query;
+
+import java.util.List;
+
+
+
+/*
+Interface       Launch History Dao (Data Access Object)
+Description     Interface used by the database class to read and write the launch history.
+ */
+@Dao
+public interface LaunchHistoryDao {
+
+    // Record a launch
+    @Insert
+    void insert(LaunchRecord launch);
+
+    // Get the launches since a given time, oldest first
+    @Query("SELECT * FROM launch_history WHERE launchTime >= :since ORDER BY launchTime")
+    List<LaunchRecord> getLaunchesSince(long since);
+
+    // Forget the launches older than a given time
+    @Query("DELETE FROM launch_history WHERE launchTime < :before")
+    int deleteLaunchesBefore(long before);
+}
@@ -0,0 +1,165 @@
+package com.example.android.transientlauncher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+
+
+/*
+Class           Launch Predictor
+Description     Scores the apps by how likely they are to be launched next, from the launch history.
+
+Notes           The score of an app adds up three parts, each between 0 and 1:
+                    time of day     Share of the launches around this hour (+-1 hour) that were this app
+                    recency         1 right after its last launch, halved every RECENCY_HALF_LIFE_MS
+                    sequence        Share of the launches after the last launched app that were this app
+                Apps that were never launched are never predicted, nor are apps scoring under MIN_SCORE:
+                every app launched once has some recency, but an app last launched days ago at another
+                time of day is not worth a chmod on every resume.
+ */
+class LaunchPredictor {
+
+    /** Attributes **/
+    static final long RECENCY_HALF_LIFE_MS = 24 * 60 * 60 * 1000;
+    static final double MIN_SCORE = 0.5;        // E.g. launched a day ago, or half the launches at this hour
+    private static final long HOUR_MS = 60 * 60 * 1000;
+    private static final int HOURS = 24;
+
+    private final TimeZone timeZone;
+    private final Map<String, AppHistory> apps = new HashMap<>();
+    private final int[] launchesPerHour = new int[HOURS];
+    private final Map<String, Map<String, Integer>> followers = new HashMap<>();   // previous -> (next -> launches)
+    private final Map<String, Integer> followerTotals = new HashMap<>();
+
+    private static class AppHistory {
+        final int[] launchesPerHour = new int[HOURS];
+        long lastLaunch;
+    }
+
+
+
+
+    /** Constructor **/
+    LaunchPredictor(TimeZone timeZone) {
+        this.timeZone = timeZone;
+    }
+
+
+
+
+    /** Methods **/
+    /*
+    Name                add
+    Description         Learns from one launch
+     */
+    void add(LaunchRecord launch) {
+
+        String packageName = launch.getPackageName();
+        int hour = hourOf(launch.getLaunchTime());
+
+        AppHistory history = apps.get(packageName);
+        if (history == null) {
+            history = new AppHistory();
+            apps.put(packageName, history);
+        }
+        history.launchesPerHour[hour]++;
+        history.lastLaunch = Math.max(history.lastLaunch, launch.getLaunchTime());
+        launchesPerHour[hour]++;
+
+        String previous = launch.getPreviousPackage();
+        if (previous != null) {
+            Map<String, Integer> next = followers.get(previous);
+            if (next == null) {
+                next = new HashMap<>();
+                followers.put(previous, next);
+            }
+            next.put(packageName, count(next, packageName) + 1);
+            followerTotals.put(previous, count(followerTotals, previous) + 1);
+        }
+    }
+
+
+    void addAll(List<LaunchRecord> launches) {
+        for (LaunchRecord launch : launches) {
+            add(launch);
+        }
+    }
+
+
+    /*
+    Name                score
+    Description         Returns how likely an app is to be launched now (0 if it was never launched)
+     */
+    double score(String packageName, String lastLaunched, long now) {
+
+        AppHistory history = apps.get(packageName);
+        if (history == null) {
+            return 0;
+        }
+
+        // Time of day, with the neighbour hours
+        int hour = hourOf(now);
+        int before = (hour + HOURS - 1) % HOURS;
+        int after = (hour + 1) % HOURS;
+        double appLaunches = history.launchesPerHour[hour]
+                + 0.5 * (history.launchesPerHour[before] + history.launchesPerHour[after]);
+        double allLaunches = launchesPerHour[hour] + 0.5 * (launchesPerHour[before] + launchesPerHour[after]);
+        double timeOfDay = allLaunches > 0 ? appLaunches / allLaunches : 0;
+
+        // Recency
+        double age = Math.max(0, now - history.lastLaunch);
+        double recency = Math.pow(0.5, age / RECENCY_HALF_LIFE_MS);
+
+        // Sequence
+        double sequence = 0;
+        if (lastLaunched != null && followers.containsKey(lastLaunched)) {
+            sequence = (double) count(followers.get(lastLaunched), packageName) / count(followerTotals, lastLaunched);
+        }
+
+        return timeOfDay + recency + sequence;
+    }
+
+
+    /*
+    Name                predict
+    Description         Returns up to k of the candidates scoring at least MIN_SCORE, most likely first
+     */
+    List<String> predict(Collection<String> candidates, String lastLaunched, long now, int k) {
+
+        final Map<String, Double> scores = new HashMap<>();
+        for (String packageName : candidates) {
+            double score = score(packageName, lastLaunched, now);
+            if (score >= MIN_SCORE) {
+                scores.put(packageName, score);
+            }
+        }
+
+        List<String> ranked = new ArrayList<>(scores.keySet());
+        Collections.sort(ranked, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Double.compare(scores.get(b), scores.get(a));
+            }
+        });
+
+        return ranked.subList(0, Math.min(k, ranked.size()));
+    }
+
+
+    private int hourOf(long time) {
+        long local = time + timeZone.getOffset(time);
+        return (int) (((local / HOUR_MS) % HOURS + HOURS) % HOURS);
+    }
+
+
+    private static int count(Map<String, Integer> counts, String key) {
+        Integer count = counts.get(key);
+        return count != null ? count : 0;
+    }
+}
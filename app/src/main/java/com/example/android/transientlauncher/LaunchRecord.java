@@ -0,0 +1,67 @@
+package com.example.android.transientlauncher;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Index;
+import android.arch.persistence.room.PrimaryKey;
+
+
+
+/*
+Class           Launch Record
+Description     One launch of an app from the launcher. Entry definition of the usage history table, used
+                to predict which apps are about to be launched.
+ */
+@Entity(tableName = "launch_history", indices = {@Index("launchTime")})
+class LaunchRecord {
+
+    // Attributes
+    @PrimaryKey(autoGenerate = true)
+    @ColumnInfo(name = "id")
+    private long id;
+
+    @ColumnInfo(name = "packageName")
+    private String packageName;
+
+    @ColumnInfo(name = "launchTime")
+    private long launchTime;            // Wall clock milliseconds
+
+    @ColumnInfo(name = "previousPackage")
+    private String previousPackage;     // App launched right before this one (null if none)
+
+
+    // Constructor
+    LaunchRecord(String packageName, long launchTime, String previousPackage) {
+        this.packageName = packageName;
+        this.launchTime = launchTime;
+        this.previousPackage = previousPackage;
+    }
+
+
+    // Methods
+    long getId() {
+        return this.id;
+    }
+    String getPackageName() {
+        return this.packageName;
+    }
+    long getLaunchTime() {
+        return this.launchTime;
+    }
+    String getPreviousPackage() {
+        return this.previousPackage;
+    }
+
+    void setId(long id) {
+        this.id = id;
+    }
+    void setPackageName(String package_name) {
+        this.packageName = package_name;
+    }
+    void setLaunchTime(long time) {
+        this.launchTime = time;
+    }
+    void setPreviousPackage(String package_name) {
+        this.previousPackage = package_name;
+    }
+}
@@ -0,0 +1,296 @@
+package com.example.android.transientlauncher;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+
+/*
+Class           Launch Tracer
+Description     Traces the tap path of a launch (click received, DB flag lookup, enable command sent,
+                enable confirmed, startActivity returned) and keeps a latency histogram per stage, for
+                transient and non-transient launches, and one of the whole path per package.
+
+Notes           Each stage is timed from the stage before it. Launches that did not need an enable skip
+                the two enable stages. The histograms are saved to a file after every launch (in the
+                background) and loaded again on the next run. dump() prints them, MainActivity hands it
+                to "adb shell dumpsys activity com.example.android.transientlauncher".
+ */
+class LaunchTracer {
+
+    /** Attributes **/
+    private static final String LOG_TAG = LaunchTracer.class.getSimpleName();
+    static final String FILE_NAME = "launch_latency.bin";
+    private static final int MAGIC = 0x544C4C54;        // "TLLT"
+    private static final int VERSION = 1;
+    private static LaunchTracer INSTANCE;               // Shared tracer, static (only one)
+
+    // Stages, in the order of the tap path
+    static final int CLICK = 0;
+    static final int FLAG_LOOKUP = 1;
+    static final int ENABLE_SENT = 2;
+    static final int ENABLE_CONFIRMED = 3;
+    static final int ACTIVITY_STARTED = 4;
+    static final String[] STAGE_NAMES = {"click", "flag_lookup", "enable_sent", "enable_confirmed", "activity_started"};
+    private static final String TOTAL = "total";
+
+    private static final Executor WRITER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread thread = new Thread(r, "LaunchTracer");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    private final File file;
+    private final Map<String, LatencyHistogram> histograms = new TreeMap<>();     // Guarded by itself
+    private final AtomicBoolean savePending = new AtomicBoolean();
+
+
+
+
+    /** Trace **/
+    /*
+    Class               Trace
+    Description         Timestamps of the stages of one launch
+     */
+    class Trace {
+
+        // Attributes
+        final String packageName;
+        final boolean transientApp;
+        private final long[] stageNanos = new long[STAGE_NAMES.length];
+
+        // Constructor
+        private Trace(String packageName, boolean transientApp) {
+            this.packageName = packageName;
+            this.transientApp = transientApp;
+            stageNanos[CLICK] = System.nanoTime();
+        }
+
+        // Methods
+        void mark(int stage) {
+            mark(stage, System.nanoTime());
+        }
+
+        void mark(int stage, long nanos) {
+            stageNanos[stage] = nanos;
+        }
+
+        void finish() {
+            record(this);
+        }
+    }
+
+
+
+
+    /** Constructor **/
+    LaunchTracer(File file) {
+        this.file = file;
+        load();
+    }
+
+
+
+
+    /** Methods **/
+    /*
+    Name                getInstance
+    Description         Returns the launch tracer of the launcher
+     */
+    static LaunchTracer getInstance(Context context) {
+
+        // If the instance is null, synchronize and check again
+        if (INSTANCE == null) {
+            synchronized (LaunchTracer.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new LaunchTracer(new File(context.getFilesDir(), FILE_NAME));
+                }
+            }
+        }
+
+        return INSTANCE;
+    }
+
+
+    /*
+    Name                begin
+    Description         Starts the trace of a launch, at the time the click is received
+     */
+    Trace begin(String packageName, Boolean transientApp) {
+        return new Trace(packageName, transientApp == Boolean.TRUE);
+    }
+
+
+    /*
+    Name                record
+    Description         Adds the stages of a finished launch to the histograms, and saves them
+     */
+    private void record(Trace trace) {
+
+        String kind = trace.transientApp ? "transient" : "non-transient";
+        StringBuilder line = new StringBuilder(trace.packageName).append(" (").append(kind).append(')');
+
+        synchronized (histograms) {
+            long previous = trace.stageNanos[CLICK];
+            for (int stage = FLAG_LOOKUP; stage < STAGE_NAMES.length; stage++) {
+                long nanos = trace.stageNanos[stage];
+                if (nanos == 0) {
+                    continue;       // Stage skipped (no enable needed)
+                }
+                long micros = (nanos - previous) / 1000;
+                histogram(kind + "/" + STAGE_NAMES[stage]).record(micros);
+                line.append(' ').append(STAGE_NAMES[stage]).append('=').append(micros).append("us");
+                previous = nanos;
+            }
+
+            long total = (previous - trace.stageNanos[CLICK]) / 1000;
+            histogram(kind + "/" + TOTAL).record(total);
+            histogram("package/" + trace.packageName + "/" + kind).record(total);
+            line.append(' ').append(TOTAL).append('=').append(total).append("us");
+        }
+
+        Log.d(LOG_TAG, "** INFO **    Launch " + line);
+        scheduleSave();
+    }
+
+
+    private LatencyHistogram histogram(String key) {
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            histograms.put(key, histogram);
+        }
+        return histogram;
+    }
+
+
+    /*
+    Name                dump
+    Description         Prints count, p50, p90, p99, max and mean of every histogram (microseconds)
+     */
+    void dump(String prefix, PrintWriter writer) {
+
+        writer.println(prefix + "Launch latency (us):");
+        writer.println(String.format("%s  %-60s %7s %9s %9s %9s %9s %9s",
+                prefix, "histogram", "count", "p50", "p90", "p99", "max", "mean"));
+        synchronized (histograms) {
+            for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+                LatencyHistogram h = entry.getValue();
+                writer.println(String.format("%s  %-60s %7d %9d %9d %9d %9d %9d", prefix, entry.getKey(), h.getCount(),
+                        h.percentile(0.5), h.percentile(0.9), h.percentile(0.99), h.getMax(), h.getMean()));
+            }
+        }
+    }
+
+
+    /*
+    Name                scheduleSave
+    Description         Saves the histograms in the background (one save for launches close to each other)
+     */
+    private void scheduleSave() {
+
+        if (savePending.getAndSet(true)) {
+            return;
+        }
+        WRITER.execute(new Runnable() {
+            @Override
+            public void run() {
+                savePending.set(false);
+                try {
+                    save();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "* ERROR *   Couldn't save the launch latencies: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+
+    /*
+    Name                save
+    Description         Writes the histograms to a temporary file and renames it over the old one
+     */
+    void save() throws IOException {
+
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            synchronized (histograms) {
+                out.writeInt(histograms.size());
+                for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    entry.getValue().writeTo(out);
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Couldn't rename " + temp.getName());
+        }
+    }
+
+
+    /*
+    Name                load
+    Description         Reads the histograms saved by a previous run (starts empty if there are none)
+     */
+    private void load() {
+
+        if (!file.isFile()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(LOG_TAG, "** WARNING ** Unknown launch latency file, starting over.");
+                return;
+            }
+            int size = in.readInt();
+            Map<String, LatencyHistogram> loaded = new TreeMap<>();
+            for (int i = 0; i < size; i++) {
+                String key = in.readUTF();
+                loaded.put(key, LatencyHistogram.readFrom(in));
+            }
+            synchronized (histograms) {
+                histograms.putAll(loaded);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "* ERROR *   Couldn't load the launch latencies: " + e.getMessage());
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing to do
+                }
+            }
+        }
+    }
+}
@@ -1,25 +1,36 @@
 package com.example.android.transientlauncher;
 
 import android.app.ActivityManager;
+import android.arch.lifecycle.Observer;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.View;
-import android.view.ViewGroup;
-import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
-import android.widget.ListView;
-import android.widget.TextView;
+import android.widget.EditText;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -27,16 +38,37 @@ public class MainActivity extends AppCompatActivity {
     // Modes and Flags
     private final Boolean DEMO_MODE = Boolean.TRUE;
     private final String LOG_TAG = MainActivity.class.getSimpleName();
-    private Boolean enabledAllSelected = Boolean.FALSE;
+    private static final int MAX_SEARCH_RESULTS = 50;
+
+    // Background thread for the DB, PM and su work of the UI (one thread: taps are served in order)
+    private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            return new Thread(r, "LauncherWorker");
+        }
+    });
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     // Managers and Databases
     private PackageManager packageManager;
     private AppMetadataRoomDatabase database;
     private TransiencyManager transiencyManager;
+    private IconCache iconCache;
+    private PreEnabler preEnabler;
+    private LaunchTracer launchTracer;
+    private AppListSnapshot snapshot;
+    private PackageChangeLog changeLog;
+    private PackageChangeReceiver packageChangeReceiver;    // Registered while the activity lives (Android 8+)
+    private File policyFile;
+    private long policyModified;
 
     // Structures
-    private List<AppMetadata> appList;
-    private ListView listView;
+    private AppRegistry.Apps appList;           // Last apps observed from the DB (or the snapshot on a cold start)
+    private RecyclerView listView;
+    private AppListAdapter adapter;
+    private final SearchIndex searchIndex = new SearchIndex();
+    private EditText searchBox;
+    private String query = "";                  // Text of the search box, the list only shows the matches if set
 
 
 
@@ -49,8 +81,6 @@ public class MainActivity extends AppCompatActivity {
 
         Log.d(LOG_TAG, "** INFO **    onCreate --> Setting up PM, DB and TM.");
 
-        // TO DO [Stop background process to check for closed apps]
-
         // Set Package Manager
         packageManager = getPackageManager();
 
@@ -60,23 +90,76 @@ public class MainActivity extends AppCompatActivity {
         // Instantiate Transiency Manager
         transiencyManager = new TransiencyManager(packageManager, database);
 
-        // Sudo
-        try {
-            Process process = Runtime.getRuntime().exec("su");
-            OutputStream out = process.getOutputStream();
-            //process.waitFor();
-            /*
-            if (process.exitValue() != 255) {
-                Toast.makeText(MainActivity.this, "Sudo granted!", Toast.LENGTH_LONG).show();
-            } else {
-                Toast.makeText(MainActivity.this, "Error.......!", Toast.LENGTH_LONG).show();
+        // Transiency rules, from the config file if there is one
+        policyFile = new File(getFilesDir(), TransiencyPolicy.FILE_NAME);
+        policyModified = policyFile.lastModified();
+        transiencyManager.setPolicy(TransiencyPolicy.load(policyFile, DEMO_MODE));
+
+        // Icons, also saved before an app is disabled (its APK is unreadable afterwards)
+        iconCache = IconCache.getInstance(getApplicationContext());
+        transiencyManager.setIconCache(iconCache);
+
+        // Direct system calls to change APK permissions if this build may, the root shell otherwise
+        transiencyManager.setApkAccess(TransiencyManager.selectApkAccess(getApplicationContext()));
+
+        // Write-ahead journal of enables/disables, operations cut short by a crash are recovered now
+        transiencyManager.setAccessJournal(AccessJournal.getInstance(getApplicationContext()));
+
+        // Packages added, removed, replaced or changed since the last resume (see PackageChangeReceiver).
+        // Android 8+ does not deliver these events to the manifest receiver, so it is registered here too.
+        changeLog = PackageChangeLog.getInstance(getApplicationContext());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            packageChangeReceiver = new PackageChangeReceiver();
+            registerReceiver(packageChangeReceiver, PackageChangeReceiver.intentFilter());
+        }
+
+        // Latency of the tap path, kept across runs
+        launchTracer = LaunchTracer.getInstance(getApplicationContext());
+
+        // Enables the apps likely to be launched next while the list is shown
+        preEnabler = new PreEnabler(getApplicationContext(), transiencyManager, database);
+
+        // Setup the list of apps
+        setupListView();
+
+        // Type-ahead search over the labels and package names
+        setupSearchBox();
+
+        // Snapshot of the last list shown, drawn on a cold start before the DB is open
+        snapshot = new AppListSnapshot(new File(getFilesDir(), AppListSnapshot.FILE_NAME));
+
+        // Show the apps of the DB, again every time rows change (delivered while the activity is started)
+        database.observeApps().observe(this, new Observer<AppRegistry.Apps>() {
+            @Override
+            public void onChanged(AppRegistry.Apps apps) {
+                onAppsChanged(apps);
+            }
+        });
+
+        // Labels reach the list through the DB cache as they are loaded (see onAppsChanged)
+        transiencyManager.setLabelListener(new LabelResolver.Listener() {
+            @Override
+            public void onLabelResolved(LabelResolver.Label label) {
+                // Nothing to do
             }
-            */
-        } catch (IOException e) {
-            e.printStackTrace();
-        } /*catch (InterruptedException e) {
-            e.printStackTrace();
-        }*/
+
+            @Override
+            public void onAllResolved(List<LabelResolver.Label> labels) {
+                Log.d(LOG_TAG, "** INFO **    Loaded " + labels.size() + " labels.");
+            }
+        });
+
+        // Sudo - start the shared root shell now, so root is granted before the first tap
+        WORKER.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    RootShell.getInstance().start();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
 
     }
 
@@ -87,16 +170,135 @@ public class MainActivity extends AppCompatActivity {
     }
 
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+
+        // Apps pre-enabled for the next tap get their grace period from now
+        preEnabler.onLauncherHidden();
+    }
+
+
     @Override
     protected void onResume() {
         super.onResume();
 
-        Log.d(LOG_TAG, "** INFO **    onResume --> Setup local list, listview and click listener.");
+        Log.d(LOG_TAG, "** INFO **    onResume --> Setup local list and list view.");
 
-        // Every time the user is about to see the app list, get the updated list.
+        // Every time the user is about to see the app list, bring the DB up to date with the PM.
+        // The list itself follows the DB (see onAppsChanged), it is not reloaded here.
+
+        // Cold start - show the last list right away, the DB corrects it once loaded
+        if (appList == null) {
+            AppRegistry.Apps snapshotRows = snapshot.read();
+            if (snapshotRows != null) {
+                Log.d(LOG_TAG, "** INFO **    Showing " + snapshotRows.size() + " apps from the snapshot.");
+                setAppList(snapshotRows);
+                loadAppsOnListView();
+            }
+        }
+
+        // Off the main thread: reclassify all apps if the rules changed, then bring the DB up to date
+        WORKER.execute(new Runnable() {
+            @Override
+            public void run() {
+                reloadPolicyIfChanged();
+
+                // No other app is in the foreground now, let the background service know (only
+                // started if some apps may expire, so no notification while there are none)
+                if (TransiencyService.hasAppsToWatch(getApplicationContext())) {
+                    TransiencyService.launcherShown(getApplicationContext());
+                }
+
+                refreshApps(database.isEmpty());
+            }
+        });
+    }
 
-        // Load apps from DB or PM on list, and disables closed apps if first time running
-        loadAppsOnLocalList();
+
+    /*
+    Name                reloadPolicyIfChanged
+    Description         Reloads the transiency rules if the config file changed, and applies them to the
+                        apps in the DB (one transaction). Runs on the worker thread.
+     */
+    private void reloadPolicyIfChanged() {
+
+        long modified = policyFile.lastModified();
+        if (modified == policyModified) {
+            return;
+        }
+        policyModified = modified;
+
+        Log.d(LOG_TAG, "** INFO **    Transiency rules changed, reclassifying apps...");
+        transiencyManager.setPolicy(TransiencyPolicy.load(policyFile, DEMO_MODE));
+        transiencyManager.reclassifyApps();
+    }
+
+
+    /*
+    Name                dump
+    Description         Prints the launch latencies ("adb shell dumpsys activity <package>").
+                        "adb shell dumpsys activity <package> reconcile [files|db]" also starts a reconcile of
+                        the APK modes with the DB, its report is printed by the next dump.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        launchTracer.dump(prefix, writer);
+        writer.println(prefix + "Pre-enable: " + preEnabler.getReport());
+
+        SharedPreferences preferences = getSharedPreferences(TransiencyService.PREFERENCES, MODE_PRIVATE);
+        writer.println(prefix + "Last reconcile: " + preferences.getString(Reconciler.PREF_LAST_REPORT, "never"));
+        if (args != null && args.length > 0 && "reconcile".equals(args[0])) {
+            TransiencyService.reconcile(getApplicationContext(), args.length > 1 ? args[1] : null);
+            writer.println(prefix + "Reconcile started.");
+        }
+    }
+
+
+    /*
+    Name                onAppsChanged
+    Description         Shows the apps of the DB, each time a write changed them (only changed rows are redrawn)
+     */
+    private void onAppsChanged(AppRegistry.Apps apps) {
+
+        // Check what was shown (snapshot or last list) against the DB, stale rows are redrawn below
+        if (appList != null) {
+            int stale = AppListSnapshot.countStale(appList, apps);
+            if (stale > 0) {
+                Log.d(LOG_TAG, "** INFO **    Correcting " + stale + " stale rows of the list.");
+            }
+        }
+
+        setAppList(apps);
+        loadAppsOnListView();
+    }
+
+
+    /*
+    Name                setAppList
+    Description         Keeps a new list of apps, and brings the search index in line with it (only the apps
+                        added, removed or relabelled are reindexed)
+     */
+    private void setAppList(AppRegistry.Apps apps) {
+
+        appList = apps;
+        int reindexed = searchIndex.sync(apps);
+        if (reindexed > 0) {
+            Log.d(LOG_TAG, "** INFO **    Reindexed " + reindexed + " apps for search.");
+        }
+    }
+
+
+    /*
+    Name                refreshApps
+    Description         Brings the DB up to date with the PM once it is loaded (the list follows the DB).
+                        Runs on the worker thread.
+     */
+    private void refreshApps(Boolean databaseEmpty) {
+
+        // Load apps from PM to the DB, and disables closed apps if first time running
+        updateDatabase(databaseEmpty);
 
         // DEMO MODE - Disable all apps that are not running. -- not using ps anymore
         /*
@@ -120,11 +322,10 @@ public class MainActivity extends AppCompatActivity {
         }
         */
 
-        // Load list of apps on the ListView object
-        loadAppsOnListView();
+        // Get the next launches ready
+        preEnabler.onLauncherShown();
 
-        // Listener to service user clicks
-        addClickListener();
+        Log.d(LOG_TAG, "** DEBUG **   DB cache hits: " + database.getCacheHits() + ", misses: " + database.getCacheMisses());
     }
 
 
@@ -134,9 +335,13 @@ public class MainActivity extends AppCompatActivity {
 
         Log.d(LOG_TAG, "** INFO **    onDestroy --> Disables all apps that are not running.");
 
+        if (packageChangeReceiver != null) {
+            unregisterReceiver(packageChangeReceiver);
+        }
+
         // DEMO MODE - Disable apps that are not running and are still enabled
         /*
-        if (DEMO_MODE && enabledAllSelected == Boolean.FALSE) {
+        if (DEMO_MODE && !TransiencyService.isTransiencyOff(this)) {
 
             for (AppMetadata app : appList) {
 
@@ -158,30 +363,32 @@ public class MainActivity extends AppCompatActivity {
         }
         */
 
-        // TO DO [Start the background process to listen for closing apps]
+        // Transient apps that are still enabled are disabled by the TransiencyService once they exit
     }
 
 
     /*
-    Name                loadAppsOnLocalList
-    Description         Get apps from PM or DB and save them to our local List variable
+    Name                updateDatabase
+    Description         Get apps from PM and save the changes to the DB (the list is updated from the DB)
                         and disable apps if this is the first time the launcher is running.
      */
-    private void loadAppsOnLocalList() {
+    private void updateDatabase(Boolean databaseEmpty) {
 
-        Log.d(LOG_TAG, "** INFO **    Loading apps on our local List object...");
+        Log.d(LOG_TAG, "** INFO **    Updating the apps of the DB...");
 
         // If this is the first time the launcher is used, then populate the
-        // list of apps using the Package Manager. Otherwise, use the DB.
-        appList = new ArrayList<>();
-        if (database.isEmpty()) {
+        // DB using the Package Manager. Otherwise, only apply what changed.
+        if (databaseEmpty) {
 
             Log.d(LOG_TAG, "** INFO **    Database is empty, so we are filling it up...");
 
+            // Every package is loaded: the changes logged so far are done too
+            changeLog.consume(changeLog.read());
+
             // Get launchable apps from PM and load the DB
-            appList.addAll(transiencyManager.getLaunchableAppsAndLoadDb());
+            List<AppMetadata> launchableApps = transiencyManager.getLaunchableAppsAndLoadDb();
 
-            Log.d(LOG_TAG, "** DEBUG ** DATABASE SHOULD NOW HAVE 2 ITEMS... " + database.getRecordCount());
+            Log.d(LOG_TAG, "** DEBUG ** DATABASE SHOULD NOW HAVE " + launchableApps.size() + " ITEMS... " + database.getRecordCount());
 
             // Since this is the first time that the launcher is used, disable apps that are not running
             /*
@@ -212,142 +419,254 @@ public class MainActivity extends AppCompatActivity {
 
         } else {
 
-            // Consult the added/removed packages file from the background process
+            // Packages added, removed, replaced or changed since the last resume (PackageChangeReceiver)
+            PackageChangeLog.Changes changes = changeLog.read();
+            Log.d(LOG_TAG, "** INFO **    Package changes: " + changes);
 
-            // Add/Remove apps to/from the database
+            if (changes.resync) {
+                // Events may be missing: add/remove apps to/from the database (only the rows that changed)
+                transiencyManager.syncLaunchableApps();
+            } else if (!changes.events.isEmpty()) {
+                // Add/Remove/Update the rows of these packages only (the list follows the DB)
+                transiencyManager.syncPackages(changes.events);
+            }
+            changeLog.consume(changes);
+        }
 
-            // Load all (new and existing) apps to display to the user
-            //OLD - appList.addAll(database.getAllApps());
-            appList.addAll(transiencyManager.getLaunchableAppsFromDb());
+    }
 
-            // Wait for the background DB process to be done...
-        }
 
-        // Get the most up to date list from the DB
-        //appList = new... otherwise this will repeat the number of entries!!!!!
-        //appList.addAll(database.getAllApps());
-        //appList.addAll(transiencyManager.getLaunchableAppsFromDb());
+    /*
+    Name                setupListView
+    Description         Setup the RecyclerView that displays the apps, and its click handling
+     */
+    private void setupListView() {
 
+        // Short click -> open app, long click -> close app
+        adapter = new AppListAdapter(getLayoutInflater(), iconCache, new AppListAdapter.OnAppClickListener() {
+            @Override
+            public void onAppClick(String packageName) {
+                openApp(packageName);
+            }
+
+            @Override
+            public boolean onAppLongClick(String packageName) {
+                closeApp(packageName);
+                return true;
+            }
+        });
+
+        // Display the apps in the list_apps object
+        listView = findViewById(R.id.list_apps);
+        listView.setLayoutManager(new LinearLayoutManager(this));
+        listView.setAdapter(adapter);
     }
 
 
     /*
-    Name                loadAppsOnListView
-    Description         Load the ListView with the list of launchable apps
+    Name                setupSearchBox
+    Description         Filters the list as the user types in the search box
      */
-    private void loadAppsOnListView() {
+    private void setupSearchBox() {
 
-        Log.d(LOG_TAG, "** INFO **   Loading apps on the ListView object...");
+        searchBox = findViewById(R.id.search_box);
+        searchBox.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence text, int start, int count, int after) {
+            }
 
-        // Setup an ArrayAdapter, used to populate the ListView
-        ArrayAdapter<AppMetadata> adapter = new ArrayAdapter<AppMetadata>(this, R.layout.list_item, appList) {
             @Override
-            public View getView(int position, View convertView, ViewGroup parent) {
+            public void onTextChanged(CharSequence text, int start, int before, int count) {
+            }
 
-                // If this is the first time the ListView is populated..
-                if (convertView == null) {
-                    // Get the objects inside of the list_item.xml layout definition
-                    convertView = getLayoutInflater().inflate(R.layout.list_item, null);
+            @Override
+            public void afterTextChanged(Editable text) {
+                query = text.toString();
+                if (appList != null) {
+                    adapter.submitList(visibleApps());
                 }
+            }
+        });
+    }
 
-                // Set name for the app_name TextView object
-                TextView appName = convertView.findViewById(R.id.app_name);
-                appName.setText(appList.get(position).getAppName());
 
-                // Set package name for the package_name TextView object
-                TextView packageName = convertView.findViewById(R.id.package_name);
-                packageName.setText(appList.get(position).getPackageName());
+    /*
+    Name                visibleApps
+    Description         Returns the apps to show: all of them, or the matches of the search box (from the
+                        index, the list is not scanned)
+     */
+    private AppRegistry.Apps visibleApps() {
 
-                return convertView;
-            }
-        };
+        if (query.trim().isEmpty()) {
+            return appList;
+        }
 
-        // Setup a ListView to display the apps, and display them in the ListView list_apps object
-        listView = findViewById(R.id.list_apps);
-        listView.setAdapter(adapter);
+        long start = System.nanoTime();
+        AppRegistry.Apps apps = appList.select(searchIndex.search(query, MAX_SEARCH_RESULTS));
+        Log.d(LOG_TAG, "** DEBUG **   Search \"" + query + "\": " + apps.size() + " apps in "
+                + (System.nanoTime() - start) / 1000 + " us.");
+
+        return apps;
     }
 
 
     /*
-    Name                addClickListener
-    Description         Setup a listener to open the selected app from the ListView
+    Name                loadAppsOnListView
+    Description         Load the list view with the list of launchable apps (only changed rows are redrawn)
      */
-    private void addClickListener() {
+    private void loadAppsOnListView() {
 
-        // Short click -> open app
-        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
-            @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+        Log.d(LOG_TAG, "** INFO **   Loading apps on the list view...");
 
-                // Get the package name & transient flag of the desired app
-                String packageName = appList.get(position).getPackageName();
-                Boolean transientApp = appList.get(position).getTransientApp();
+        adapter.submitList(visibleApps());
 
-                Log.d(LOG_TAG, "** INFO **   Servicing user click on " + packageName);
+        // Keep the snapshot (of all the apps, not only the search matches) in line with what the user sees
+        snapshot.save(appList);
+    }
 
-                // Display a helpful Toast
-                if (transientApp) {
-                    Toast.makeText(MainActivity.this, "Opening Transient App!", Toast.LENGTH_LONG).show();
-                } else {
-                    Toast.makeText(MainActivity.this, "Opening a NON-Transient App..", Toast.LENGTH_LONG).show();
-                }
 
-                Toast.makeText(MainActivity.this, "DEBUG - This app is enabled (local list): " + appList.get(position).getEnabledApp(), Toast.LENGTH_LONG).show();
-
-                // Enable the app if necessary
-                Boolean enable_success;
-                if (transiencyManager.isAppDisabled(packageName) == Boolean.TRUE) {
-                    enable_success = transiencyManager.enableApp(packageName);
-                    if (enable_success) {
-                        AppMetadata meta = appList.get(position);
-                        meta.setEnabledApp(Boolean.FALSE);
-                        appList.set(position, meta);
-                        Toast.makeText(MainActivity.this, "Success enabling app!", Toast.LENGTH_LONG).show();
-                    } else {
-                        Toast.makeText(MainActivity.this, "Error opening transient app... Exiting Launcher.", Toast.LENGTH_LONG).show();
-                        Log.e(LOG_TAG, "* ERROR *   Couldn't enable " + packageName);
-                        MainActivity.this.finish();
-                    }
-                }
+    /*
+    Name                findApp
+    Description         Returns the position of an app in the local list (-1 if none)
+     */
+    private int findApp(String packageName) {
+        return appList == null ? -1 : appList.indexOf(packageName);
+    }
+
 
-                // Run the app
-                Intent intent = packageManager.getLaunchIntentForPackage(packageName);
-                MainActivity.this.startActivity(intent);
+    /*
+    Name                showToast
+    Description         Shows a toast from any thread
+     */
+    private void showToast(final String text, final int duration) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(MainActivity.this, text, duration).show();
             }
         });
+    }
+
+
+    /*
+    Name                openApp
+    Description         Short click handler: enables the app if necessary (on the worker thread) and opens it
+     */
+    private void openApp(final String packageName) {
+
+        // Get the transient flag of the desired app
+        int pos = findApp(packageName);
+        if (pos < 0) {
+            return;
+        }
+        final boolean transientApp = appList.isTransient(pos);
+        final LaunchTracer.Trace trace = launchTracer.begin(packageName, transientApp);
+
+        Log.d(LOG_TAG, "** INFO **   Servicing user click on " + packageName);
+
+        // Display a helpful Toast
+        if (transientApp) {
+            Toast.makeText(MainActivity.this, "Opening Transient App!", Toast.LENGTH_LONG).show();
+        } else {
+            Toast.makeText(MainActivity.this, "Opening a NON-Transient App..", Toast.LENGTH_LONG).show();
+        }
+
+        Toast.makeText(MainActivity.this, "DEBUG - This app is enabled (local list): " + appList.isEnabled(pos), Toast.LENGTH_LONG).show();
 
-        // Long click -> close app
-        listView.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+        // Enable the app if necessary (not needed if it was pre-enabled), then run it on the main thread
+        WORKER.execute(new Runnable() {
             @Override
-            public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
+            public void run() {
+                final Boolean neededEnable = transiencyManager.isAppDisabled(packageName);
+                trace.mark(LaunchTracer.FLAG_LOOKUP);
+                final Boolean enableSuccess = neededEnable ? transiencyManager.enableApp(packageName, trace) : Boolean.TRUE;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        startApp(packageName, transientApp, neededEnable, enableSuccess, trace);
+                    }
+                });
+            }
+        });
+    }
+
+
+    /*
+    Name                startApp
+    Description         Second half of openApp, on the main thread once the app was enabled (or not)
+     */
+    private void startApp(String packageName, boolean transientApp, Boolean neededEnable, Boolean enableSuccess,
+                          LaunchTracer.Trace trace) {
+
+        if (neededEnable) {
+            if (enableSuccess) {
+                // The list shows the app enabled once the DB publishes the change
+                Toast.makeText(MainActivity.this, "Success enabling app!", Toast.LENGTH_LONG).show();
+            } else {
+                Toast.makeText(MainActivity.this, "Error opening transient app... Exiting Launcher.", Toast.LENGTH_LONG).show();
+                Log.e(LOG_TAG, "* ERROR *   Couldn't enable " + packageName);
+                MainActivity.this.finish();
+            }
+        }
+
+        // Run the app
+        Intent intent = packageManager.getLaunchIntentForPackage(packageName);
+        MainActivity.this.startActivity(intent);
+        trace.mark(LaunchTracer.ACTIVITY_STARTED);
+        trace.finish();
+
+        // Launch history and pre-enable hit rate
+        preEnabler.onAppLaunched(packageName, transientApp, neededEnable);
 
-                // Get Package Name
-                String packageName = appList.get(position).getPackageName();
-                String appName = appList.get(position).getAppName();
-                //Boolean transientApp = appList.get(position).getTransientApp();
+        // Disable it again once it exits
+        if (transientApp) {
+            TransiencyService.appLaunched(getApplicationContext(), packageName);
+        }
+    }
+
+
+    /*
+    Name                closeApp
+    Description         Long click handler: kills the app and disables it (on the worker thread)
+     */
+    private void closeApp(final String packageName) {
 
-                if (transiencyManager.isAppDisabled(packageName) == Boolean.FALSE) {
+        // Get App Name
+        int pos = findApp(packageName);
+        if (pos < 0) {
+            return;
+        }
+        final String appName = appList.getLabel(pos);
+
+        WORKER.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!transiencyManager.isAppDisabled(packageName)) {
 
                     // Kill background processes of the app
                     ActivityManager am = (ActivityManager) getApplicationContext().getSystemService(Context.ACTIVITY_SERVICE);
                     am.killBackgroundProcesses(packageName);
+                    transiencyManager.invalidateRunningPackages();
 
                     Boolean success = transiencyManager.disableApp(packageName);
 
                     if (success) {
-                        Toast.makeText(MainActivity.this, "Closed " + appName + ".", Toast.LENGTH_SHORT).show();
-                    }
+                        showToast("Closed " + appName + ".", Toast.LENGTH_SHORT);
+
+                        // An explicit disable ends Enable All: the other exited apps get disabled again
+                        if (TransiencyService.isTransiencyOff(getApplicationContext())) {
+                            TransiencyService.setTransiencyOff(getApplicationContext(), false);
+                            if (TransiencyService.hasAppsToWatch(getApplicationContext())) {
+                                TransiencyService.launcherShown(getApplicationContext());
+                            }
+                        }
 
-                    // Update the list to reflect the app being disabled
-                    AppMetadata meta = appList.get(position);
-                    meta.setEnabledApp(Boolean.FALSE);
-                    appList.set(position, meta);
+                        // The list shows the app disabled once the DB publishes the change
+                    }
 
                 } else {
-                    Toast.makeText(MainActivity.this, "Already closed!", Toast.LENGTH_SHORT).show();
+                    showToast("Already closed!", Toast.LENGTH_SHORT);
                 }
-
-                return true;
             }
         });
     }
@@ -359,21 +678,35 @@ public class MainActivity extends AppCompatActivity {
      */
     public void enableAllApps(View view) {
 
-        // Get updated app list
-        appList.clear();
-        //appList.addAll(database.getAllApps());
-        appList.addAll(transiencyManager.getLaunchableAppsFromDb());
-
-        // Enable all disabled apps
-        for (AppMetadata app: appList) {
-            if (app.getEnabledApp() == Boolean.FALSE) {
-                transiencyManager.enableApp(app.getPackageName());
-                app.setEnabledApp(Boolean.TRUE);
-                Toast.makeText(MainActivity.this, "Enabled " + app.getAppName(), Toast.LENGTH_SHORT).show();
+        // The list is not loaded yet (DB still opening)
+        if (appList == null) {
+            return;
+        }
+
+        // Collect all disabled apps (the list is kept up to date by the DB)
+        final List<String> disabledPackages = new ArrayList<>();
+        for (int pos = 0; pos < appList.size(); pos++) {
+            if (!appList.isEnabled(pos)) {
+                disabledPackages.add(appList.getPackageName(pos));
             }
         }
 
-        // Keep the apps enabled on Destroy!
-        enabledAllSelected = Boolean.TRUE;
+        // Keep them enabled once they exit, until the user disables an app again
+        TransiencyService.setTransiencyOff(getApplicationContext(), true);
+
+        // Enable them all at once, on the worker thread (the DB publishes the new flags to the list)
+        WORKER.execute(new Runnable() {
+            @Override
+            public void run() {
+                Map<String, Boolean> results = transiencyManager.enableApps(disabledPackages);
+                int enabledCount = 0;
+                for (Boolean success : results.values()) {
+                    if (success) {
+                        enabledCount++;
+                    }
+                }
+                showToast("Enabled " + enabledCount + " apps", Toast.LENGTH_SHORT);
+            }
+        });
     }
 }
@@ -0,0 +1,124 @@
+package com.example.android.transientlauncher;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+
+/*
+Class           Native Apk Access
+Description     Changes the access of APK files with direct chmod and stat system calls (android.system.Os),
+                no shell and no su.
+
+Notes           Only works if the launcher may chmod the APKs, i.e. it runs as their owner (a system build
+                of the launcher). Os is available from API 21.
+                stat and chmod are the only calls to the OS, the tests replace them to run on the JVM.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class NativeApkAccess implements ApkAccess {
+
+    /** Attributes **/
+    private static final String LOG_TAG = NativeApkAccess.class.getSimpleName();
+    private static final int PERMISSION_BITS = 07777;
+
+
+
+
+    /** Methods **/
+    @Override
+    public String getName() {
+        return "native";
+    }
+
+
+    /*
+    Name                probe
+    Description         Sets the APK to the mode it already has: works only if chmod is allowed on it
+     */
+    @Override
+    public boolean probe(String apkPath) {
+
+        try {
+            chmod(apkPath, stat(apkPath) & PERMISSION_BITS);
+            return true;
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "** INFO **   No direct access to " + apkPath + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+
+    /*
+    Name                setReadable
+    Description         Adds or removes the read bits of each APK (skips the chmod if they are already right).
+                        The syscalls return once done: sent is when the last one returned.
+     */
+    @Override
+    public Result setReadable(List<String> apkPaths, boolean readable) {
+
+        List<Boolean> results = new ArrayList<>(apkPaths.size());
+        for (String apkPath : apkPaths) {
+            try {
+                int mode = stat(apkPath) & PERMISSION_BITS;
+                int newMode = readable ? mode | READ_BITS : mode & ~READ_BITS;
+                if (newMode != mode) {
+                    chmod(apkPath, newMode);
+                }
+                results.add(Boolean.TRUE);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "* ERROR *   chmod " + apkPath + ": " + e.getMessage());
+                results.add(Boolean.FALSE);
+            }
+        }
+
+        return new Result(results, System.nanoTime());
+    }
+
+
+    /*
+    Name                getModes
+    Description         Returns the permission bits of each APK (NO_MODE if stat failed)
+     */
+    @Override
+    public List<Integer> getModes(List<String> apkPaths) {
+
+        List<Integer> modes = new ArrayList<>(apkPaths.size());
+        for (String apkPath : apkPaths) {
+            try {
+                modes.add(stat(apkPath) & PERMISSION_BITS);
+            } catch (IOException e) {
+                modes.add(NO_MODE);
+            }
+        }
+
+        return modes;
+    }
+
+
+    /*
+    Name                stat / chmod
+    Description         The system calls, with their errno turned into an IOException
+     */
+    int stat(String path) throws IOException {
+        try {
+            return Os.stat(path).st_mode;
+        } catch (ErrnoException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    void chmod(String path, int mode) throws IOException {
+        try {
+            Os.chmod(path, mode);
+        } catch (ErrnoException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+}
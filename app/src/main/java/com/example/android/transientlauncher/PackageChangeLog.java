@@ -0,0 +1,275 @@
+package com.example.android.transientlauncher;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+
+/*
+Class           Package Change Log
+Description     Append-only log of the package events (added, removed, replaced, changed) seen by the
+                PackageChangeReceiver. The launcher consumes it on resume and syncs only those packages,
+                instead of diffing every launchable app against the DB.
+
+Notes           Record: type (byte), time (long), package name (UTF). A RESYNC record asks for one full
+                sync instead: it is written when an event does not fit in MAX_BYTES (the log stops
+                growing there), and a record that cannot be read counts as one. So do more than
+                MAX_PACKAGES packages (one PM query for all of them is faster than one each).
+                Every event leaves room for a RESYNC after it: once the log is full, its last record is
+                always a RESYNC, so no event is dropped without one.
+                Events are appended by the receiver while the launcher syncs: consume() only drops the
+                records that were read, the ones written in the meantime are kept for the next resume.
+ */
+class PackageChangeLog {
+
+    /** Attributes **/
+    private static final String LOG_TAG = PackageChangeLog.class.getSimpleName();
+    static final String FILE_NAME = "package_changes.bin";
+    static final long MAX_BYTES = 32 * 1024;
+    static final int MAX_PACKAGES = 64;
+    static final byte ADDED = 1;
+    static final byte REMOVED = 2;
+    static final byte REPLACED = 3;
+    static final byte CHANGED = 4;
+    static final byte RESYNC = 5;
+    static final int RESYNC_BYTES = 1 + 8 + 2;      // Type, time and the empty name
+    private static PackageChangeLog INSTANCE;          // Shared log, static (only one)
+
+    private final File file;
+    private boolean eventsMissed;                       // Until the first consume(), events may be missing
+
+
+
+
+    /** Changes **/
+    /*
+    Class               Changes
+    Description         What a read of the log found: the last event of each package (in order), or that
+                        a full sync is needed
+     */
+    static class Changes {
+
+        // Attributes
+        final Map<String, Byte> events = new LinkedHashMap<>();    // Package name -> last event
+        boolean resync;
+        int records;
+        long length;                // Bytes read, dropped by consume()
+
+        // Methods
+        @Override
+        public String toString() {
+            return resync ? "full sync (" + records + " records)" : events.size() + " packages (" + records + " records)";
+        }
+    }
+
+
+
+
+    /** Constructor **/
+    PackageChangeLog(File file, boolean eventsMissed) {
+        this.file = file;
+        this.eventsMissed = eventsMissed;
+    }
+
+
+
+
+    /** Methods **/
+    /*
+    Name                getInstance
+    Description         Returns the package change log of the launcher
+     */
+    static PackageChangeLog getInstance(Context context) {
+
+        // If the instance is null, synchronize and check again
+        if (INSTANCE == null) {
+            synchronized (PackageChangeLog.class) {
+                if (INSTANCE == null) {
+                    // Android 8+ does not start the launcher for package events: the ones sent while
+                    // no process was up are not logged, the first read asks for a full sync instead
+                    INSTANCE = new PackageChangeLog(new File(context.getFilesDir(), FILE_NAME),
+                            Build.VERSION.SDK_INT >= Build.VERSION_CODES.O);
+                }
+            }
+        }
+
+        return INSTANCE;
+    }
+
+
+    /*
+    Name                append
+    Description         Logs an event on a package (one write). Once the log is full, a single RESYNC is
+                        logged instead, the next consume() empties it.
+     */
+    synchronized void append(byte type, String packageName) {
+
+        long length = file.length();
+        if (length + RESYNC_BYTES > MAX_BYTES) {
+            return;         // Full, its last record already asks for a full sync
+        }
+
+        try {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(record);
+            writeRecord(data, type, packageName);
+            if (length + record.size() + RESYNC_BYTES > MAX_BYTES) {
+                Log.w(LOG_TAG, "** WARNING ** Package change log is full, the next sync is a full one.");
+                record.reset();
+                writeRecord(data, RESYNC, "");
+            }
+
+            FileOutputStream out = new FileOutputStream(file, true);
+            try {
+                out.write(record.toByteArray());
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "* ERROR *   Couldn't log the change of " + packageName + ": " + e.getMessage());
+        }
+    }
+
+
+    /*
+    Name                requestResync
+    Description         Asks for a full sync on the next resume (e.g. events may have been missed)
+     */
+    void requestResync() {
+        append(RESYNC, "");
+    }
+
+
+    /*
+    Name                read
+    Description         Reads the log (nothing is removed, see consume)
+     */
+    synchronized Changes read() {
+
+        Changes changes = new Changes();
+        changes.resync = eventsMissed;
+        if (!file.isFile()) {
+            return changes;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            long size = file.length();
+            while (changes.length < size) {
+                byte type = in.readByte();
+                in.readLong();
+                String packageName = in.readUTF();
+                changes.length += 1 + 8 + 2 + utfLength(packageName);
+                changes.records++;
+
+                if (type == RESYNC) {
+                    changes.resync = true;
+                } else if (type >= ADDED && type <= CHANGED && !packageName.isEmpty()) {
+                    changes.events.remove(packageName);      // Keep the order of the last events
+                    changes.events.put(packageName, type);
+                } else {
+                    throw new IOException("Unknown record " + type);
+                }
+            }
+        } catch (EOFException e) {
+            // Record cut short (process killed while writing): sync everything
+            changes.resync = true;
+            changes.length = file.length();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "* ERROR *   Couldn't read the package change log: " + e.getMessage());
+            changes.resync = true;
+            changes.length = file.length();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing to do
+                }
+            }
+        }
+        if (changes.events.size() > MAX_PACKAGES) {
+            changes.resync = true;
+        }
+
+        return changes;
+    }
+
+
+    /*
+    Name                consume
+    Description         Drops the records of a read, once their packages are synced. Records logged after
+                        the read are kept.
+     */
+    synchronized void consume(Changes changes) {
+
+        if (changes.resync) {
+            eventsMissed = false;
+        }
+        long length = file.length();
+        if (changes.length == 0 || length == 0) {
+            return;
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            byte[] tail = new byte[(int) Math.max(0, length - changes.length)];
+            raf.seek(changes.length);
+            raf.readFully(tail);
+            raf.seek(0);
+            raf.write(tail);
+            raf.setLength(tail.length);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "* ERROR *   Couldn't empty the package change log: " + e.getMessage());
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // Nothing to do
+                }
+            }
+        }
+    }
+
+
+    private static void writeRecord(DataOutputStream data, byte type, String packageName) throws IOException {
+        data.writeByte(type);
+        data.writeLong(System.currentTimeMillis());
+        data.writeUTF(packageName);
+    }
+
+
+    private static int utfLength(String value) {
+
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                length += 1;
+            } else if (c > 0x07FF) {
+                length += 3;
+            } else {
+                length += 2;
+            }
+        }
+
+        return length;
+    }
+}
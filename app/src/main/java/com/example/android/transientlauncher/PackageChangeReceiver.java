@@ -0,0 +1,76 @@
+package com.example.android.transientlauncher;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+import android.util.Log;
+
+
+
+/*
+Class           Package Change Receiver
+Description     Logs the packages that are added, removed, replaced or changed (components enabled or
+                disabled) to the package change log, which the launcher consumes on resume.
+
+Notes           Declared in the manifest, so the events are logged even if the launcher is not running.
+                Android 8+ no longer delivers them to manifest receivers: there, the launcher also registers
+                it while it runs (see MainActivity), and the log asks for one full sync per process
+                (see PackageChangeLog.getInstance).
+                An update sends REMOVED and ADDED (replacing) before REPLACED: only REPLACED is logged.
+ */
+public class PackageChangeReceiver extends BroadcastReceiver {
+
+    /** Attributes **/
+    private static final String LOG_TAG = PackageChangeReceiver.class.getSimpleName();
+
+
+
+
+    /** Methods **/
+    @Override
+    public void onReceive(Context context, Intent intent) {
+
+        Uri data = intent.getData();
+        String action = intent.getAction();
+        if (data == null || action == null) {
+            return;
+        }
+        String packageName = data.getSchemeSpecificPart();
+        boolean replacing = intent.getBooleanExtra(Intent.EXTRA_REPLACING, false);
+
+        byte type;
+        if (Intent.ACTION_PACKAGE_ADDED.equals(action) && !replacing) {
+            type = PackageChangeLog.ADDED;
+        } else if (Intent.ACTION_PACKAGE_REMOVED.equals(action) && !replacing) {
+            type = PackageChangeLog.REMOVED;
+        } else if (Intent.ACTION_PACKAGE_REPLACED.equals(action)) {
+            type = PackageChangeLog.REPLACED;
+        } else if (Intent.ACTION_PACKAGE_CHANGED.equals(action)) {
+            type = PackageChangeLog.CHANGED;
+        } else {
+            return;
+        }
+
+        Log.d(LOG_TAG, "** INFO **    " + action + " " + packageName + " --> Logged for the next resume.");
+        PackageChangeLog.getInstance(context).append(type, packageName);
+    }
+
+
+    /*
+    Name                intentFilter
+    Description         Returns the filter of the manifest declaration, to register the receiver at runtime
+     */
+    static IntentFilter intentFilter() {
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+
+        return filter;
+    }
+}
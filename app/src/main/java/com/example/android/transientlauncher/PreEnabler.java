@@ -0,0 +1,241 @@
+package com.example.android.transientlauncher;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+
+
+/*
+Class           Pre Enabler
+Description     Enables the transient apps the user is likely to launch next while the launcher is shown,
+                so tapping them does not wait for su and chmod. Every launch is added to the launch history
+                the predictions are made from.
+
+Notes           A pre-enabled app that is not launched is disabled again by the TransiencyService once the
+                launcher is hidden and the grace period passed (it is kept while the launcher is shown,
+                see ExitTracker), like any enabled transient app that is not in use.
+                The report counts hits (launch of a pre-enabled app), misses (launch of a transient app
+                that had to be enabled on the tap) and wasted enables (pre-enabled, disabled before use).
+                It is kept in the preferences, so the number of apps to pre-enable can be tuned with it.
+ */
+class PreEnabler {
+
+    /** Attributes **/
+    private static final String LOG_TAG = PreEnabler.class.getSimpleName();
+    static final String PREF_PRE_ENABLE_COUNT = "preEnableCount";
+    static final int DEFAULT_PRE_ENABLE_COUNT = 2;
+    static final String PREF_OUTSTANDING = "preEnableOutstanding";      // Pre-enabled, not launched yet
+    static final long HISTORY_MS = 30L * 24 * 60 * 60 * 1000;      // Launches older than this are forgotten
+
+    private static final String PREF_PRE_ENABLED = "preEnabled";
+    private static final String PREF_HITS = "preEnableHits";
+    private static final String PREF_MISSES = "preEnableMisses";
+    private static final String PREF_WASTED = "preEnableWasted";
+
+    private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread thread = new Thread(r, "PreEnabler");
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    });
+
+    private final Context context;
+    private final TransiencyManager transiencyManager;
+    private final AppMetadataRoomDatabase database;
+    private final SharedPreferences preferences;
+    private String lastLaunched;                // Guarded by this
+
+
+
+
+    /** Report **/
+    /*
+    Class               Report
+    Description         Pre-enable counters, and the hit rate they give
+     */
+    static class Report {
+
+        // Attributes
+        long preEnabled;
+        long hits;
+        long misses;
+        long wasted;
+
+        // Methods
+        double hitRate() {
+            return hits + misses > 0 ? (double) hits / (hits + misses) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "pre-enabled " + preEnabled + ", hits " + hits + ", misses " + misses + ", wasted " + wasted
+                    + ", hit rate " + Math.round(hitRate() * 100) + "%";
+        }
+    }
+
+
+
+
+    /** Constructor **/
+    PreEnabler(Context context, TransiencyManager tm, AppMetadataRoomDatabase db) {
+        this.context = context.getApplicationContext();
+        this.transiencyManager = tm;
+        this.database = db;
+        this.preferences = context.getSharedPreferences(TransiencyService.PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+
+
+
+    /** Methods **/
+    /*
+    Name                onLauncherShown
+    Description         Predicts the next launches and enables the top apps, in the background
+     */
+    void onLauncherShown() {
+        WORKER.execute(new Runnable() {
+            @Override
+            public void run() {
+                preEnable(System.currentTimeMillis());
+            }
+        });
+    }
+
+
+    /*
+    Name                onLauncherHidden
+    Description         The launcher left the foreground: the pre-enabled apps now get their grace period
+     */
+    void onLauncherHidden() {
+
+        if (!preferences.getStringSet(PREF_OUTSTANDING, Collections.<String>emptySet()).isEmpty()) {
+            TransiencyService.launcherHidden(context);
+        }
+    }
+
+
+    /*
+    Name                onAppLaunched
+    Description         Records a launch from the launcher, and whether the prediction got it
+     */
+    synchronized void onAppLaunched(String packageName, Boolean transientApp, Boolean neededEnable) {
+
+        long now = System.currentTimeMillis();
+        database.recordLaunch(new LaunchRecord(packageName, now, lastLaunched));
+        database.updateLastUsed(packageName, now);
+        lastLaunched = packageName;
+
+        if (transientApp != Boolean.TRUE) {
+            return;
+        }
+        Set<String> outstanding = new HashSet<>(preferences.getStringSet(PREF_OUTSTANDING, new HashSet<String>()));
+        SharedPreferences.Editor editor = preferences.edit();
+        if (outstanding.remove(packageName)) {
+            editor.putLong(PREF_HITS, preferences.getLong(PREF_HITS, 0) + 1);
+            editor.putStringSet(PREF_OUTSTANDING, outstanding);
+        } else if (neededEnable == Boolean.TRUE) {
+            editor.putLong(PREF_MISSES, preferences.getLong(PREF_MISSES, 0) + 1);
+        }
+        editor.apply();
+    }
+
+
+    /*
+    Name                getReport
+    Description         Returns the pre-enable counters
+     */
+    synchronized Report getReport() {
+
+        Report report = new Report();
+        report.preEnabled = preferences.getLong(PREF_PRE_ENABLED, 0);
+        report.hits = preferences.getLong(PREF_HITS, 0);
+        report.misses = preferences.getLong(PREF_MISSES, 0);
+        report.wasted = preferences.getLong(PREF_WASTED, 0);
+
+        return report;
+    }
+
+
+    /*
+    Name                preEnable
+    Description         Settles the previous pre-enables, then enables the most likely disabled transient
+                        apps. Runs on the worker thread.
+     */
+    private void preEnable(long now) {
+
+        // Previous pre-enables that were disabled before use are wasted
+        Set<String> enabled = new HashSet<>(database.getPackagesByState(Boolean.TRUE, Boolean.TRUE));
+        List<String> candidates = database.getPackagesByState(Boolean.TRUE, Boolean.FALSE);
+        Set<String> outstanding;
+        synchronized (this) {
+            outstanding = new HashSet<>(preferences.getStringSet(PREF_OUTSTANDING, new HashSet<String>()));
+            int wasted = 0;
+            for (String packageName : new ArrayList<>(outstanding)) {
+                if (!enabled.contains(packageName)) {
+                    outstanding.remove(packageName);
+                    wasted++;
+                }
+            }
+            preferences.edit()
+                    .putLong(PREF_WASTED, preferences.getLong(PREF_WASTED, 0) + wasted)
+                    .putStringSet(PREF_OUTSTANDING, outstanding)
+                    .apply();
+        }
+
+        // Predict from the launch history
+        int count = preferences.getInt(PREF_PRE_ENABLE_COUNT, DEFAULT_PRE_ENABLE_COUNT);
+        if (count <= 0 || candidates.isEmpty()) {
+            return;
+        }
+        database.pruneLaunchHistory(now - HISTORY_MS);
+        List<LaunchRecord> history = database.getLaunchHistory(now - HISTORY_MS);
+        LaunchPredictor predictor = new LaunchPredictor(TimeZone.getDefault());
+        predictor.addAll(history);
+        String previous;
+        synchronized (this) {
+            if (lastLaunched == null && !history.isEmpty()) {
+                lastLaunched = history.get(history.size() - 1).getPackageName();
+            }
+            previous = lastLaunched;
+        }
+        List<String> predicted = predictor.predict(candidates, previous, now, count);
+        if (predicted.isEmpty()) {
+            return;
+        }
+
+        // Enable them all at once
+        Map<String, Boolean> results = transiencyManager.enableApps(predicted);
+        int preEnabled = 0;
+        synchronized (this) {
+            outstanding = new HashSet<>(preferences.getStringSet(PREF_OUTSTANDING, new HashSet<String>()));
+            for (String packageName : predicted) {
+                if (results.get(packageName) == Boolean.TRUE) {
+                    outstanding.add(packageName);
+                    preEnabled++;
+                }
+            }
+            preferences.edit()
+                    .putLong(PREF_PRE_ENABLED, preferences.getLong(PREF_PRE_ENABLED, 0) + preEnabled)
+                    .putStringSet(PREF_OUTSTANDING, outstanding)
+                    .apply();
+        }
+        Log.d(LOG_TAG, "** INFO **    Pre-enabled " + preEnabled + " of " + predicted + ". " + getReport());
+
+        // The background service starts watching them once the launcher is hidden (onLauncherHidden)
+    }
+}
@@ -0,0 +1,335 @@
+package com.example.android.transientlauncher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+
+/*
+Class           Proc Scanner
+Description     Source of running packages that reads /proc/<pid>/cmdline directly, instead of starting
+                a "ps" process and parsing its output.
+
+Notes           App processes are named after their package, optionally followed by ":<process>"
+                (e.g. com.example.app:remote). Any dotted Java-style name is accepted, so org.*, net.*
+                and two-segment packages are found too. The read buffer is reused between scans.
+                Since Android 7, /proc is mounted with hidepid, so other apps' processes are only
+                visible when the launcher runs as root or system.
+                A zygote child is named zygote, zygote64 or <pre-initialized> until it renames itself
+                after its package: such a name is not final (see isFinalName).
+ */
+class ProcScanner {
+
+    /** Attributes **/
+    static final String DEFAULT_PROC_ROOT = "/proc";
+    private static final int CMDLINE_BUFFER_SIZE = 256;     // Package names are much shorter than this
+    private static final int STAT_BUFFER_SIZE = 1024;       // A stat line is about 300 bytes
+    private static final int STAT_PARENT_PID = 1;           // Fields after the ")" of the command name:
+    private static final int STAT_START_TIME = 19;          // ppid is field 4, starttime is field 22
+    static final long KTHREADD_PID = 2;                     // Parent of the kernel threads
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final File procRoot;
+    private final byte[] buffer = new byte[CMDLINE_BUFFER_SIZE];
+    private final byte[] statBuffer = new byte[STAT_BUFFER_SIZE];
+
+
+
+
+    /** Stat **/
+    /*
+    Class               Stat
+    Description         Parent pid and start time (clock ticks since boot) of a process: a pid and its start
+                        time name one process, a pid alone may be reused once the process exited
+     */
+    static class Stat {
+
+        // Attributes
+        final long parentPid;
+        final long startTime;
+
+        // Constructor
+        Stat(long parentPid, long startTime) {
+            this.parentPid = parentPid;
+            this.startTime = startTime;
+        }
+    }
+
+
+
+
+    /** Constructors **/
+    ProcScanner() {
+        this(new File(DEFAULT_PROC_ROOT));
+    }
+
+    ProcScanner(File procRoot) {
+        this.procRoot = procRoot;
+    }
+
+
+
+
+    /** Methods **/
+    /*
+    Name                scan
+    Description         Returns the set of package names that have at least one running process
+     */
+    synchronized Set<String> scan() {
+
+        Set<String> runningPackages = new HashSet<>();
+
+        for (String pid : listPids()) {
+            String packageName = packageOf(pid);
+            if (packageName != null) {
+                runningPackages.add(packageName);
+            }
+        }
+
+        return runningPackages;
+    }
+
+
+    /*
+    Name                listPids
+    Description         Returns the pids currently present in the proc root (no cmdline is read)
+     */
+    List<String> listPids() {
+
+        List<String> pids = new ArrayList<>();
+
+        String[] entries = procRoot.list();
+        if (entries == null) {
+            return pids;
+        }
+
+        for (String entry : entries) {
+
+            // Only process directories are named with a pid
+            if (isPid(entry)) {
+                pids.add(entry);
+            }
+        }
+
+        return pids;
+    }
+
+
+    /*
+    Name                packageOf
+    Description         Returns the package running in the process with the given pid, or null if none
+     */
+    synchronized String packageOf(String pid) {
+
+        int end = readProcessName(pid);
+        if (end < 0 || !isPackageName(buffer, end)) {
+            return null;
+        }
+        return new String(buffer, 0, end, ASCII);
+    }
+
+
+    /*
+    Name                processNameOf
+    Description         Returns the name of the process with the given pid (up to the first ':', empty for
+                        kernel threads), or null if it exited
+     */
+    synchronized String processNameOf(String pid) {
+
+        int end = readProcessName(pid);
+        if (end < 0) {
+            return null;
+        }
+        return new String(buffer, 0, end, ASCII);
+    }
+
+
+    /*
+    Name                statOf
+    Description         Returns the parent pid and start time of a process from /proc/<pid>/stat, or null
+                        if it cannot be read (process exited)
+     */
+    synchronized Stat statOf(String pid) {
+
+        int length = read(new File(new File(procRoot, pid), "stat"), statBuffer);
+        if (length < 0) {
+            return null;
+        }
+
+        // The command name may hold spaces and ')': the fields start after the last ')'
+        int pos = length - 1;
+        while (pos >= 0 && statBuffer[pos] != ')') {
+            pos--;
+        }
+        if (pos < 0) {
+            return null;
+        }
+
+        long parentPid = -1;
+        long startTime = -1;
+        int field = -1;
+        long value = 0;
+        boolean inField = false;
+        for (pos++; pos <= length && startTime < 0; pos++) {
+            byte c = pos < length ? statBuffer[pos] : (byte) ' ';
+            if (c == ' ' || c == '\n') {
+                if (inField) {
+                    if (field == STAT_PARENT_PID) {
+                        parentPid = value;
+                    } else if (field == STAT_START_TIME) {
+                        startTime = value;
+                    }
+                    inField = false;
+                }
+            } else {
+                if (!inField) {
+                    field++;
+                    value = 0;
+                    inField = true;
+                }
+                if (c >= '0' && c <= '9') {
+                    value = value * 10 + (c - '0');
+                }
+            }
+        }
+        if (startTime < 0) {
+            return null;
+        }
+
+        return new Stat(parentPid, startTime);
+    }
+
+
+    /*
+    Name                readProcessName
+    Description         Reads the cmdline of a process into the buffer and returns the length of its name
+                        (the first argument, up to the first NUL or ':'), or -1 if the process exited
+     */
+    private int readProcessName(String pid) {
+
+        int length = read(new File(new File(procRoot, pid), "cmdline"), buffer);
+        if (length < 0) {
+            return -1;
+        }
+
+        int end = 0;
+        while (end < length && buffer[end] != 0 && buffer[end] != ':') {
+            end++;
+        }
+
+        return end;
+    }
+
+
+    /*
+    Name                read
+    Description         Reads the start of a file into a buffer, returns the bytes read or -1 if it cannot
+                        be read (the process exited while scanning)
+     */
+    private static int read(File file, byte[] into) {
+
+        int length = 0;
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            int read;
+            while (length < into.length && (read = in.read(into, length, into.length - length)) > 0) {
+                length += read;
+            }
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing to do
+                }
+            }
+        }
+
+        return length;
+    }
+
+
+    /*
+    Name                isFinalName
+    Description         Returns FALSE for the names a zygote child has before it renames itself after its
+                        package (and for an empty name, unless it is a kernel thread)
+     */
+    static boolean isFinalName(String name, long parentPid) {
+
+        if (name.isEmpty()) {
+            return parentPid == KTHREADD_PID;
+        }
+        return !name.startsWith("zygote") && !name.equals("<pre-initialized>") && !name.startsWith("usap");
+    }
+
+
+    /*
+    Name                isPid
+    Description         Returns TRUE if the /proc entry name is all digits
+     */
+    private static boolean isPid(String entry) {
+
+        if (entry.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < entry.length(); i++) {
+            char c = entry.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /*
+    Name                isPackageName
+    Description         Returns TRUE if the bytes form a Java package name with at least two segments
+                        (each segment starts with a letter, then letters, digits or '_')
+     */
+    static boolean isPackageName(String name) {
+
+        int length = name.length();
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            char c = name.charAt(i);
+            bytes[i] = c < 128 ? (byte) c : (byte) '?';
+        }
+
+        return isPackageName(bytes, length);
+    }
+
+    static boolean isPackageName(byte[] name, int length) {
+
+        int segments = 0;
+        boolean segmentStart = true;
+        for (int i = 0; i < length; i++) {
+            byte c = name[i];
+            boolean letter = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+
+            if (segmentStart) {
+                if (!letter) {
+                    return false;
+                }
+                segments++;
+                segmentStart = false;
+            } else if (c == '.') {
+                segmentStart = true;
+            } else if (!letter && !(c >= '0' && c <= '9') && c != '_') {
+                return false;
+            }
+        }
+
+        // A trailing dot leaves an empty last segment
+        return segments >= 2 && !segmentStart;
+    }
+}
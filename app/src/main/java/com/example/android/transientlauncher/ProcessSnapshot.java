@@ -0,0 +1,212 @@
+package com.example.android.transientlauncher;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+
+/*
+Class           Process Snapshot
+Description     Shared, cached view of the running packages. Answers isAppRunning from an immutable set
+                and only goes back to /proc once the refresh interval has passed or after invalidate().
+
+Notes           A refresh lists the pids and reads the start time of each one (stat): a process is its
+                pid and start time, so a reused pid is read again instead of keeping the package of
+                the process that had it before. The cmdline is only read for new processes, and again
+                on every refresh while the name is not final (a zygote child named zygote or
+                <pre-initialized> until it renames itself after its package). If no process started,
+                died or was renamed, the cached set is kept as is.
+ */
+class ProcessSnapshot {
+
+    /** Attributes **/
+    static final long DEFAULT_REFRESH_INTERVAL_MS = 2000;
+    private static ProcessSnapshot INSTANCE;        // Shared snapshot, static (only one)
+
+    private final ProcScanner scanner;
+    private long refreshIntervalMs;
+    private long lastRefreshMs;
+    private boolean stale = true;
+
+    private Map<String, Entry> entryByPid = new HashMap<>();
+    private Set<String> runningPackages = Collections.emptySet();    // Immutable
+
+
+
+
+    /** Entry **/
+    /*
+    Class               Entry
+    Description         What is known about a pid: start time, package (null if not an app) and whether its
+                        name is final (if not, the cmdline is read again on the next refresh)
+     */
+    private static class Entry {
+
+        // Attributes
+        final long startTime;
+        final String packageName;
+        final boolean finalName;
+
+        // Constructor
+        Entry(long startTime, String packageName, boolean finalName) {
+            this.startTime = startTime;
+            this.packageName = packageName;
+            this.finalName = finalName;
+        }
+    }
+
+
+
+
+    /** Constructor **/
+    ProcessSnapshot(ProcScanner scanner, long refreshIntervalMs) {
+        this.scanner = scanner;
+        this.refreshIntervalMs = refreshIntervalMs;
+    }
+
+
+
+
+    /** Methods **/
+    /*
+    Name                getInstance
+    Description         Returns the snapshot shared by the launcher and its services
+     */
+    static ProcessSnapshot getInstance() {
+
+        // If the instance is null, synchronize and check again
+        if (INSTANCE == null) {
+            synchronized (ProcessSnapshot.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new ProcessSnapshot(new ProcScanner(), DEFAULT_REFRESH_INTERVAL_MS);
+                }
+            }
+        }
+
+        return INSTANCE;
+    }
+
+
+    /*
+    Name                setRefreshInterval
+    Description         Sets how old the snapshot may get before the next query refreshes it
+     */
+    synchronized void setRefreshInterval(long refreshIntervalMs) {
+        this.refreshIntervalMs = refreshIntervalMs;
+    }
+
+
+    /*
+    Name                invalidate
+    Description         Forces the next query to refresh (e.g. right after killing or launching an app)
+     */
+    synchronized void invalidate() {
+        stale = true;
+    }
+
+
+    /*
+    Name                getRunningPackages
+    Description         Returns the immutable set of running packages, refreshed if it is too old
+     */
+    synchronized Set<String> getRunningPackages() {
+
+        long now = System.currentTimeMillis();
+        if (stale || now - lastRefreshMs >= refreshIntervalMs) {
+            refresh();
+            lastRefreshMs = now;
+            stale = false;
+        }
+
+        return runningPackages;
+    }
+
+
+    /*
+    Name                isAppRunning
+    Description         Returns TRUE if the package has at least one running process
+     */
+    boolean isAppRunning(String packageName) {
+        return getRunningPackages().contains(packageName);
+    }
+
+
+    /*
+    Name                runningAmong
+    Description         Returns which of the given packages are running, from a single snapshot
+     */
+    Set<String> runningAmong(Collection<String> packageNames) {
+
+        Set<String> running = getRunningPackages();
+        Set<String> result = new HashSet<>();
+        for (String packageName : packageNames) {
+            if (running.contains(packageName)) {
+                result.add(packageName);
+            }
+        }
+
+        return result;
+    }
+
+
+    /*
+    Name                refresh
+    Description         Updates the pid table with the processes that started, died or got their final name
+                        since the last refresh
+     */
+    private void refresh() {
+
+        List<String> pids = scanner.listPids();
+
+        // Keep the known processes that are still alive under the same pid, read only the others
+        Map<String, Entry> current = new HashMap<>(pids.size() * 2);
+        boolean changed = false;
+        for (String pid : pids) {
+
+            Entry known = entryByPid.get(pid);
+            ProcScanner.Stat stat = scanner.statOf(pid);
+            long startTime = stat != null ? stat.startTime : -1;
+            if (known != null && known.finalName && known.startTime == startTime) {
+                current.put(pid, known);
+                continue;
+            }
+
+            String name = scanner.processNameOf(pid);
+            if (name == null) {
+                continue;           // Exited while scanning
+            }
+            String packageName = ProcScanner.isPackageName(name) ? name : null;
+            boolean finalName = packageName != null || ProcScanner.isFinalName(name, stat != null ? stat.parentPid : -1);
+            current.put(pid, new Entry(startTime, packageName, finalName));
+
+            if (known == null || !equal(known.packageName, packageName)) {
+                changed = true;
+            }
+        }
+        changed |= current.size() != entryByPid.size();
+        entryByPid = current;
+
+        // Nothing started, died or was renamed, the current set is still valid
+        if (!changed) {
+            return;
+        }
+
+        Set<String> packages = new HashSet<>();
+        for (Entry entry : current.values()) {
+            if (entry.packageName != null) {
+                packages.add(entry.packageName);
+            }
+        }
+        runningPackages = Collections.unmodifiableSet(packages);
+    }
+
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
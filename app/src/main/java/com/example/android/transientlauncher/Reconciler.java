@@ -0,0 +1,136 @@
+package com.example.android.transientlauncher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+
+
+/*
+Class           Reconciler
+Description     Compares the enabled flag of every app in the DB with the permission bits of its APK, and
+                decides what to repair: the file (the DB is right) or the row (the file is right).
+
+Notes           An APK is enabled when all its read bits are set (chmod uga+r) and disabled when none are
+                (chmod uga-r). Drift comes from OTA updates and reinstalls (new APK, default mode) or from
+                permissions fixed by hand. An APK with only some read bits set is always repaired to the
+                DB flag, there is no row for that state.
+                TransiencyManager.reconcile reads the modes and applies the plan.
+ */
+class Reconciler {
+
+    /** Attributes **/
+    static final int REPAIR_FILES = 0;          // The DB is right: chmod the APKs that differ
+    static final int REPAIR_DB = 1;             // The APKs are right: update the rows that differ
+    static final String PREF_POLICY = "reconcilePolicy";
+    static final String PREF_LAST_REPORT = "lastReconcile";
+
+
+
+
+    /** Plan **/
+    /*
+    Class               Plan
+    Description         What a reconcile changes, and what it found
+     */
+    static class Plan {
+
+        // Attributes
+        final List<String> filesToEnable = new ArrayList<>();
+        final List<String> filesToDisable = new ArrayList<>();
+        final List<String> rowsToEnable = new ArrayList<>();
+        final List<String> rowsToDisable = new ArrayList<>();
+        int checked;
+        int missing;                // No APK mode (uninstalled, moved, or stat failed)
+        int mismatched;
+    }
+
+
+
+
+    /** Report **/
+    /*
+    Class               Report
+    Description         Result of a reconcile: what was checked, what was changed and how long it took
+     */
+    static class Report {
+
+        // Attributes
+        int policy;
+        int checked;
+        int missing;
+        int mismatched;
+        int filesRepaired;
+        int rowsRepaired;
+        int skippedRunning;         // APKs left readable because the app is running
+        int failed;
+        long elapsedMs;
+
+        // Methods
+        @Override
+        public String toString() {
+            return "policy " + policyName(policy) + ", checked " + checked + ", missing " + missing
+                    + ", mismatched " + mismatched + ", files repaired " + filesRepaired + ", rows repaired "
+                    + rowsRepaired + ", skipped (running) " + skippedRunning + ", failed " + failed
+                    + ", took " + elapsedMs + " ms";
+        }
+    }
+
+
+
+
+    /** Methods **/
+    /*
+    Name                plan
+    Description         Compares every app with the mode of its APK (modes keyed by package name, NO_MODE or
+                        absent if unknown) and lists the repairs the policy asks for
+     */
+    static Plan plan(List<AppMetadata> apps, Map<String, Integer> modes, int policy) {
+
+        Plan plan = new Plan();
+        for (AppMetadata app : apps) {
+
+            plan.checked++;
+            Integer mode = modes.get(app.getPackageName());
+            if (mode == null || mode == ApkAccess.NO_MODE) {
+                plan.missing++;
+                continue;
+            }
+
+            int readBits = mode & ApkAccess.READ_BITS;
+            boolean rowEnabled = app.getEnabledApp() == Boolean.TRUE;
+            boolean fileEnabled = readBits == ApkAccess.READ_BITS;
+            boolean fileDisabled = readBits == 0;
+            if (rowEnabled ? fileEnabled : fileDisabled) {
+                continue;
+            }
+            plan.mismatched++;
+
+            if (policy == REPAIR_DB && (fileEnabled || fileDisabled)) {
+                (fileEnabled ? plan.rowsToEnable : plan.rowsToDisable).add(app.getPackageName());
+            } else {
+                (rowEnabled ? plan.filesToEnable : plan.filesToDisable).add(app.getPackageName());
+            }
+        }
+
+        return plan;
+    }
+
+
+    /*
+    Name                policyName / parsePolicy
+    Description         Names of the policies, as shown in the reports and given to "dumpsys ... reconcile"
+     */
+    static String policyName(int policy) {
+        return policy == REPAIR_DB ? "db" : "files";
+    }
+
+    static int parsePolicy(String name, int defaultPolicy) {
+        if ("db".equals(name)) {
+            return REPAIR_DB;
+        } else if ("files".equals(name)) {
+            return REPAIR_FILES;
+        }
+        return defaultPolicy;
+    }
+}
@@ -0,0 +1,410 @@
+package com.example.android.transientlauncher;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+
+/*
+Class           Root Shell
+Description     Long-lived root shell session. The su process is started once and kept open, so each
+                command costs a pipe write and a read instead of a fork, exec and su handshake.
+
+Notes           Commands are pipelined: every command is followed by an echo of an end marker carrying
+                a sequence number and the command's exit code, which frames its output on stdout.
+                stderr is merged into stdout. If the shell dies it is restarted on the next command,
+                and it is closed after being idle for a while.
+                The results are read on a thread of the session, the caller waits for them at most the
+                read timeout: a su that does not answer (grant dialog, stuck daemon) is dropped with an
+                InterruptedIOException and the batch is not sent again. Killing it would not be enough,
+                its children (root) keep stdout open. run is synchronized, so without this a hung su
+                would block every later command.
+ */
+class RootShell {
+
+    /** Attributes **/
+    private static final String LOG_TAG = RootShell.class.getSimpleName();
+    private static final String END_MARKER = "__TRANSIENT_LAUNCHER_END__";
+    private static final long DEFAULT_IDLE_TIMEOUT_MS = 30000;
+    private static final long DEFAULT_READ_TIMEOUT_MS = 10000;
+    private static RootShell INSTANCE;          // Shared su session, static (only one)
+
+    private final String shellCommand;
+    private final long idleTimeoutMs;
+    private final long readTimeoutMs;
+    private final ScheduledExecutorService idleTimer;
+    private ScheduledFuture<?> idleShutdown;
+    private long lastUsedMs;
+
+    private Process process;
+    private DataOutputStream stdin;
+    private BufferedReader stdout;
+    private ExecutorService reader;             // Reads the results of this session (one per shell process)
+    private long sequence;
+
+
+
+
+    /** Result **/
+    /*
+    Class               Result
+    Description         Exit code and output lines of a single command run in the shell
+     */
+    static class Result {
+
+        // Attributes
+        final int exitCode;
+        final List<String> output;
+        final long sentNanos;           // System.nanoTime() once the command was written to the shell
+
+        // Constructor
+        Result(int exitCode, List<String> output, long sentNanos) {
+            this.exitCode = exitCode;
+            this.output = Collections.unmodifiableList(output);
+            this.sentNanos = sentNanos;
+        }
+
+        // Methods
+        boolean isSuccess() {
+            return exitCode == 0;
+        }
+    }
+
+
+
+
+    /** Constructor **/
+    RootShell(String shellCommand, long idleTimeoutMs) {
+        this(shellCommand, idleTimeoutMs, DEFAULT_READ_TIMEOUT_MS);
+    }
+
+    RootShell(String shellCommand, long idleTimeoutMs, long readTimeoutMs) {
+        this.shellCommand = shellCommand;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.idleTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "RootShell-idle");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+
+
+
+    /** Methods **/
+    /*
+    Name                getInstance
+    Description         Returns the shared su session of the launcher
+     */
+    static RootShell getInstance() {
+
+        // If the instance is null, synchronize and check again
+        if (INSTANCE == null) {
+            synchronized (RootShell.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new RootShell("su", DEFAULT_IDLE_TIMEOUT_MS);
+                }
+            }
+        }
+
+        return INSTANCE;
+    }
+
+
+    /*
+    Name                quote
+    Description         Quotes an argument so the shell passes it through untouched (e.g. an APK path)
+     */
+    static String quote(String argument) {
+        return "'" + argument.replace("'", "'\\''") + "'";
+    }
+
+
+    /*
+    Name                start
+    Description         Starts the shell if it is not running already (e.g. to ask for root early)
+     */
+    synchronized void start() throws IOException {
+        ensureStarted();
+        scheduleIdleShutdown();
+    }
+
+
+    /*
+    Name                run
+    Description         Runs a single command in the shell and returns its result
+     */
+    Result run(String command) throws IOException {
+        return run(Collections.singletonList(command)).get(0);
+    }
+
+
+    /*
+    Name                run
+    Description         Writes all commands to the shell in one go, then reads one framed result per command
+
+    Notes               If the shell died since the last use (or dies while writing), it is restarted and the
+                        batch is sent again once. Commands sent here should therefore be idempotent (chmod).
+     */
+    synchronized List<Result> run(List<String> commands) throws IOException {
+
+        cancelIdleShutdown();
+        try {
+            try {
+                return runOnce(commands);
+            } catch (InterruptedIOException e) {
+                destroy();          // Timed out: sending it again would only wait again
+                throw e;
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "** WARNING **   Root shell died, restarting it... (" + e.getMessage() + ")");
+                destroy();
+                return runOnce(commands);
+            }
+        } finally {
+            scheduleIdleShutdown();
+        }
+    }
+
+
+    /*
+    Name                close
+    Description         Exits the shell, it will be started again by the next command
+     */
+    synchronized void close() {
+
+        cancelIdleShutdown();
+        if (process == null) {
+            return;
+        }
+
+        try {
+            stdin.writeBytes("exit\n");
+            stdin.flush();
+        } catch (IOException e) {
+            // The shell is already gone, nothing to tell it
+        }
+        destroy();
+
+        Log.d(LOG_TAG, "** INFO **   Root shell closed.");
+    }
+
+
+    /*
+    Name                closeIfIdle
+    Description         Closes the shell unless it was used again while the idle shutdown was firing
+     */
+    private synchronized void closeIfIdle() {
+
+        if (System.currentTimeMillis() - lastUsedMs >= idleTimeoutMs) {
+            close();
+        }
+    }
+
+
+    /*
+    Name                isRunning
+    Description         Returns TRUE if the shell process is alive
+     */
+    synchronized boolean isRunning() {
+
+        if (process == null) {
+            return false;
+        }
+
+        // Process.isAlive() needs API 26, exitValue() throws while the process is still running
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+
+    /*
+    Name                runOnce
+    Description         Pipelines the commands through the current shell and parses the framed results
+     */
+    private List<Result> runOnce(List<String> commands) throws IOException {
+
+        ensureStarted();
+
+        // Write every command followed by its end marker, then flush once
+        final long first = sequence;
+        StringBuilder batch = new StringBuilder();
+        for (String command : commands) {
+            batch.append(command).append('\n');
+            batch.append("echo ").append(END_MARKER).append(' ').append(sequence++).append(" $?\n");
+        }
+        stdin.writeBytes(batch.toString());
+        stdin.flush();
+        final long sentNanos = System.nanoTime();
+
+        // Read the output of each command up to its end marker, on the reader of the session
+        final long last = sequence;
+        final BufferedReader in = stdout;
+        Future<List<Result>> read = reader.submit(new Callable<List<Result>>() {
+            @Override
+            public List<Result> call() throws IOException {
+                List<Result> results = new ArrayList<>((int) (last - first));
+                for (long id = first; id < last; id++) {
+                    results.add(readResult(in, id, sentNanos));
+                }
+                return results;
+            }
+        });
+
+        try {
+            return read.get(readTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.e(LOG_TAG, "* ERROR *   Root shell did not answer within " + readTimeoutMs + " ms, dropping it.");
+            throw new InterruptedIOException("Root shell timed out after " + readTimeoutMs + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the root shell");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error reading from root shell", e.getCause());
+        }
+    }
+
+
+    /*
+    Name                readResult
+    Description         Reads output lines until the end marker of the given command and returns its result
+     */
+    private static Result readResult(BufferedReader in, long id, long sentNanos) throws IOException {
+
+        List<String> output = new ArrayList<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+
+            // The marker may share a line with output that did not end in a newline
+            int markerPos = line.indexOf(END_MARKER);
+            if (markerPos < 0) {
+                output.add(line);
+                continue;
+            }
+            if (markerPos > 0) {
+                output.add(line.substring(0, markerPos));
+            }
+
+            String[] fields = line.substring(markerPos + END_MARKER.length()).trim().split(" ");
+            if (fields.length != 2 || Long.parseLong(fields[0]) != id) {
+                throw new IOException("Unexpected end marker from root shell: " + line);
+            }
+            return new Result(Integer.parseInt(fields[1]), output, sentNanos);
+        }
+
+        throw new IOException("Root shell exited while running command " + id);
+    }
+
+
+    /*
+    Name                ensureStarted
+    Description         Starts a new shell process if there is none or if the previous one died
+     */
+    private void ensureStarted() throws IOException {
+
+        if (isRunning()) {
+            return;
+        }
+        destroy();
+
+        ProcessBuilder builder = new ProcessBuilder(shellCommand);
+        builder.redirectErrorStream(true);
+        process = builder.start();
+        stdin = new DataOutputStream(process.getOutputStream());
+        stdout = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        reader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "RootShell-reader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        Log.d(LOG_TAG, "** INFO **   Root shell started.");
+    }
+
+
+    /*
+    Name                destroy
+    Description         Kills the shell process and forgets its streams. A reader still blocked on a hung
+                        shell is left behind, it ends once the pipe is closed.
+     */
+    private void destroy() {
+
+        if (process == null) {
+            return;
+        }
+
+        try {
+            stdin.close();
+            process.getInputStream().close();       // Not stdout: its lock is held by a blocked reader
+        } catch (IOException e) {
+            // Closing streams of a dead process, nothing to do
+        }
+        reader.shutdownNow();
+        process.destroy();
+        process = null;
+        stdin = null;
+        stdout = null;
+        reader = null;
+    }
+
+
+    /*
+    Name                scheduleIdleShutdown
+    Description         Closes the shell if no command arrives within the idle timeout
+     */
+    private void scheduleIdleShutdown() {
+
+        cancelIdleShutdown();
+        lastUsedMs = System.currentTimeMillis();
+        idleShutdown = idleTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                closeIfIdle();
+            }
+        }, idleTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+
+    /*
+    Name                cancelIdleShutdown
+    Description         Cancels a pending idle shutdown
+     */
+    private void cancelIdleShutdown() {
+
+        if (idleShutdown != null) {
+            idleShutdown.cancel(false);
+            idleShutdown = null;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.example.android.transientlauncher;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+
+
+/*
+Class           Search Index
+Description     Type-ahead index over the app labels and package names. A query returns the apps that have,
+                for every word of the query, a word of their label or package name starting with it
+                ("goo ma" finds "Google Maps" and com.google.android.apps.maps).
+
+Notes           Words are lower-cased and stripped of accents, and kept in a sorted map from word to apps,
+                so a prefix is one range of the map: no scan of the app list per keystroke.
+                Apps are added, removed and relabelled one by one (sync only touches the changed ones).
+                Results: label starting with the whole query first, then a label word matching, then a
+                package name match, each by label. Not thread-safe, used from the main thread.
+ */
+class SearchIndex {
+
+    /** Attributes **/
+    private final TreeMap<String, Set<String>> packagesByWord = new TreeMap<>();
+    private final Map<String, String> labels = new HashMap<>();             // Package name -> label (as given)
+    private final Map<String, String> normalizedLabels = new HashMap<>();   // Package name -> normalized label
+    private final Map<String, Set<String>> wordsByPackage = new HashMap<>();
+    private final Map<String, Set<String>> labelWordsByPackage = new HashMap<>();
+
+
+
+
+    /** Match **/
+    /*
+    Class               Match
+    Description         One result of a search: rank, then label, then package name
+     */
+    private static class Match implements Comparable<Match> {
+
+        // Attributes
+        final String packageName;
+        final String label;
+        final int rank;
+
+        // Constructor
+        Match(String packageName, String label, int rank) {
+            this.packageName = packageName;
+            this.label = label;
+            this.rank = rank;
+        }
+
+        // Methods
+        @Override
+        public int compareTo(Match other) {
+            if (rank != other.rank) {
+                return rank - other.rank;
+            }
+            int byLabel = label.compareTo(other.label);
+            return byLabel != 0 ? byLabel : packageName.compareTo(other.packageName);
+        }
+    }
+
+
+
+
+    /** Methods **/
+    /*
+    Name                put
+    Description         Adds an app, or updates its label
+     */
+    void put(String packageName, String label) {
+
+        if (label == null) {
+            label = packageName;
+        }
+        if (label.equals(labels.get(packageName))) {
+            return;
+        }
+        remove(packageName);
+
+        String normalizedLabel = normalize(label);
+        Set<String> labelWords = words(normalizedLabel);
+        Set<String> words = new HashSet<>(labelWords);
+        words.addAll(words(normalize(packageName)));
+
+        for (String word : words) {
+            Set<String> packages = packagesByWord.get(word);
+            if (packages == null) {
+                packages = new HashSet<>();
+                packagesByWord.put(word, packages);
+            }
+            packages.add(packageName);
+        }
+        labels.put(packageName, label);
+        normalizedLabels.put(packageName, normalizedLabel);
+        wordsByPackage.put(packageName, words);
+        labelWordsByPackage.put(packageName, labelWords);
+    }
+
+
+    /*
+    Name                remove
+    Description         Removes an app (nothing if it is not in the index)
+     */
+    void remove(String packageName) {
+
+        Set<String> words = wordsByPackage.remove(packageName);
+        if (words == null) {
+            return;
+        }
+        for (String word : words) {
+            Set<String> packages = packagesByWord.get(word);
+            packages.remove(packageName);
+            if (packages.isEmpty()) {
+                packagesByWord.remove(word);
+            }
+        }
+        labels.remove(packageName);
+        normalizedLabels.remove(packageName);
+        labelWordsByPackage.remove(packageName);
+    }
+
+
+    /*
+    Name                sync
+    Description         Brings the index in line with a list of apps: adds the new ones, relabels the changed
+                        ones and removes the ones that are gone. Returns the number of apps it changed.
+     */
+    int sync(AppRegistry.Apps apps) {
+
+        int changed = 0;
+        for (int pos = 0; pos < apps.size(); pos++) {
+            String label = apps.getLabel(pos);
+            if (!label.equals(labels.get(apps.getPackageName(pos)))) {
+                put(apps.getPackageName(pos), label);
+                changed++;
+            }
+        }
+
+        if (apps.size() < labels.size()) {
+            for (String packageName : new ArrayList<>(labels.keySet())) {
+                if (apps.indexOf(packageName) < 0) {
+                    remove(packageName);
+                    changed++;
+                }
+            }
+        }
+
+        return changed;
+    }
+
+
+    /*
+    Name                search
+    Description         Returns the package names of the apps matching every word of the query, best first
+                        (at most limit). An empty query matches nothing.
+     */
+    List<String> search(String query, int limit) {
+
+        String normalizedQuery = normalize(query).trim();
+        List<String> queryWords = new ArrayList<>(words(normalizedQuery));
+        if (queryWords.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        // Apps matching each word, intersected from the smallest set
+        List<Set<String>> matches = new ArrayList<>(queryWords.size());
+        for (String word : queryWords) {
+            Set<String> packages = prefixMatches(word);
+            if (packages.isEmpty()) {
+                return Collections.emptyList();
+            }
+            matches.add(packages);
+        }
+        Collections.sort(matches, new Comparator<Set<String>>() {
+            @Override
+            public int compare(Set<String> a, Set<String> b) {
+                return a.size() - b.size();
+            }
+        });
+        Set<String> result = matches.get(0);
+        for (int i = 1; i < matches.size() && !result.isEmpty(); i++) {
+            result.retainAll(matches.get(i));
+        }
+
+        // Rank (computed once per app, not per comparison)
+        String firstWord = queryWords.get(0);
+        List<Match> ranked = new ArrayList<>(result.size());
+        for (String packageName : result) {
+            ranked.add(new Match(packageName, normalizedLabels.get(packageName), rank(packageName, normalizedQuery, firstWord)));
+        }
+        Collections.sort(ranked);
+
+        int count = Math.min(limit, ranked.size());
+        List<String> packageNames = new ArrayList<>(count);
+        for (int pos = 0; pos < count; pos++) {
+            packageNames.add(ranked.get(pos).packageName);
+        }
+
+        return packageNames;
+    }
+
+
+    int size() {
+        return labels.size();
+    }
+
+
+    /*
+    Name                prefixMatches
+    Description         Returns the apps with a word starting with the given prefix (one range of the map)
+     */
+    private Set<String> prefixMatches(String prefix) {
+
+        Set<String> packages = new HashSet<>();
+        for (Set<String> wordPackages : packagesByWord.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+            packages.addAll(wordPackages);
+        }
+
+        return packages;
+    }
+
+
+    private int rank(String packageName, String normalizedQuery, String firstWord) {
+
+        if (normalizedLabels.get(packageName).startsWith(normalizedQuery)) {
+            return 0;
+        }
+        for (String word : labelWordsByPackage.get(packageName)) {
+            if (word.startsWith(firstWord)) {
+                return 1;
+            }
+        }
+        return 2;
+    }
+
+
+    /*
+    Name                normalize / words
+    Description         Lower case without accents (an e with an accent is an e), and the words of a normalized text
+                        (split on everything that is not a letter or a digit, e.g. the dots of package names)
+     */
+    static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return decomposed.replaceAll("\\p{M}+", "").toLowerCase(Locale.ROOT);
+    }
+
+    static Set<String> words(String normalized) {
+
+        Set<String> words = new LinkedHashSet<>();           // In order, the first one ranks the results
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean wordChar = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+
+        return words;
+    }
+}
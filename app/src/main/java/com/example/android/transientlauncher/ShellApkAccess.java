@@ -0,0 +1,107 @@
+package com.example.android.transientlauncher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+
+/*
+Class           Shell Apk Access
+Description     Changes the access of APK files with chmod and stat commands sent to the root shell.
+
+Notes           All the commands of a call are pipelined in one write to the shell (see RootShell).
+                Needs root, and a stat that supports -c (toybox, Android 6+) for getModes.
+ */
+class ShellApkAccess implements ApkAccess {
+
+    /** Attributes **/
+    private final RootShell shell;
+
+
+
+
+    /** Constructor **/
+    ShellApkAccess(RootShell shell) {
+        this.shell = shell;
+    }
+
+
+
+
+    /** Methods **/
+    @Override
+    public String getName() {
+        return "shell";
+    }
+
+
+    /*
+    Name                probe
+    Description         Checks that the shell runs and can stat the APK
+     */
+    @Override
+    public boolean probe(String apkPath) {
+
+        try {
+            return getModes(Collections.singletonList(apkPath)).get(0) != NO_MODE;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+
+    /*
+    Name                setReadable
+    Description         Runs "chmod uga+r" (enable) or "chmod uga-r" (disable) on every APK. Sent once the
+                        commands are written to the shell.
+     */
+    @Override
+    public Result setReadable(List<String> apkPaths, boolean readable) throws IOException {
+
+        String mode = readable ? "uga+r" : "uga-r";
+        List<String> commands = new ArrayList<>(apkPaths.size());
+        for (String apkPath : apkPaths) {
+            commands.add("chmod " + mode + " " + RootShell.quote(apkPath));
+        }
+
+        List<Boolean> results = new ArrayList<>(apkPaths.size());
+        long sentNanos = System.nanoTime();
+        for (RootShell.Result result : shell.run(commands)) {
+            results.add(result.isSuccess());
+            sentNanos = result.sentNanos;       // Same for the whole batch (one write)
+        }
+
+        return new Result(results, sentNanos);
+    }
+
+
+    /*
+    Name                getModes
+    Description         Runs "stat -c %a" on every APK and reads the octal permission bits it prints
+     */
+    @Override
+    public List<Integer> getModes(List<String> apkPaths) throws IOException {
+
+        List<String> commands = new ArrayList<>(apkPaths.size());
+        for (String apkPath : apkPaths) {
+            commands.add("stat -c %a " + RootShell.quote(apkPath));
+        }
+
+        List<Integer> modes = new ArrayList<>(apkPaths.size());
+        for (RootShell.Result result : shell.run(commands)) {
+            int mode = NO_MODE;
+            if (result.isSuccess() && result.output.size() == 1) {
+                try {
+                    mode = Integer.parseInt(result.output.get(0).trim(), 8);
+                } catch (NumberFormatException e) {
+                    // Not a mode, left as NO_MODE
+                }
+            }
+            modes.add(mode);
+        }
+
+        return modes;
+    }
+}
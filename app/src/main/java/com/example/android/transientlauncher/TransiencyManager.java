@@ -1,20 +1,28 @@
 package com.example.android.transientlauncher;
 
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
+import android.os.Build;
 import android.util.Log;
 import android.widget.Toast;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 
 
@@ -23,8 +31,9 @@ Class           Transient Manager
 Description     API to enable system settings or launchers to enforce application transiency.
 
 Requirements    This class requires root privileges. To soften this requirement, make this application
-                owner the system. This will allow you to modify the code where, instead of using a sudo
-                shell, you can replace the shell commands with java code to perform similar operations.
+                owner the system. The APK permissions are then changed with direct system calls instead
+                of a sudo shell (see ApkAccess, selectApkAccess picks the backend at startup).
+                Shell commands go through the shared RootShell session (one su process for all calls).
 
 Notes           Class and methods here are public, in order to be reachable outside of the package.
  */
@@ -33,6 +42,16 @@ public class TransiencyManager {
     /** Attributes **/
     private PackageManager packageManager;
     private AppMetadataRoomDatabase database;
+    private RootShell rootShell;
+    private ApkAccess apkAccess;
+    private AccessJournal journal;
+    private static ApkAccess SELECTED_ACCESS;   // Backend picked by selectApkAccess, static (only one)
+    private ProcessSnapshot processSnapshot;
+    private Future<Void> pendingDbLoad;         // Last bulk DB write (initial load or sync)
+    private LabelResolver labelResolver;
+    private LabelResolver.Listener labelListener;
+    private IconCache iconCache;
+    private TransiencyPolicy policy;
     private final String LOG_TAG = TransiencyManager.class.getSimpleName();
 
     private final Boolean DEMO_MODE = Boolean.TRUE;
@@ -46,6 +65,44 @@ public class TransiencyManager {
 
         // Should I instantiate it here instead of in the Main activity???
         this.database = db;
+
+        // Shared su session, started on first use
+        this.rootShell = RootShell.getInstance();
+
+        // APK permissions through the root shell, until a faster backend is selected
+        this.apkAccess = new ShellApkAccess(rootShell);
+
+        // Parallel label loading
+        this.labelResolver = new LabelResolver(pm);
+
+        // Shared, cached view of the running packages
+        this.processSnapshot = ProcessSnapshot.getInstance();
+
+        // Built-in transiency rules, until a policy is loaded from a config file
+        this.policy = TransiencyPolicy.builtIn(DEMO_MODE);
+    }
+
+
+
+
+    /** Sync Report **/
+    /*
+    Class               SyncReport
+    Description         Number of rows added, removed, updated and left unchanged by an incremental sync
+     */
+    public static class SyncReport {
+
+        // Attributes
+        public int added;
+        public int removed;
+        public int updated;
+        public int unchanged;
+
+        // Methods
+        @Override
+        public String toString() {
+            return "added " + added + ", removed " + removed + ", updated " + updated + ", unchanged " + unchanged;
+        }
     }
 
 
@@ -55,9 +112,340 @@ public class TransiencyManager {
     /*
     Name                getLaunchableAppsAndLoadDb
     Description         Returns a list of AppMetadata objects of launchable apps and add them to the DB
+
+    Notes               The apps are returned right away with their package name as label. Labels are
+                        loaded in parallel and handed to the label listener as they arrive.
      */
     public List<AppMetadata> getLaunchableAppsAndLoadDb() {
 
+        // Ask the PM for the launchable apps and their change tokens
+        List<ResolveInfo> launchableApps = queryLaunchableActivities();
+        Map<String, PackageInfo> packageInfos = getInstalledPackageInfos();
+
+        // Make a List of AppMetadata objects from the info returned by the PM
+        AppRows rows = new AppRows(policy, launchableApps.size());
+        List<LabelResolver.Request> labelRequests = new ArrayList<>();
+        for (ResolveInfo resolveInfo: launchableApps) {
+
+            // Get Package name (the label is loaded later)
+            String packageName = resolveInfo.activityInfo.packageName;
+            PackageInfo packageInfo = packageInfos.get(packageName);
+
+            // Create the app object and save it to the list
+            rows.add(packageName, lastUpdateTime(packageInfo), sourceDir(packageInfo));
+            labelRequests.add(new LabelResolver.Request(resolveInfo, versionCode(packageInfo)));
+
+        }
+        List<AppMetadata> apps = rows.get();
+
+        // Add all apps to the DB in one transaction
+        pendingDbLoad = database.insertApps(apps);
+
+        // Load the labels in the background
+        resolveLabels(labelRequests);
+
+        // Return the list
+        return apps;
+    }
+
+
+
+    /*
+    Name                syncLaunchableApps
+    Description         Brings the DB up to date with the installed launchable apps without a full reload.
+                        Only new packages, removed packages and packages whose lastUpdateTime changed
+                        are written. Labels are only loaded when the package's version code changed.
+     */
+    public SyncReport syncLaunchableApps() {
+
+        SyncReport report = new SyncReport();
+
+        // Current state: launchable apps from the PM, synced rows from the DB
+        List<ResolveInfo> launchableApps = queryLaunchableActivities();
+        Map<String, PackageInfo> packageInfos = getInstalledPackageInfos();
+        AppRegistry.Apps rows = database.getApps();
+
+        // Diff the launchable set against the DB rows
+        List<AppMetadata> upserts = new ArrayList<>();
+        List<LabelResolver.Request> labelRequests = new ArrayList<>();
+        Set<String> launchablePackages = new HashSet<>();
+        for (ResolveInfo resolveInfo : launchableApps) {
+
+            String packageName = resolveInfo.activityInfo.packageName;
+            if (!launchablePackages.add(packageName)) {
+                continue;       // Several launcher activities in the same package
+            }
+
+            diffPackage(resolveInfo, packageInfos.get(packageName), rows, upserts, labelRequests, report);
+        }
+
+        // Rows whose package is gone (or no longer launchable)
+        List<String> removals = new ArrayList<>();
+        for (int pos = 0; pos < rows.size(); pos++) {
+            if (!launchablePackages.contains(rows.getPackageName(pos))) {
+                removals.add(rows.getPackageName(pos));
+            }
+        }
+        report.removed = removals.size();
+
+        // Write only the changes, in one transaction
+        if (!upserts.isEmpty() || !removals.isEmpty()) {
+            pendingDbLoad = database.applySync(upserts, removals);
+        }
+        forgetIcons(removals);
+
+        // Load the labels of new and updated packages in the background
+        resolveLabels(labelRequests);
+
+        Log.d(LOG_TAG, "** INFO **   Package sync: " + report + " (" + labelRequests.size() + " labels to load)");
+        return report;
+    }
+
+
+
+    /*
+    Name                syncPackages
+    Description         Same as syncLaunchableApps for some packages only (e.g. the ones the package change
+                        log reports as added, removed, replaced or changed): only their rows are looked up
+                        in the PM and written, the other rows are not read. The cached icons of removed and
+                        replaced packages are dropped.
+     */
+    public SyncReport syncPackages(Map<String, Byte> events) {
+
+        SyncReport report = new SyncReport();
+        AppRegistry.Apps rows = database.getApps();
+
+        List<AppMetadata> upserts = new ArrayList<>();
+        List<LabelResolver.Request> labelRequests = new ArrayList<>();
+        List<String> removals = new ArrayList<>();
+        List<String> staleIcons = new ArrayList<>();
+        for (Map.Entry<String, Byte> event : events.entrySet()) {
+
+            String packageName = event.getKey();
+            if (event.getValue() == PackageChangeLog.REMOVED || event.getValue() == PackageChangeLog.REPLACED) {
+                staleIcons.add(packageName);
+            }
+
+            // Launcher activity of this package only (none if it was removed or lost its launcher activity)
+            Intent i = new Intent(Intent.ACTION_MAIN, null);
+            i.addCategory(Intent.CATEGORY_LAUNCHER);
+            i.setPackage(packageName);
+            List<ResolveInfo> activities = packageManager.queryIntentActivities(i, 0);
+
+            PackageInfo packageInfo = null;
+            if (!activities.isEmpty()) {
+                try {
+                    packageInfo = packageManager.getPackageInfo(packageName, 0);
+                } catch (PackageManager.NameNotFoundException e) {
+                    // Removed in the meantime
+                }
+            }
+
+            if (packageInfo != null) {
+                diffPackage(activities.get(0), packageInfo, rows, upserts, labelRequests, report);
+            } else if (rows.indexOf(packageName) >= 0) {
+                removals.add(packageName);
+                if (!staleIcons.contains(packageName)) {
+                    staleIcons.add(packageName);
+                }
+            }
+        }
+        report.removed = removals.size();
+
+        // Write only the changes, in one transaction
+        if (!upserts.isEmpty() || !removals.isEmpty()) {
+            pendingDbLoad = database.applySync(upserts, removals);
+        }
+        forgetIcons(staleIcons);
+
+        resolveLabels(labelRequests);
+
+        Log.d(LOG_TAG, "** INFO **   Package sync (" + events.size() + " changed): " + report + " (" + labelRequests.size() + " labels to load)");
+        return report;
+    }
+
+
+
+    /*
+    Name                diffPackage
+    Description         Compares a launchable package with its DB row (if any) and queues what must be
+                        written: a new row, an updated row and/or a label to load
+     */
+    private void diffPackage(ResolveInfo resolveInfo, PackageInfo packageInfo, AppRegistry.Apps rows,
+                             List<AppMetadata> upserts, List<LabelResolver.Request> labelRequests, SyncReport report) {
+
+        String packageName = resolveInfo.activityInfo.packageName;
+        long updateTime = lastUpdateTime(packageInfo);
+        long versionCode = versionCode(packageInfo);
+        String sourceDir = sourceDir(packageInfo);
+        int pos = rows.indexOf(packageName);
+
+        if (pos < 0) {
+            // New package, shown with its package name until the label is loaded
+            upserts.add(AppRows.newRow(policy, packageName, updateTime, sourceDir));
+            labelRequests.add(new LabelResolver.Request(resolveInfo, versionCode));
+            report.added++;
+        } else if (rows.getLastUpdateTime(pos) != updateTime || rows.getVersionCode(pos) != versionCode) {
+            // Updated package, keep its flags (and its label if the version did not change)
+            if (rows.getLastUpdateTime(pos) != updateTime) {
+                AppMetadata row = rows.toAppMetadata(pos);
+                row.setLastUpdateTime(updateTime);
+                row.setSourceDir(sourceDir);
+                upserts.add(row);
+            }
+            if (rows.getVersionCode(pos) != versionCode) {
+                labelRequests.add(new LabelResolver.Request(resolveInfo, versionCode));
+            }
+            report.updated++;
+        } else if (sourceDir != null && !sourceDir.equals(rows.getSourceDir(pos))) {
+            // Same package, APK path not stored yet (rows from before it was kept)
+            AppMetadata row = rows.toAppMetadata(pos);
+            row.setSourceDir(sourceDir);
+            upserts.add(row);
+            report.unchanged++;
+        } else {
+            report.unchanged++;
+        }
+    }
+
+
+
+    /*
+    Name                forgetIcons
+    Description         Drops the cached icons of packages whose rows were removed (uninstalled)
+     */
+    private void forgetIcons(List<String> packageNames) {
+
+        if (iconCache == null) {
+            return;
+        }
+        for (String packageName : packageNames) {
+            iconCache.remove(packageName);
+        }
+    }
+
+
+
+    /*
+    Name                setLabelListener
+    Description         Sets who is told about labels as they are loaded (e.g. the list on screen)
+     */
+    public void setLabelListener(LabelResolver.Listener listener) {
+        this.labelListener = listener;
+    }
+
+
+
+    /*
+    Name                selectApkAccess
+    Description         Returns the fastest APK access backend that works here: direct system calls if the
+                        launcher may chmod APKs (probed on its own APK), the root shell otherwise.
+                        Picked once per process.
+     */
+    static ApkAccess selectApkAccess(Context context) {
+
+        // If no backend was picked yet, synchronize and check again
+        if (SELECTED_ACCESS == null) {
+            synchronized (TransiencyManager.class) {
+                if (SELECTED_ACCESS == null) {
+                    ApkAccess access = new ShellApkAccess(RootShell.getInstance());
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                        NativeApkAccess nativeAccess = new NativeApkAccess();
+                        if (nativeAccess.probe(context.getApplicationInfo().sourceDir)) {
+                            access = nativeAccess;
+                        }
+                    }
+                    Log.d(TransiencyManager.class.getSimpleName(), "** INFO **   APK access backend: " + access.getName());
+                    SELECTED_ACCESS = access;
+                }
+            }
+        }
+
+        return SELECTED_ACCESS;
+    }
+
+
+
+    /*
+    Name                setApkAccess
+    Description         Sets how APK permissions are changed (see selectApkAccess)
+     */
+    void setApkAccess(ApkAccess access) {
+        this.apkAccess = access;
+    }
+
+
+
+    /*
+    Name                setAccessJournal
+    Description         Sets the write-ahead journal of the enable/disable operations, and recovers in the
+                        background the ones a previous run did not finish (see recoverAccess)
+     */
+    void setAccessJournal(AccessJournal journal) {
+
+        this.journal = journal;
+
+        final List<AccessJournal.Entry> unfinished = journal.takeRecovered();
+        if (!unfinished.isEmpty()) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    recoverAccess(unfinished);
+                }
+            }, "AccessRecovery").start();
+        }
+    }
+
+
+
+    /*
+    Name                setIconCache
+    Description         Sets the icon cache that keeps the icons of apps before they get disabled
+     */
+    public void setIconCache(IconCache cache) {
+        this.iconCache = cache;
+    }
+
+
+
+    /*
+    Name                resolveLabels
+    Description         Loads labels in parallel, shows each one (in the DB cache, and to the label listener)
+                        and stores the batch in the DB (with the version code it was loaded from) once all are done
+     */
+    private void resolveLabels(List<LabelResolver.Request> requests) {
+
+        if (requests.isEmpty()) {
+            return;
+        }
+
+        labelResolver.resolve(requests, new LabelResolver.Listener() {
+            @Override
+            public void onLabelResolved(LabelResolver.Label label) {
+                database.showAppLabel(label);
+                if (labelListener != null) {
+                    labelListener.onLabelResolved(label);
+                }
+            }
+
+            @Override
+            public void onAllResolved(List<LabelResolver.Label> labels) {
+                database.updateAppLabels(labels);
+                if (labelListener != null) {
+                    labelListener.onAllResolved(labels);
+                }
+            }
+        });
+    }
+
+
+
+    /*
+    Name                queryLaunchableActivities
+    Description         Returns the activities that handle the MAIN+LAUNCHER intent
+     */
+    private List<ResolveInfo> queryLaunchableActivities() {
+
         // Define an intent with the MAIN action and LAUNCHER category
         Intent i = new Intent(Intent.ACTION_MAIN, null);
         i.addCategory(Intent.CATEGORY_LAUNCHER);
@@ -66,51 +454,102 @@ public class TransiencyManager {
         // one activity that subscribes to it. Meaning that, these apps, are capable
         // of handling the MAIN+LAUNCHER request. In this case, this means that the
         // app is launchable.
-        List<ResolveInfo> launchableApps = packageManager.queryIntentActivities(i, 0);
+        return packageManager.queryIntentActivities(i, 0);
+    }
 
-        // Make a List of AppMetadata objects from the info returned by the PM
-        List<AppMetadata> apps = new ArrayList<>();
-        for (ResolveInfo resolveInfo: launchableApps) {
 
-            // Get App name and Package name
-            String name = (String) resolveInfo.loadLabel(packageManager);
-            String packageName = resolveInfo.activityInfo.packageName;
 
-            // For now... If the app contains the word "google" or "android" on it, is it not transient
-            Boolean tran = Boolean.FALSE;
-            if (DEMO_MODE) {
+    /*
+    Name                getInstalledPackageInfos
+    Description         Returns the PackageInfo of every installed package, from a single PM query
+     */
+    private Map<String, PackageInfo> getInstalledPackageInfos() {
 
-                Log.d(LOG_TAG, "** DEBUG **   Package name " + packageName);
-                if (packageName.equals("com.example.android.hellotoast") || packageName.equals("com.facebook.katana")
-                        || packageName.equals("com.snapchat.android") || packageName.equals("com.instagram.android")
-                        || packageName.equals("com.example.android.metis") || packageName.equals("com.NikSanTech.FireDots3D")) {
-                    tran = Boolean.TRUE;
-                    Log.d(LOG_TAG, "** INFO **    " + packageName + " is transient!!");
-                }
+        Map<String, PackageInfo> packageInfos = new HashMap<>();
+        for (PackageInfo packageInfo : packageManager.getInstalledPackages(0)) {
+            packageInfos.put(packageInfo.packageName, packageInfo);
+        }
 
-            } else {
+        return packageInfos;
+    }
 
-                if (packageName.contains("com.google") || packageName.contains("com.android") || packageName.contains("transientlauncher")) {
-                    tran = Boolean.FALSE;
-                } else {
-                    tran = Boolean.TRUE;
-                }
 
-            }
 
-            // Create the app object
-            AppMetadata app = new AppMetadata(name, packageName, Boolean.TRUE, tran);
+    /*
+    Name                lastUpdateTime
+    Description         Returns the change token of a package, 0 if the PM did not report it
+     */
+    private static long lastUpdateTime(PackageInfo packageInfo) {
+        return packageInfo != null ? packageInfo.lastUpdateTime : 0;
+    }
+
+
+
+    /*
+    Name                sourceDir
+    Description         Returns the path of the base APK of a package, null if the PM did not report it
+     */
+    private static String sourceDir(PackageInfo packageInfo) {
+        return packageInfo != null && packageInfo.applicationInfo != null ? packageInfo.applicationInfo.sourceDir : null;
+    }
+
+
 
-            // Save the app object to the list
-            apps.add(app);
+    /*
+    Name                versionCode
+    Description         Returns the version code of a package, UNKNOWN_VERSION if the PM did not report it
+     */
+    private static long versionCode(PackageInfo packageInfo) {
+        return packageInfo != null ? packageInfo.versionCode : AppMetadata.UNKNOWN_VERSION;
+    }
 
-            // Add the app to the DB
-            database.insertApp(app);
 
+
+    /*
+    Name                setPolicy
+    Description         Sets the rules that decide which apps are transient. Only new rows use them, call
+                        reclassifyApps to apply them to the apps already in the DB.
+     */
+    public void setPolicy(TransiencyPolicy policy) {
+        this.policy = policy;
+    }
+
+
+    /*
+    Name                reclassifyApps
+    Description         Applies the current policy to every app in the DB, in one transaction.
+                        Returns a Future with the number of apps whose transient flag changed.
+     */
+    public Future<Integer> reclassifyApps() {
+        return database.reclassifyApps(policy);
+    }
+
+
+
+    /*
+    Name                waitForDbLoad
+    Description         Blocks until the apps written by getLaunchableAppsAndLoadDb or syncLaunchableApps
+                        are committed to the DB.
+                        Returns FALSE if the insert failed or the wait was interrupted.
+     */
+    public Boolean waitForDbLoad() {
+
+        if (pendingDbLoad == null) {
+            return Boolean.TRUE;
         }
 
-        // Return the list
-        return apps;
+        try {
+            pendingDbLoad.get();
+            return Boolean.TRUE;
+        } catch (InterruptedException e) {
+            Log.e(LOG_TAG, "InterruptedException - Error waiting for the DB to be loaded");
+            Thread.currentThread().interrupt();
+            return Boolean.FALSE;
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "ExecutionException - Error loading apps to the DB");
+            e.printStackTrace();
+            return Boolean.FALSE;
+        }
     }
 
 
@@ -148,87 +587,66 @@ public class TransiencyManager {
     Description         Enables an app and updates DB flag (enable: make APK file accessible to the system)
      */
     public Boolean enableApp(String packageName) {
+        return enableApp(packageName, null);
+    }
 
-        // Get the data directory of the package
-        PackageInfo packageInfo;
-        try {
-            packageInfo = packageManager.getPackageInfo(packageName, 0);
-        } catch (PackageManager.NameNotFoundException e) {
+
+    /*
+    Name                enableApp
+    Description         Same as enableApp(packageName), marking the enable stages of a launch trace (optional)
+     */
+    Boolean enableApp(String packageName, LaunchTracer.Trace trace) {
+
+        // Get the path to the APK of this package
+        String apkDirectory = apkPaths(Collections.singletonList(packageName)).get(packageName);
+        if (apkDirectory == null) {
             Log.e(LOG_TAG, "NameNotFoundException - Error finding data path for " + packageName);
             return Boolean.FALSE;
         }
 
+        // Write-ahead: record the intent before touching the APK
+        List<AccessJournal.Entry> intents = beginAccess(Collections.singletonList(packageName),
+                Collections.singletonList(apkDirectory), true);
 
-        // Get into a sudo shell & execute the enabling commands
-        Process process;
+        // Send the enabling command to the APK access backend
         try {
-            // Performance Metric - Start Time
-            long start_time = 0;
-            long end_time = 0;
-            start_time = System.nanoTime();
-
-            // Start sudo shell
-            process = Runtime.getRuntime().exec("su");
-
-            // Setup a pipe to send commands to the sudo shell
-            DataOutputStream outputStream = new DataOutputStream(process.getOutputStream());
-
-            // Get the path to the data folder for this package (remove base.apk from the path)
-            String apkDirectory = packageInfo.applicationInfo.sourceDir;
-            //packageDirectory = packageDirectory.replace("base.apk", "");
-
-            // Add Command -> Rename the dummy file to base.apk
-            //outputStream.writeBytes("mv " + packageDirectory + "/dummy " + packageDirectory + "/base.apk\n");
-
-            // Add Command -> Set the permissions for this package
+            // Set the permissions for this package
             //  Enable: rw-r--r--
-            outputStream.writeBytes("chmod uga+r " + apkDirectory + "\n");
-
-            // Add command -> Set the owner for this package
-            //  Enable: rwxr-xr-x system system com.package.example
-            //outputStream.writeBytes("chown system.system " + packageDirectory + "\n");
-
-            // Add Command -> Exit the shell
-            outputStream.writeBytes("exit\n");
-
-            // Execute the commands
-            outputStream.flush();
+            ApkAccess.Result result = apkAccess.setReadable(Collections.singletonList(apkDirectory), true);
+            Boolean success = result.succeeded.get(0);
 
-            // Performance Metric - End time
-            end_time = System.nanoTime();
-            long total_time = end_time - start_time;
-            Log.d(LOG_TAG, "MEASURING OVERHEAD: " + total_time + " ns");
-
-            // Check the output of the execution
-            try {
-
-                // Wait for the process to finish executing the commands
-                process.waitFor();
+            // Performance Metric - chmod requested, and completed (round-trip)
+            if (trace != null) {
+                trace.mark(LaunchTracer.ENABLE_SENT, result.sentNanos);
+                trace.mark(LaunchTracer.ENABLE_CONFIRMED);
+            }
 
-                // Check for errors
-                if (process.exitValue() != 255) {
-                    Log.d(LOG_TAG, "Successfully enabled " + packageName);
-                } else {
-                    Log.e(LOG_TAG, "Error enabling " + packageName);
-                    return Boolean.FALSE;
+            // Check for errors
+            if (success) {
+                Log.d(LOG_TAG, "Successfully enabled " + packageName);
+                if (iconCache != null) {
+                    iconCache.save(packageName);        // While the APK is readable, for when it is disabled
                 }
-            } catch (InterruptedException e) {
-                Log.e(LOG_TAG, "Interrupted Exception - Error enabling " + packageName);
-                e.printStackTrace();
+            } else {
+                Log.e(LOG_TAG, "Error enabling " + packageName + " (" + apkAccess.getName() + ")");
+                finishAccess(intents);
                 return Boolean.FALSE;
             }
 
-            // Close the stream
-            outputStream.close();
-
+        } catch (InterruptedIOException e) {
+            Log.e(LOG_TAG, "Timed out enabling " + packageName + ", checking the APK in the background");
+            settleUnknownAccess(intents);
+            return Boolean.FALSE;
         } catch (IOException e) {
             Log.e(LOG_TAG, "IOException - Error enabling " + packageName);
             e.printStackTrace();
+            finishAccess(intents);
             return Boolean.FALSE;
         }
 
-        // Set the app as enabled
+        // Set the app as enabled, then commit the intent
         setAppEnabled(packageName);
+        finishAccess(intents);
         return Boolean.TRUE;
     }
 
@@ -250,166 +668,503 @@ public class TransiencyManager {
             return Boolean.FALSE;
         }
 
-        // Get into a sudo shell & execute the disabling commands
-        Process process;
+        // Keep the icon while the APK is still readable
+        if (iconCache != null) {
+            iconCache.saveBeforeDisable(packageInfo);
+        }
+
+        // Get the path to the APK of this package
+        String apkDirectory = packageInfo.applicationInfo.sourceDir;
+
+        // Write-ahead: record the intent before touching the APK
+        List<AccessJournal.Entry> intents = beginAccess(Collections.singletonList(packageName),
+                Collections.singletonList(apkDirectory), false);
+
+        // Send the disabling command to the APK access backend
         try {
-            // Start sudo shell
-            process = Runtime.getRuntime().exec("su");
+            // Set the permissions for this package
+            //  Disable: -w-------
+            Boolean success = apkAccess.setReadable(Collections.singletonList(apkDirectory), false).succeeded.get(0);
 
-            // Setup a pipe to send commands to the sudo shell
-            DataOutputStream outputStream = new DataOutputStream(process.getOutputStream());
+            // Check for errors
+            if (success) {
+                Log.d(LOG_TAG, "Successfully disabled " + packageName);
+            } else {
+                Log.e(LOG_TAG, "Error disabling " + packageName + " (" + apkAccess.getName() + ")");
+                finishAccess(intents);
+                return Boolean.FALSE;
+            }
 
-            // Get the path to the data folder of this package
-            String apkDirectory = packageInfo.applicationInfo.sourceDir;
-            //packageDirectory = packageDirectory.replace("base.apk", "");
+        } catch (InterruptedIOException e) {
+            Log.e(LOG_TAG, "Timed out disabling " + packageName + ", checking the APK in the background");
+            settleUnknownAccess(intents);
+            return Boolean.FALSE;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "IOException - Error disabling " + packageName);
+            e.printStackTrace();
+            finishAccess(intents);
+            return Boolean.FALSE;
+        }
 
-            // Add Command -> Rename the base.apk file to dummy
-            //outputStream.writeBytes("mv " + packageDirectory + "/base.apk " + packageDirectory + "/dummy\n");
+        // Set app disabled flag, then commit the intent
+        setAppDisabled(packageName);
+        finishAccess(intents);
+        return Boolean.TRUE;
+    }
 
-            // Add Command -> Set the permissions for this package
-            //  Disable: -w-------
-            outputStream.writeBytes("chmod uga-r " + apkDirectory + "\n");
 
-            // Add Command -> Set the owner for this package
-            //  Disable: rwx------ root root com.package.example
-            //outputStream.writeBytes("chwon root.root " + packageDirectory + "\n");
 
-            // Add Command -> Exit the shell
-            outputStream.writeBytes("exit\n");
+    /*
+    Name                enableApps
+    Description         Enables several apps in one root shell round-trip and one DB transaction.
+                        Returns, for each package, whether it was enabled.
+     */
+    public Map<String, Boolean> enableApps(Collection<String> packageNames) {
+        return setAppsAccess(packageNames, Boolean.TRUE);
+    }
 
-            // Execute the commands
-            outputStream.flush();
 
-            // Check the output of the execution
-            try {
 
-                // Wait for the process to finish
-                process.waitFor();
+    /*
+    Name                disableApps
+    Description         Disables several apps in one root shell round-trip and one DB transaction.
+                        Returns, for each package, whether it was disabled.
+     */
+    public Map<String, Boolean> disableApps(Collection<String> packageNames) {
+        return setAppsAccess(packageNames, Boolean.FALSE);
+    }
+
+
 
-                if (process.exitValue() != 255) {
-                    Log.d(LOG_TAG, "Successfully disabled " + packageName);
+    /*
+    Name                setAppsAccess
+    Description         Resolves the APK of every package, pipelines all the chmod commands through the
+                        root shell at once and commits the enabled flags of the successful ones together
+     */
+    private Map<String, Boolean> setAppsAccess(Collection<String> packageNames, Boolean enable) {
+
+        Map<String, Boolean> results = new LinkedHashMap<>();
+        String action = enable ? "enabling" : "disabling";
+
+        // Resolve all APK paths first, unknown packages fail right away
+        List<String> resolvedPackages = new ArrayList<>();
+        List<String> resolvedPaths = new ArrayList<>();
+        if (enable) {
+            Map<String, String> apkPaths = apkPaths(packageNames);
+            for (String packageName : packageNames) {
+                String apkPath = apkPaths.get(packageName);
+                if (apkPath != null) {
+                    resolvedPackages.add(packageName);
+                    resolvedPaths.add(apkPath);
                 } else {
-                    Log.e(LOG_TAG, "Error disabling " + packageName);
-                    return Boolean.FALSE;
+                    Log.e(LOG_TAG, "NameNotFoundException - Error finding data path for " + packageName);
+                    results.put(packageName, Boolean.FALSE);
                 }
-            } catch (InterruptedException e) {
-                Log.e(LOG_TAG, "InterruptedException - Error disabling " + packageName);
-                e.printStackTrace();
-                return Boolean.FALSE;
             }
+        } else {
+            // Disabling needs the PackageInfo anyway, to keep the icon while the APK is readable
+            for (String packageName : packageNames) {
+                try {
+                    PackageInfo packageInfo = packageManager.getPackageInfo(packageName, 0);
+                    if (iconCache != null) {
+                        iconCache.saveBeforeDisable(packageInfo);
+                    }
+                    resolvedPackages.add(packageName);
+                    resolvedPaths.add(packageInfo.applicationInfo.sourceDir);
+                } catch (PackageManager.NameNotFoundException e) {
+                    Log.e(LOG_TAG, "NameNotFoundException - Error finding data path for " + packageName);
+                    results.put(packageName, Boolean.FALSE);
+                }
+            }
+        }
+
+        if (resolvedPackages.isEmpty()) {
+            return results;
+        }
 
-            // Close the stream
-            outputStream.close();
+        // Write-ahead: record the intents before touching the APKs
+        List<AccessJournal.Entry> intents = beginAccess(resolvedPackages, resolvedPaths, enable);
 
+        // Change them all in one call (a single write to the shell for the shell backend)
+        List<Boolean> accessResults;
+        try {
+            accessResults = apkAccess.setReadable(resolvedPaths, enable).succeeded;
         } catch (IOException e) {
-            Log.e(LOG_TAG, "IOException - Error disabling " + packageName);
+            Log.e(LOG_TAG, "IOException - Error " + action + " " + resolvedPackages.size() + " apps");
             e.printStackTrace();
-            return Boolean.FALSE;
+            for (String packageName : resolvedPackages) {
+                results.put(packageName, Boolean.FALSE);
+            }
+            if (e instanceof InterruptedIOException) {
+                settleUnknownAccess(intents);           // Timed out, the chmods may still run
+            } else {
+                finishAccess(intents);
+            }
+            return results;
         }
 
-        // Set app disabled flag
-        setAppDisabled(packageName);
-        return Boolean.TRUE;
+        // Collect the packages whose chmod succeeded
+        List<String> changedPackages = new ArrayList<>();
+        for (int pos = 0; pos < resolvedPackages.size(); pos++) {
+            String packageName = resolvedPackages.get(pos);
+            if (accessResults.get(pos)) {
+                changedPackages.add(packageName);
+                results.put(packageName, Boolean.TRUE);
+                if (enable && iconCache != null) {
+                    iconCache.save(packageName);
+                }
+            } else {
+                Log.e(LOG_TAG, "Error " + action + " " + packageName + " (" + apkAccess.getName() + ")");
+                results.put(packageName, Boolean.FALSE);
+            }
+        }
+
+        // Update the enabled flags of all changed apps at once, then commit the intents
+        database.updateAppsEnabled(changedPackages, enable);
+        finishAccess(intents);
+        Log.d(LOG_TAG, "** INFO **   Done " + action + " " + changedPackages.size() + "/" + packageNames.size() + " apps");
+
+        return results;
     }
 
 
 
     /*
-    Name                setAppEnabled
-    Description         Sets the enabled flag to TRUE in the database for a given app
+    Name                beginAccess / finishAccess
+    Description         Write the intents of an enable/disable operation before the APKs are changed, and
+                        their commit once the enabled flags written meanwhile are in the DB
+
+    Notes               If the journal can't be written the operation goes on without it (a launch must not
+                        fail because of the journal).
      */
-    private void setAppEnabled(String packageName) {
+    private List<AccessJournal.Entry> beginAccess(List<String> packageNames, List<String> apkPaths, boolean enable) {
 
-        // Update the database
-        database.updateAppEnabled(packageName, Boolean.TRUE);
+        if (journal == null) {
+            return Collections.emptyList();
+        }
+        try {
+            return journal.begin(packageNames, apkPaths, enable);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "* ERROR *   Couldn't write the access journal: " + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    private void finishAccess(final List<AccessJournal.Entry> intents) {
+
+        if (intents.isEmpty()) {
+            return;
+        }
+        database.runAfterWrites(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    journal.commit(intents);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "* ERROR *   Couldn't write the access journal: " + e.getMessage());
+                }
+            }
+        });
     }
 
 
 
     /*
-    Name                setAppDisabled
-    Description         Sets the enabled flag to FALSE in the database for a given app
+    Name                settleUnknownAccess
+    Description         For operations the shell timed out on (the chmod may still be queued in su): stats the
+                        APKs in the background once the shell is back, writes the enabled flags and commits
+                        only the operations the stat confirms. The others stay in the journal, the next start
+                        recovers them (see recoverAccess).
      */
-    private void setAppDisabled(String packageName) {
+    private void settleUnknownAccess(final List<AccessJournal.Entry> intents) {
 
-        // Update the database
-        database.updateAppEnabled(packageName, Boolean.FALSE);
+        if (intents.isEmpty()) {
+            return;
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                List<AccessJournal.Entry> confirmed = AccessJournal.confirmed(apkAccess, intents);
+                List<String> enabled = new ArrayList<>();
+                List<String> disabled = new ArrayList<>();
+                for (AccessJournal.Entry entry : confirmed) {
+                    (entry.enable ? enabled : disabled).add(entry.packageName);
+                }
+
+                database.updateAppsEnabled(enabled, Boolean.TRUE);
+                database.updateAppsEnabled(disabled, Boolean.FALSE);
+                finishAccess(confirmed);
+                Log.d(LOG_TAG, "** INFO **   Confirmed " + confirmed.size() + "/" + intents.size()
+                        + " timed out operations: enabled " + enabled + ", disabled " + disabled);
+            }
+        }, "AccessRecovery").start();
     }
 
 
 
     /*
-    Name                getRunningPackages
-    Description         Returns a list of strings of package names of running packages.
+    Name                recoverAccess
+    Description         Brings the enabled flags of the packages of unfinished operations in line with their
+                        APKs (read bits set: enabled), then commits the operations. Only these packages are
+                        checked.
      */
-    private List<String> getRunningPackages() {
+    private void recoverAccess(List<AccessJournal.Entry> unfinished) {
 
-        // Setup a list
-        ArrayList<String> runningPackages = new ArrayList<>();
+        List<String> apkPaths = new ArrayList<>(unfinished.size());
+        for (AccessJournal.Entry entry : unfinished) {
+            apkPaths.add(entry.apkPath);
+        }
 
-        // Execute the process status command to get a list of running packages
-        Process process;
+        List<Integer> modes;
         try {
+            modes = apkAccess.getModes(apkPaths);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "* ERROR *   Couldn't recover " + unfinished.size() + " operations, trying again next time: " + e.getMessage());
+            return;
+        }
 
-            // Setup the process to execute ps
-            process = Runtime.getRuntime().exec("ps --name com");
+        List<String> enabled = new ArrayList<>();
+        List<String> disabled = new ArrayList<>();
+        for (int pos = 0; pos < unfinished.size(); pos++) {
+            int mode = modes.get(pos);
+            if (mode == ApkAccess.NO_MODE) {
+                continue;       // Uninstalled or moved, the package sync takes care of it
+            }
+            String packageName = unfinished.get(pos).packageName;
+            ((mode & ApkAccess.READ_BITS) == ApkAccess.READ_BITS ? enabled : disabled).add(packageName);
+        }
 
-            // Setup the Input Stream Reader to receive the results of the ps command
-            BufferedReader results = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        database.updateAppsEnabled(enabled, Boolean.TRUE);
+        database.updateAppsEnabled(disabled, Boolean.FALSE);
+        finishAccess(unfinished);
+        Log.d(LOG_TAG, "** INFO **   Recovered " + unfinished.size() + " unfinished operations: enabled "
+                + enabled + ", disabled " + disabled);
+    }
 
-            // Setup regex pattern to get the package name for each running process
-            Pattern packageStructure = Pattern.compile("com\\.[a-z,0-9]*\\.[a-z,0-9]*\\.[a-z,0-9]*");
-            Matcher matcher;
 
-            // Read the buffer with the results line by line
-            String line;
-            while((line = results.readLine()) != null) {
 
-                // Find the matching strings to our patters
-                matcher = packageStructure.matcher(line);
+    /*
+    Name                reconcile
+    Description         Reads the mode of the APK of every app in the DB in one batch, and repairs the APKs or
+                        the rows that do not match, according to the policy (see Reconciler).
+                        Call it off the main thread.
+
+    Notes               Stored APK paths are used first. The apps whose APK is not there (updated since the
+                        last sync, or no path stored yet) are resolved through the PM and read in a second
+                        batch. APKs of running apps are not made unreadable.
+     */
+    Reconciler.Report reconcile(int policy) {
 
-                // Save the matching package name
-                if (matcher.find()) {
+        long start = System.nanoTime();
+        Reconciler.Report report = new Reconciler.Report();
+        report.policy = policy;
 
-                    // Get the package name
-                    line = matcher.group(0);
+        // Every tracked app, and the APK paths the DB has for them
+        List<AppMetadata> apps = database.getAllApps();
+        List<String> packageNames = new ArrayList<>(apps.size());
+        for (AppMetadata app : apps) {
+            packageNames.add(app.getPackageName());
+        }
+        Map<String, String> sourceDirs = database.getSourceDirs(packageNames);
 
-                    // Save the package name
-                    runningPackages.add(line);
+        // One batch for the stored paths, a second one for the paths asked to the PM
+        Map<String, Integer> modes = new HashMap<>();
+        try {
+            List<String> unresolved = readModes(packageNames, sourceDirs, modes);
+            if (!unresolved.isEmpty()) {
+                Map<String, String> pmSourceDirs = new HashMap<>();
+                for (String packageName : unresolved) {
+                    try {
+                        pmSourceDirs.put(packageName, packageManager.getPackageInfo(packageName, 0).applicationInfo.sourceDir);
+                    } catch (PackageManager.NameNotFoundException e) {
+                        // Uninstalled, the package sync removes its row
+                    }
+                }
+                readModes(unresolved, pmSourceDirs, modes);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "* ERROR *   Couldn't read the APK modes: " + e.getMessage());
+            report.failed = apps.size();
+            report.elapsedMs = (System.nanoTime() - start) / 1000000;
+            return report;
+        }
+
+        // Compare, and repair
+        Reconciler.Plan plan = Reconciler.plan(apps, modes, policy);
+        report.checked = plan.checked;
+        report.missing = plan.missing;
+        report.mismatched = plan.mismatched;
 
-                    Log.d(LOG_TAG, "** INFO **   " + line + " is running");
+        if (!plan.filesToDisable.isEmpty()) {
+            Set<String> running = getRunningAmong(plan.filesToDisable);
+            plan.filesToDisable.removeAll(running);
+            report.skippedRunning = running.size();
+        }
+        for (Map.Entry<String, Boolean> result : setAppsAccess(plan.filesToEnable, Boolean.TRUE).entrySet()) {
+            if (result.getValue()) {
+                report.filesRepaired++;
+            } else {
+                report.failed++;
+            }
+        }
+        for (Map.Entry<String, Boolean> result : setAppsAccess(plan.filesToDisable, Boolean.FALSE).entrySet()) {
+            if (result.getValue()) {
+                report.filesRepaired++;
+            } else {
+                report.failed++;
+            }
+        }
+        if (!plan.rowsToEnable.isEmpty()) {
+            database.updateAppsEnabled(plan.rowsToEnable, Boolean.TRUE);
+        }
+        if (!plan.rowsToDisable.isEmpty()) {
+            database.updateAppsEnabled(plan.rowsToDisable, Boolean.FALSE);
+        }
+        report.rowsRepaired = plan.rowsToEnable.size() + plan.rowsToDisable.size();
+
+        report.elapsedMs = (System.nanoTime() - start) / 1000000;
+        Log.d(LOG_TAG, "** INFO **   Reconcile: " + report + ". Files enabled " + plan.filesToEnable
+                + ", disabled " + plan.filesToDisable + ". Rows enabled " + plan.rowsToEnable
+                + ", disabled " + plan.rowsToDisable);
+
+        return report;
+    }
+
+
+
+    /*
+    Name                readModes
+    Description         Reads the modes of the APKs of the given packages in one batch. Returns the packages
+                        that have no path or whose APK could not be read.
+     */
+    private List<String> readModes(List<String> packageNames, Map<String, String> apkPaths,
+                                   Map<String, Integer> modes) throws IOException {
+
+        List<String> unresolved = new ArrayList<>();
+        List<String> batchPackages = new ArrayList<>();
+        List<String> batchPaths = new ArrayList<>();
+        for (String packageName : packageNames) {
+            String apkPath = apkPaths.get(packageName);
+            if (apkPath == null) {
+                unresolved.add(packageName);
+            } else {
+                batchPackages.add(packageName);
+                batchPaths.add(apkPath);
+            }
+        }
+
+        if (!batchPaths.isEmpty()) {
+            List<Integer> batchModes = apkAccess.getModes(batchPaths);
+            for (int pos = 0; pos < batchPackages.size(); pos++) {
+                int mode = batchModes.get(pos);
+                if (mode == ApkAccess.NO_MODE) {
+                    unresolved.add(batchPackages.get(pos));
                 } else {
-                    //Log.d(LOG_TAG, "** INFO **   NON-MATCH - " + line + " is also running...");
+                    modes.put(batchPackages.get(pos), mode);
                 }
             }
+        }
 
-            // Close the stream
-            results.close();
+        return unresolved;
+    }
 
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "* ERROR *   Error IO Exception getting running packages!!");
-            e.printStackTrace();
+
+
+    /*
+    Name                apkPaths
+    Description         Returns the APK path of each package, left out if the package is not installed
+
+    Notes               The paths stored in the DB are used while the file is still there (no PM call on the
+                        launch path). A path that moved (package updated since the last sync) or was never
+                        stored is asked to the PM.
+     */
+    private Map<String, String> apkPaths(Collection<String> packageNames) {
+
+        Map<String, String> apkPaths = database.getSourceDirs(packageNames);
+        for (String packageName : packageNames) {
+            String apkPath = apkPaths.get(packageName);
+            if (apkPath != null && new File(apkPath).exists()) {
+                continue;
+            }
+            apkPaths.remove(packageName);
+            try {
+                apkPaths.put(packageName, packageManager.getPackageInfo(packageName, 0).applicationInfo.sourceDir);
+            } catch (PackageManager.NameNotFoundException e) {
+                // Not installed, left out
+            }
         }
 
-        // Return the list of running packages
-        return runningPackages;
+        return apkPaths;
+    }
+
+
+
+    /*
+    Name                setAppEnabled
+    Description         Sets the enabled flag to TRUE in the database for a given app
+     */
+    private void setAppEnabled(String packageName) {
+
+        // Update the database
+        database.updateAppEnabled(packageName, Boolean.TRUE);
+    }
+
+
+
+    /*
+    Name                setAppDisabled
+    Description         Sets the enabled flag to FALSE in the database for a given app
+     */
+    private void setAppDisabled(String packageName) {
+
+        // Update the database
+        database.updateAppEnabled(packageName, Boolean.FALSE);
+    }
+
+
+
+    /*
+    Name                getRunningPackages
+    Description         Returns the set of package names of running packages (cached snapshot of /proc).
+     */
+    private Set<String> getRunningPackages() {
+        return processSnapshot.getRunningPackages();
     }
 
 
 
     /*
     Name                isAppRunning
-    Description         Checks if the app is running, using the "ps" command
+    Description         Checks if the app is running, using the cached process snapshot
      */
     public Boolean isAppRunning(String packageName) {
 
-        // Get list of running apps
-        ArrayList<String> runningPackages = new ArrayList<>();
-        runningPackages.addAll(getRunningPackages());
+        // Check to see if this package is running
+        Boolean running = getRunningPackages().contains(packageName);
 
-        Log.d(LOG_TAG, "*** DEBUG ***   Is " + packageName + " running?? " + runningPackages.contains(packageName));
+        Log.d(LOG_TAG, "*** DEBUG ***   Is " + packageName + " running?? " + running);
 
-        // Check to see if this package is running
-        return runningPackages.contains(packageName);
+        return running;
+    }
+
+
+
+    /*
+    Name                getRunningAmong
+    Description         Returns which of the given packages are running, checked against a single snapshot
+                        (use this instead of calling isAppRunning for every app of a list)
+     */
+    public Set<String> getRunningAmong(Collection<String> packageNames) {
+        return processSnapshot.runningAmong(packageNames);
+    }
+
+
+
+    /*
+    Name                invalidateRunningPackages
+    Description         Makes the next running check refresh the snapshot (call after killing or launching apps)
+     */
+    public void invalidateRunningPackages() {
+        processSnapshot.invalidate();
     }
-}
\ No newline at end of file
+}
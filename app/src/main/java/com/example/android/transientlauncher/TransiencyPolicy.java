@@ -0,0 +1,316 @@
+package com.example.android.transientlauncher;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+
+/*
+Class           Transiency Policy
+Description     Decides which packages are transient, from allow, deny and prefix rules. The rules are
+                compiled into a prefix trie, so a package is classified in one walk over its name.
+
+Notes           Public, so it can be handed to the TransiencyManager from outside of the package.
+                Config format, one rule per line ('#' starts a comment):
+                    default allow|deny          Packages no rule matches (allow unless given)
+                    allow <package>             Never transient
+                    deny <package>              Transient
+                    prefix allow|deny <prefix>  Every package starting with <prefix>
+                Exact rules win over prefix rules, and a longer prefix wins over a shorter one. When
+                two rules of the same kind name the same package or prefix, the last one wins.
+ */
+public class TransiencyPolicy {
+
+    /** Attributes **/
+    private static final String LOG_TAG = TransiencyPolicy.class.getSimpleName();
+    public static final String FILE_NAME = "transiency_policy.conf";
+
+    // Verdicts stored in the trie
+    private static final byte NONE = 0;
+    private static final byte ALLOW = 1;        // Not transient
+    private static final byte DENY = 2;         // Transient
+
+    // Rules used when there is no config file (the demo list, or everything but the platform apps)
+    private static final String DEMO_RULES =
+            "default allow\n" +
+            "deny com.example.android.hellotoast\n" +
+            "deny com.facebook.katana\n" +
+            "deny com.snapchat.android\n" +
+            "deny com.instagram.android\n" +
+            "deny com.example.android.metis\n" +
+            "deny com.NikSanTech.FireDots3D\n";
+    private static final String DEFAULT_RULES =
+            "default deny\n" +
+            "prefix allow com.google\n" +
+            "prefix allow com.android\n" +
+            "allow com.example.android.transientlauncher\n";
+
+    // Compiled trie: node i has the edges [edgeStart[i], edgeStart[i + 1]), sorted by character
+    private final int[] edgeStart;
+    private final char[] edgeChar;
+    private final int[] edgeTarget;
+    private final byte[] exactVerdict;          // Rule for the package that ends at the node
+    private final byte[] prefixVerdict;         // Rule for every package that goes through the node
+    private final byte defaultVerdict;
+    private final int ruleCount;
+
+
+
+
+    /** Builder **/
+    /*
+    Class               Builder
+    Description         Collects rules into a mutable trie, then compiles it into flat arrays
+     */
+    public static class Builder {
+
+        // Attributes
+        private final List<Node> nodes = new ArrayList<>();
+        private byte defaultVerdict = ALLOW;
+        private int ruleCount;
+
+        private static class Node {
+            final TreeMap<Character, Integer> children = new TreeMap<>();
+            byte exact = NONE;
+            byte prefix = NONE;
+        }
+
+        // Constructor
+        public Builder() {
+            nodes.add(new Node());      // Root
+        }
+
+        // Methods
+        public Builder setDefault(boolean transientApp) {
+            defaultVerdict = transientApp ? DENY : ALLOW;
+            return this;
+        }
+
+        public Builder allow(String packageName) {
+            nodeFor(packageName).exact = ALLOW;
+            ruleCount++;
+            return this;
+        }
+
+        public Builder deny(String packageName) {
+            nodeFor(packageName).exact = DENY;
+            ruleCount++;
+            return this;
+        }
+
+        public Builder prefix(String prefix, boolean transientApp) {
+            nodeFor(prefix).prefix = transientApp ? DENY : ALLOW;
+            ruleCount++;
+            return this;
+        }
+
+        private Node nodeFor(String key) {
+            int index = 0;
+            for (int i = 0; i < key.length(); i++) {
+                Node node = nodes.get(index);
+                Integer child = node.children.get(key.charAt(i));
+                if (child == null) {
+                    child = nodes.size();
+                    nodes.add(new Node());
+                    node.children.put(key.charAt(i), child);
+                }
+                index = child;
+            }
+            return nodes.get(index);
+        }
+
+        public TransiencyPolicy build() {
+            int nodeCount = nodes.size();
+            int[] edgeStart = new int[nodeCount + 1];
+            char[] edgeChar = new char[nodeCount - 1];      // Every node but the root has one parent edge
+            int[] edgeTarget = new int[nodeCount - 1];
+            byte[] exact = new byte[nodeCount];
+            byte[] prefix = new byte[nodeCount];
+
+            int edge = 0;
+            for (int i = 0; i < nodeCount; i++) {
+                Node node = nodes.get(i);
+                edgeStart[i] = edge;
+                exact[i] = node.exact;
+                prefix[i] = node.prefix;
+                for (Map.Entry<Character, Integer> child : node.children.entrySet()) {
+                    edgeChar[edge] = child.getKey();
+                    edgeTarget[edge] = child.getValue();
+                    edge++;
+                }
+            }
+            edgeStart[nodeCount] = edge;
+
+            return new TransiencyPolicy(edgeStart, edgeChar, edgeTarget, exact, prefix, defaultVerdict, ruleCount);
+        }
+    }
+
+
+
+
+    /** Constructor **/
+    private TransiencyPolicy(int[] edgeStart, char[] edgeChar, int[] edgeTarget, byte[] exactVerdict,
+                             byte[] prefixVerdict, byte defaultVerdict, int ruleCount) {
+        this.edgeStart = edgeStart;
+        this.edgeChar = edgeChar;
+        this.edgeTarget = edgeTarget;
+        this.exactVerdict = exactVerdict;
+        this.prefixVerdict = prefixVerdict;
+        this.defaultVerdict = defaultVerdict;
+        this.ruleCount = ruleCount;
+    }
+
+
+
+
+    /** Methods **/
+    /*
+    Name                isTransient
+    Description         Returns TRUE if the package is managed as transient. One pass over the name.
+     */
+    public boolean isTransient(String packageName) {
+
+        byte verdict = defaultVerdict;
+        int node = 0;
+        for (int i = 0; i < packageName.length(); i++) {
+            if (prefixVerdict[node] != NONE) {
+                verdict = prefixVerdict[node];
+            }
+            node = child(node, packageName.charAt(i));
+            if (node < 0) {
+                break;
+            }
+        }
+
+        // Walked the whole name: an exact rule or a prefix ending on the last character applies
+        if (node >= 0) {
+            if (exactVerdict[node] != NONE) {
+                verdict = exactVerdict[node];
+            } else if (prefixVerdict[node] != NONE) {
+                verdict = prefixVerdict[node];
+            }
+        }
+
+        return verdict == DENY;
+    }
+
+
+    /*
+    Name                getRuleCount
+    Description         Returns the number of rules the policy was compiled from
+     */
+    public int getRuleCount() {
+        return ruleCount;
+    }
+
+
+    /*
+    Name                child
+    Description         Returns the node reached from a node through a character, -1 if there is none
+     */
+    private int child(int node, char c) {
+        int index = Arrays.binarySearch(edgeChar, edgeStart[node], edgeStart[node + 1], c);
+        return index >= 0 ? edgeTarget[index] : -1;
+    }
+
+
+    /*
+    Name                parse
+    Description         Compiles the rules of a config. Throws IOException on a malformed line.
+     */
+    public static TransiencyPolicy parse(Reader config) throws IOException {
+
+        Builder builder = new Builder();
+        BufferedReader reader = new BufferedReader(config);
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+
+            // Drop comments and blank lines
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            String[] words = line.trim().split("\\s+");
+            if (words.length == 1 && words[0].isEmpty()) {
+                continue;
+            }
+
+            if (words.length == 2 && words[0].equals("default") && isVerdict(words[1])) {
+                builder.setDefault(words[1].equals("deny"));
+            } else if (words.length == 2 && words[0].equals("allow")) {
+                builder.allow(words[1]);
+            } else if (words.length == 2 && words[0].equals("deny")) {
+                builder.deny(words[1]);
+            } else if (words.length == 3 && words[0].equals("prefix") && isVerdict(words[1])) {
+                builder.prefix(words[2], words[1].equals("deny"));
+            } else {
+                throw new IOException("Bad rule at line " + lineNumber + ": " + line.trim());
+            }
+        }
+
+        return builder.build();
+    }
+
+
+    private static boolean isVerdict(String word) {
+        return word.equals("allow") || word.equals("deny");
+    }
+
+
+    /*
+    Name                load
+    Description         Returns the policy of a config file. Falls back to the built-in rules if there is
+                        no file or it cannot be parsed.
+     */
+    public static TransiencyPolicy load(File file, Boolean demoMode) {
+
+        if (file.isFile()) {
+            Reader reader = null;
+            try {
+                reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+                TransiencyPolicy policy = parse(reader);
+                Log.d(LOG_TAG, "** INFO **    Loaded " + policy.getRuleCount() + " transiency rules from " + file.getName());
+                return policy;
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "* ERROR *   Couldn't load " + file.getName() + ", using the built-in rules: " + e.getMessage());
+            } finally {
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        // Nothing to do
+                    }
+                }
+            }
+        }
+
+        return builtIn(demoMode);
+    }
+
+
+    /*
+    Name                builtIn
+    Description         Returns the policy used without a config file
+     */
+    public static TransiencyPolicy builtIn(Boolean demoMode) {
+        try {
+            return parse(new StringReader(demoMode ? DEMO_RULES : DEFAULT_RULES));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);        // The built-in rules are always valid
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package com.example.android.transientlauncher;
+
+import android.annotation.TargetApi;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.app.usage.UsageEvents;
+import android.app.usage.UsageStatsManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+
+/*
+Class           Transiency Service
+Description     Background service that disables transient apps once they exited: they left the foreground
+                more than a grace period ago and have no process left.
+
+                It also runs the reconcile of the APK modes with the DB on demand (the BootReceiver runs
+                the one at boot itself, see reconcileNow).
+
+Notes           Event driven. The service learns that an app left the foreground from the usage events
+                (API 22+, needs the usage access permission) and from the launcher coming back to the
+                foreground. Between events it only wakes up when the next app may expire, on a handler of
+                its own thread (uptime based, so it never wakes the CPU up from deep sleep), and it stops
+                itself once no enabled transient app is left to watch (pre-enabled apps while the
+                launcher is shown, none after Enable All). The launcher only starts it when there is one.
+                The apps to watch come from the DB (enabled and transient), so a restarted service
+                picks up where the previous one stopped.
+                Android 8+ stops background services about a minute after the app left the foreground,
+                and does not let a background app start one: there, it is started as a foreground
+                service (startForegroundService, with a low importance notification while apps are
+                watched), so the grace period and retries still run once the launcher is gone.
+ */
+public class TransiencyService extends Service {
+
+    /** Attributes **/
+    private static final String LOG_TAG = TransiencyService.class.getSimpleName();
+    static final String ACTION_APP_LAUNCHED = "com.example.android.transientlauncher.action.APP_LAUNCHED";
+    static final String ACTION_LAUNCHER_SHOWN = "com.example.android.transientlauncher.action.LAUNCHER_SHOWN";
+    static final String ACTION_LAUNCHER_HIDDEN = "com.example.android.transientlauncher.action.LAUNCHER_HIDDEN";
+    static final String ACTION_RECONCILE = "com.example.android.transientlauncher.action.RECONCILE";
+    static final String EXTRA_PACKAGE_NAME = "packageName";
+    static final String EXTRA_POLICY = "policy";
+
+    static final String PREFERENCES = "transiency";
+    static final String PREF_GRACE_PERIOD_MS = "exitGracePeriodMs";
+    static final String PREF_TRANSIENCY_OFF = "transiencyOff";          // Enable All: keep every app enabled
+    static final long DEFAULT_GRACE_PERIOD_MS = 30 * 1000;
+    private static final long FIRST_EVENTS_WINDOW_MS = 60 * 60 * 1000;     // Usage events read on start
+    private static final String CHANNEL_ID = "transiency";
+    private static final int NOTIFICATION_ID = 1;
+
+    private HandlerThread thread;
+    private Handler handler;
+    private ExitTracker tracker;
+    private TransiencyManager transiencyManager;
+    private AppMetadataRoomDatabase database;
+    private UsageStatsManager usageStatsManager;
+    private long lastEventTime;
+    private BroadcastReceiver screenOffReceiver;
+    private volatile int lastStartId;
+
+    private final Runnable checkRunnable = new Runnable() {
+        @Override
+        public void run() {
+            check();
+        }
+    };
+
+
+
+
+    /** Methods **/
+    /*
+    Name                appLaunched
+    Description         Tells the service a transient app was launched from the launcher, so it watches it
+     */
+    static void appLaunched(Context context, String packageName) {
+        Intent intent = new Intent(context, TransiencyService.class);
+        intent.setAction(ACTION_APP_LAUNCHED);
+        intent.putExtra(EXTRA_PACKAGE_NAME, packageName);
+        start(context, intent);
+    }
+
+
+    /*
+    Name                hasAppsToWatch
+    Description         Returns TRUE if the service has apps to watch while the launcher is shown (enabled,
+                        transient, not pre-enabled, and transiency is on). Reads the DB, call it from a
+                        background thread.
+     */
+    static boolean hasAppsToWatch(Context context) {
+
+        SharedPreferences preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        List<String> candidates = AppMetadataRoomDatabase.getDatabase(context).getPackagesByState(Boolean.TRUE, Boolean.TRUE);
+
+        return !ExitTracker.watched(candidates,
+                preferences.getStringSet(PreEnabler.PREF_OUTSTANDING, Collections.<String>emptySet()),
+                true, preferences.getBoolean(PREF_TRANSIENCY_OFF, false)).isEmpty();
+    }
+
+
+    /*
+    Name                launcherShown
+    Description         Tells the service the launcher is in the foreground (the last app left it). Only
+                        needed if there are apps to watch (see hasAppsToWatch): it starts the service.
+     */
+    static void launcherShown(Context context) {
+        Intent intent = new Intent(context, TransiencyService.class);
+        intent.setAction(ACTION_LAUNCHER_SHOWN);
+        start(context, intent);
+    }
+
+
+    /*
+    Name                launcherHidden
+    Description         Tells the service the launcher left the foreground (the pre-enabled apps may expire)
+     */
+    static void launcherHidden(Context context) {
+        Intent intent = new Intent(context, TransiencyService.class);
+        intent.setAction(ACTION_LAUNCHER_HIDDEN);
+        start(context, intent);
+    }
+
+
+    /*
+    Name                reconcile
+    Description         Asks the service to check the APK modes of all apps against the DB and repair them
+                        (policy "files" or "db", null for the one in the preferences, see Reconciler)
+     */
+    static void reconcile(Context context, String policy) {
+        Intent intent = new Intent(context, TransiencyService.class);
+        intent.setAction(ACTION_RECONCILE);
+        intent.putExtra(EXTRA_POLICY, policy);
+        start(context, intent);
+    }
+
+
+    /*
+    Name                start
+    Description         Starts the service, as a foreground service on Android 8+ (a background start of a
+                        plain service throws there, e.g. once the launcher activity is gone)
+     */
+    private static void start(Context context, Intent intent) {
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            context.startForegroundService(intent);
+        } else {
+            context.startService(intent);
+        }
+    }
+
+
+    /*
+    Name                setGracePeriod
+    Description         Sets how long an app may stay enabled after it left the foreground
+     */
+    static void setGracePeriod(Context context, long gracePeriodMs) {
+        context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE).edit()
+                .putLong(PREF_GRACE_PERIOD_MS, gracePeriodMs).apply();
+    }
+
+
+    /*
+    Name                setTransiencyOff
+    Description         Keeps every app enabled (Enable All) until it is turned back on (the user disabled an app)
+     */
+    static void setTransiencyOff(Context context, boolean off) {
+        context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE).edit()
+                .putBoolean(PREF_TRANSIENCY_OFF, off).apply();
+    }
+
+
+    /*
+    Name                isTransiencyOff
+    Description         Returns TRUE if the exited apps are kept enabled (Enable All)
+     */
+    static boolean isTransiencyOff(Context context) {
+        return context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE).getBoolean(PREF_TRANSIENCY_OFF, false);
+    }
+
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        Log.d(LOG_TAG, "** INFO **    onCreate --> Watching transient apps.");
+
+        // Grace period
+        SharedPreferences preferences = getSharedPreferences(PREFERENCES, MODE_PRIVATE);
+        tracker = new ExitTracker(preferences.getLong(PREF_GRACE_PERIOD_MS, DEFAULT_GRACE_PERIOD_MS));
+
+        // Managers and databases
+        database = AppMetadataRoomDatabase.getDatabase(getApplicationContext());
+        transiencyManager = createTransiencyManager(getApplicationContext(), database);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP_MR1) {
+            usageStatsManager = (UsageStatsManager) getSystemService(Context.USAGE_STATS_SERVICE);
+        }
+        lastEventTime = System.currentTimeMillis() - FIRST_EVENTS_WINDOW_MS;
+
+        // All the work happens on one background thread
+        thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+
+        // Screen off: the app in the foreground is about to stop, a good time to look at the events
+        screenOffReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                scheduleCheck(0);
+            }
+        };
+        registerReceiver(screenOffReceiver, new IntentFilter(Intent.ACTION_SCREEN_OFF), null, handler);
+    }
+
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+
+        final String action = intent != null ? intent.getAction() : null;
+        final String packageName = intent != null ? intent.getStringExtra(EXTRA_PACKAGE_NAME) : null;
+        final String policy = intent != null ? intent.getStringExtra(EXTRA_POLICY) : null;
+        final long now = System.currentTimeMillis();
+        lastStartId = startId;
+
+        // Every startForegroundService must be followed by startForeground, even if already running
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            startForeground(NOTIFICATION_ID, buildNotification());
+        }
+
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (ACTION_APP_LAUNCHED.equals(action) && packageName != null) {
+                    tracker.onLauncherHidden(now);
+                    tracker.onForeground(packageName, now);
+                } else if (ACTION_LAUNCHER_SHOWN.equals(action)) {
+                    tracker.onLauncherShown(now);
+                } else if (ACTION_LAUNCHER_HIDDEN.equals(action)) {
+                    tracker.onLauncherHidden(now);
+                } else if (ACTION_RECONCILE.equals(action)) {
+                    reconcileNow(TransiencyService.this, transiencyManager, policy);
+                }
+                check();
+            }
+        });
+
+        return START_STICKY;
+    }
+
+
+    /*
+    Name                buildNotification
+    Description         Returns the notification shown while the service runs in the foreground (Android 8+)
+     */
+    @TargetApi(Build.VERSION_CODES.O)
+    private Notification buildNotification() {
+
+        NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (manager.getNotificationChannel(CHANNEL_ID) == null) {
+            manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                    getString(R.string.transiency_channel), NotificationManager.IMPORTANCE_MIN));
+        }
+
+        return new Notification.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.transiency_notification))
+                .setOngoing(true)
+                .build();
+    }
+
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        Log.d(LOG_TAG, "** INFO **    onDestroy --> Stopped watching transient apps.");
+
+        unregisterReceiver(screenOffReceiver);
+        handler.removeCallbacksAndMessages(null);
+        thread.quit();
+    }
+
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+
+    /*
+    Name                createTransiencyManager
+    Description         Returns a TransiencyManager with the backends of the launcher (DB, icon cache, APK
+                        access, access journal)
+     */
+    static TransiencyManager createTransiencyManager(Context context, AppMetadataRoomDatabase database) {
+
+        TransiencyManager transiencyManager = new TransiencyManager(context.getPackageManager(), database);
+        transiencyManager.setIconCache(IconCache.getInstance(context));
+        transiencyManager.setApkAccess(TransiencyManager.selectApkAccess(context));
+        transiencyManager.setAccessJournal(AccessJournal.getInstance(context));
+
+        return transiencyManager;
+    }
+
+
+    /*
+    Name                reconcileNow
+    Description         Runs the reconcile and keeps its report in the preferences. Blocks, call it from a
+                        background thread (the service thread, or the BootReceiver's).
+     */
+    static void reconcileNow(Context context, TransiencyManager transiencyManager, String policyName) {
+
+        SharedPreferences preferences = context.getSharedPreferences(PREFERENCES, MODE_PRIVATE);
+        int policy = Reconciler.parsePolicy(policyName, preferences.getInt(Reconciler.PREF_POLICY, Reconciler.REPAIR_FILES));
+
+        Reconciler.Report report = transiencyManager.reconcile(policy);
+        preferences.edit().putString(Reconciler.PREF_LAST_REPORT, new Date() + ": " + report).apply();
+    }
+
+
+    /*
+    Name                check
+    Description         Reads the new usage events, disables the apps that exited, and schedules the next
+                        check (or stops the service if there is nothing left to watch). Runs on the service thread.
+     */
+    private void check() {
+
+        handler.removeCallbacks(checkRunnable);
+
+        // Apps to watch: enabled and transient
+        List<String> candidates = database.getPackagesByState(Boolean.TRUE, Boolean.TRUE);
+
+        // Foreground/background moves since the last check
+        long now = System.currentTimeMillis();
+        if (usageStatsManager != null) {
+            readUsageEvents(new HashSet<>(candidates), now);
+        }
+
+        // Disable the apps that left the foreground a while ago and have no process left
+        // (pre-enabled apps are kept while the launcher is shown, and all apps after Enable All)
+        SharedPreferences preferences = getSharedPreferences(PREFERENCES, MODE_PRIVATE);
+        Set<String> preEnabled = preferences.getStringSet(PreEnabler.PREF_OUTSTANDING, Collections.<String>emptySet());
+        boolean transiencyOff = preferences.getBoolean(PREF_TRANSIENCY_OFF, false);
+        tracker.setTransiencyOff(transiencyOff, now);
+        List<String> expired = tracker.expired(candidates, preEnabled, now);
+        if (!expired.isEmpty()) {
+            transiencyManager.invalidateRunningPackages();
+            Set<String> running = transiencyManager.getRunningAmong(expired);
+            for (String packageName : expired) {
+                if (running.contains(packageName)) {
+                    tracker.stillRunning(packageName, now);
+                } else if (transiencyManager.disableApp(packageName)) {
+                    Log.d(LOG_TAG, "** INFO **    Disabled " + packageName + " after it exited.");
+                    tracker.forget(packageName);
+                } else {
+                    Log.e(LOG_TAG, "* ERROR *   Couldn't disable " + packageName);
+                    tracker.stillRunning(packageName, now);
+                }
+            }
+        }
+
+        // Sleep until the next app may expire, or stop as soon as there is nothing to watch (the
+        // pre-enabled apps are watched again once the launcher is hidden, see PreEnabler)
+        long next = tracker.nextCheckTime(now);
+        if (next == ExitTracker.NONE
+                || ExitTracker.watched(candidates, preEnabled, tracker.isLauncherShown(), transiencyOff).isEmpty()) {
+            Log.d(LOG_TAG, "** INFO **    No enabled transient apps left to watch, stopping.");
+            stopSelf(lastStartId);        // Unless a newer start came in meanwhile
+        } else {
+            scheduleCheck(Math.max(0, next - now));
+        }
+    }
+
+
+    private void scheduleCheck(long delayMs) {
+        handler.removeCallbacks(checkRunnable);
+        handler.postDelayed(checkRunnable, delayMs);
+    }
+
+
+    /*
+    Name                readUsageEvents
+    Description         Feeds the foreground/background moves of the watched apps since the last read to the tracker
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP_MR1)
+    private void readUsageEvents(Set<String> watched, long now) {
+
+        UsageEvents events = usageStatsManager.queryEvents(lastEventTime, now);
+        UsageEvents.Event event = new UsageEvents.Event();
+        while (events.hasNextEvent()) {
+            events.getNextEvent(event);
+            if (!watched.contains(event.getPackageName())) {
+                continue;
+            }
+            if (event.getEventType() == UsageEvents.Event.MOVE_TO_FOREGROUND) {
+                tracker.onForeground(event.getPackageName(), event.getTimeStamp());
+            } else if (event.getEventType() == UsageEvents.Event.MOVE_TO_BACKGROUND) {
+                tracker.onBackground(event.getPackageName(), event.getTimeStamp());
+            }
+        }
+        lastEventTime = now;
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.android.transientlauncher;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link AccessJournal}.
+ */
+public class AccessJournalTest {
+
+    private static final String FACEBOOK = "com.facebook.katana";
+    private static final String SNAPCHAT = "com.snapchat.android";
+    private static final String FACEBOOK_APK = "/data/app/com.facebook.katana-1/base.apk";
+    private static final String SNAPCHAT_APK = "/data/app/com.snapchat.android-1/base.apk";
+
+    /** Backend whose chmods time out (left queued in the shell), and whose stat reports the given modes. */
+    private static class TimingOutAccess implements ApkAccess {
+
+        final Map<String, Integer> modes = new HashMap<>();
+        boolean statFails;
+
+        @Override
+        public String getName() {
+            return "timing out";
+        }
+
+        @Override
+        public boolean probe(String apkPath) {
+            return true;
+        }
+
+        @Override
+        public Result setReadable(List<String> apkPaths, boolean readable) throws IOException {
+            throw new InterruptedIOException("Timed out");
+        }
+
+        @Override
+        public List<Integer> getModes(List<String> apkPaths) throws IOException {
+            if (statFails) {
+                throw new InterruptedIOException("Timed out");
+            }
+            List<Integer> result = new ArrayList<>();
+            for (String apkPath : apkPaths) {
+                result.add(modes.containsKey(apkPath) ? modes.get(apkPath) : NO_MODE);
+            }
+            return result;
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), AccessJournal.FILE_NAME);
+    }
+
+    @Test
+    public void committedOperations_areNotRecovered() throws IOException {
+        AccessJournal journal = new AccessJournal(file);
+        journal.commit(journal.begin(Arrays.asList(FACEBOOK, SNAPCHAT), Arrays.asList(FACEBOOK_APK, SNAPCHAT_APK), true));
+        journal.close();
+
+        assertTrue(new AccessJournal(file).takeRecovered().isEmpty());
+    }
+
+    @Test
+    public void unfinishedOperations_areRecoveredOnce() throws IOException {
+        AccessJournal journal = new AccessJournal(file);
+        journal.commit(journal.begin(Collections.singletonList(FACEBOOK), Collections.singletonList(FACEBOOK_APK), true));
+        journal.begin(Collections.singletonList(SNAPCHAT), Collections.singletonList(SNAPCHAT_APK), false);
+        journal.close();
+
+        AccessJournal reopened = new AccessJournal(file);
+        List<AccessJournal.Entry> recovered = reopened.takeRecovered();
+
+        assertEquals(1, recovered.size());
+        assertEquals(SNAPCHAT, recovered.get(0).packageName);
+        assertEquals(SNAPCHAT_APK, recovered.get(0).apkPath);
+        assertFalse(recovered.get(0).enable);
+        assertTrue(reopened.takeRecovered().isEmpty());
+        assertEquals(1, reopened.getInFlightCount());
+    }
+
+    @Test
+    public void recoveredOperations_stayDoneOnceCommitted() throws IOException {
+        AccessJournal journal = new AccessJournal(file);
+        journal.begin(Collections.singletonList(SNAPCHAT), Collections.singletonList(SNAPCHAT_APK), true);
+        journal.close();
+
+        AccessJournal reopened = new AccessJournal(file);
+        reopened.commit(reopened.takeRecovered());
+        reopened.begin(Collections.singletonList(FACEBOOK), Collections.singletonList(FACEBOOK_APK), true);
+        reopened.close();
+
+        List<AccessJournal.Entry> recovered = new AccessJournal(file).takeRecovered();
+        assertEquals(1, recovered.size());
+        assertEquals(FACEBOOK, recovered.get(0).packageName);
+    }
+
+    @Test
+    public void laterOperation_supersedesEarlierOnTheSamePackage() throws IOException {
+        AccessJournal journal = new AccessJournal(file);
+        journal.begin(Collections.singletonList(SNAPCHAT), Collections.singletonList(SNAPCHAT_APK), true);
+        journal.begin(Collections.singletonList(SNAPCHAT), Collections.singletonList(SNAPCHAT_APK), false);
+        journal.close();
+
+        AccessJournal reopened = new AccessJournal(file);
+        List<AccessJournal.Entry> recovered = reopened.takeRecovered();
+
+        assertEquals(1, recovered.size());
+        assertFalse(recovered.get(0).enable);
+        assertEquals(1, reopened.getInFlightCount());
+    }
+
+    @Test
+    public void tornRecordAtTheEnd_isDropped() throws IOException {
+        AccessJournal journal = new AccessJournal(file);
+        journal.begin(Collections.singletonList(SNAPCHAT), Collections.singletonList(SNAPCHAT_APK), true);
+        journal.close();
+        long goodLength = file.length();
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write(new byte[] {0, 0, 0, 40, 1, 0, 0});      // Process killed in the middle of a write
+        out.close();
+
+        AccessJournal reopened = new AccessJournal(file);
+
+        assertEquals(goodLength, file.length());
+        assertEquals(SNAPCHAT, reopened.takeRecovered().get(0).packageName);
+
+        // New records go after the last good one, and are read back
+        reopened.begin(Collections.singletonList(FACEBOOK), Collections.singletonList(FACEBOOK_APK), true);
+        reopened.close();
+        assertEquals(2, new AccessJournal(file).takeRecovered().size());
+    }
+
+    @Test
+    public void corruptRecord_endsTheReplay() throws IOException {
+        AccessJournal journal = new AccessJournal(file);
+        journal.begin(Collections.singletonList(SNAPCHAT), Collections.singletonList(SNAPCHAT_APK), true);
+        long firstLength = file.length();
+        journal.begin(Collections.singletonList(FACEBOOK), Collections.singletonList(FACEBOOK_APK), true);
+        journal.close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(firstLength + 10);
+        raf.write(0x7F);
+        raf.close();
+
+        List<AccessJournal.Entry> recovered = new AccessJournal(file).takeRecovered();
+
+        assertEquals(1, recovered.size());
+        assertEquals(SNAPCHAT, recovered.get(0).packageName);
+    }
+
+    @Test
+    public void journal_isEmptiedOnceBigAndNothingInFlight() throws IOException {
+        AccessJournal journal = new AccessJournal(file);
+        List<AccessJournal.Entry> open = journal.begin(Collections.singletonList(SNAPCHAT), Collections.singletonList(SNAPCHAT_APK), true);
+        while (file.length() <= AccessJournal.COMPACT_BYTES) {
+            journal.commit(journal.begin(Collections.singletonList(FACEBOOK), Collections.singletonList(FACEBOOK_APK), true));
+        }
+        assertTrue(file.length() > AccessJournal.COMPACT_BYTES);    // Kept: an operation is still in flight
+
+        journal.commit(open);
+
+        assertEquals(0, file.length());
+        journal.begin(Collections.singletonList(FACEBOOK), Collections.singletonList(FACEBOOK_APK), true);
+        journal.close();
+        assertEquals(1, new AccessJournal(file).takeRecovered().size());
+    }
+
+    @Test
+    public void ids_keepGrowingAcrossRuns() throws IOException {
+        AccessJournal journal = new AccessJournal(file);
+        List<AccessJournal.Entry> first = journal.begin(Collections.singletonList(SNAPCHAT), Collections.singletonList(SNAPCHAT_APK), true);
+        journal.close();
+
+        AccessJournal reopened = new AccessJournal(file);
+        List<AccessJournal.Entry> second = reopened.begin(Collections.singletonList(FACEBOOK), Collections.singletonList(FACEBOOK_APK), true);
+        reopened.commit(second);
+        reopened.close();
+
+        // Committing the second operation must not finish the first one
+        List<String> recovered = new ArrayList<>();
+        for (AccessJournal.Entry entry : new AccessJournal(file).takeRecovered()) {
+            recovered.add(entry.packageName);
+        }
+        assertTrue(second.get(0).id > first.get(0).id);
+        assertEquals(Collections.singletonList(SNAPCHAT), recovered);
+    }
+
+    @Test
+    public void timedOutOperations_onlyTheConfirmedOnesAreCommitted() throws IOException {
+        AccessJournal journal = new AccessJournal(file);
+        TimingOutAccess access = new TimingOutAccess();
+        List<AccessJournal.Entry> intents = journal.begin(Arrays.asList(FACEBOOK, SNAPCHAT),
+                Arrays.asList(FACEBOOK_APK, SNAPCHAT_APK), true);
+        try {
+            access.setReadable(Arrays.asList(FACEBOOK_APK, SNAPCHAT_APK), true);
+            fail();
+        } catch (InterruptedIOException e) {
+            // Outcome unknown: Facebook's chmod ran, Snapchat's is still queued
+            access.modes.put(FACEBOOK_APK, 0644);
+            access.modes.put(SNAPCHAT_APK, 0200);
+            List<AccessJournal.Entry> confirmed = AccessJournal.confirmed(access, intents);
+            assertEquals(1, confirmed.size());
+            assertEquals(FACEBOOK, confirmed.get(0).packageName);
+            journal.commit(confirmed);
+        }
+        journal.close();
+
+        List<AccessJournal.Entry> recovered = new AccessJournal(file).takeRecovered();
+        assertEquals(1, recovered.size());
+        assertEquals(SNAPCHAT, recovered.get(0).packageName);
+    }
+
+    @Test
+    public void timedOutOperations_stayUncommittedIfTheStatFails() throws IOException {
+        AccessJournal journal = new AccessJournal(file);
+        TimingOutAccess access = new TimingOutAccess();
+        access.statFails = true;
+        List<AccessJournal.Entry> intents = journal.begin(Collections.singletonList(SNAPCHAT),
+                Collections.singletonList(SNAPCHAT_APK), false);
+
+        assertTrue(AccessJournal.confirmed(access, intents).isEmpty());
+        assertEquals(1, journal.getInFlightCount());
+        journal.close();
+        assertEquals(1, new AccessJournal(file).takeRecovered().size());
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.android.transientlauncher;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Contract every {@link ApkAccess} backend follows, run on files in a temporary directory.
+ * Subclasses provide the backend. Needs a POSIX file system (skipped elsewhere).
+ */
+public abstract class ApkAccessContract {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ApkAccess access;
+
+    protected abstract ApkAccess createAccess() throws IOException;
+
+    @Before
+    public void setUp() throws IOException {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        access = createAccess();
+    }
+
+    @Test
+    public void setReadable_false_clearsEveryReadBit() throws IOException {
+        File apk = apk("base.apk", "rw-r--r--");
+
+        assertEquals(Collections.singletonList(Boolean.TRUE), access.setReadable(Collections.singletonList(apk.getPath()), false).succeeded);
+        assertEquals("-w-------", permissions(apk));
+    }
+
+    @Test
+    public void setReadable_true_setsEveryReadBit() throws IOException {
+        File apk = apk("base.apk", "-w-------");
+
+        assertEquals(Collections.singletonList(Boolean.TRUE), access.setReadable(Collections.singletonList(apk.getPath()), true).succeeded);
+        assertEquals("rw-r--r--", permissions(apk));
+    }
+
+    @Test
+    public void setReadable_keepsTheOtherBits() throws IOException {
+        File apk = apk("base.apk", "rwxr-x---");
+
+        access.setReadable(Collections.singletonList(apk.getPath()), false);
+        assertEquals("-wx--x---", permissions(apk));
+
+        access.setReadable(Collections.singletonList(apk.getPath()), true);
+        assertEquals("rwxr-xr--", permissions(apk));
+    }
+
+    @Test
+    public void setReadable_twiceIsTheSameAsOnce() throws IOException {
+        File apk = apk("base.apk", "rw-r--r--");
+
+        access.setReadable(Collections.singletonList(apk.getPath()), false);
+        assertEquals(Collections.singletonList(Boolean.TRUE), access.setReadable(Collections.singletonList(apk.getPath()), false).succeeded);
+        assertEquals("-w-------", permissions(apk));
+    }
+
+    @Test
+    public void setReadable_reportsEveryPathInOrder() throws IOException {
+        File first = apk("first.apk", "rw-r--r--");
+        File missing = new File(folder.getRoot(), "missing.apk");
+        File last = apk("last.apk", "rw-r--r--");
+
+        assertEquals(Arrays.asList(Boolean.TRUE, Boolean.FALSE, Boolean.TRUE),
+                access.setReadable(Arrays.asList(first.getPath(), missing.getPath(), last.getPath()), false).succeeded);
+        assertEquals("-w-------", permissions(first));
+        assertEquals("-w-------", permissions(last));
+    }
+
+    @Test
+    public void setReadable_handlesSpacesAndQuotesInPaths() throws IOException {
+        File apk = apk("it's an app.apk", "rw-r--r--");
+
+        assertEquals(Collections.singletonList(Boolean.TRUE), access.setReadable(Collections.singletonList(apk.getPath()), false).succeeded);
+        assertEquals("-w-------", permissions(apk));
+    }
+
+    @Test
+    public void setReadable_reportsWhenTheChangeWasSent() throws IOException {
+        File apk = apk("base.apk", "rw-r--r--");
+
+        long before = System.nanoTime();
+        ApkAccess.Result result = access.setReadable(Collections.singletonList(apk.getPath()), false);
+        long after = System.nanoTime();
+
+        assertTrue(result.sentNanos >= before);
+        assertTrue(result.sentNanos <= after);
+    }
+
+    @Test
+    public void getModes_returnsThePermissionBits() throws IOException {
+        File readable = apk("readable.apk", "rw-r--r--");
+        File unreadable = apk("unreadable.apk", "-w-------");
+        File missing = new File(folder.getRoot(), "missing.apk");
+
+        assertEquals(Arrays.asList(0644, 0200, ApkAccess.NO_MODE),
+                access.getModes(Arrays.asList(readable.getPath(), unreadable.getPath(), missing.getPath())));
+    }
+
+    @Test
+    public void probe_leavesTheFileAsItWas() throws IOException {
+        File apk = apk("base.apk", "rw-r--r--");
+
+        assertTrue(access.probe(apk.getPath()));
+        assertEquals("rw-r--r--", permissions(apk));
+        assertFalse(access.probe(new File(folder.getRoot(), "missing.apk").getPath()));
+    }
+
+
+    private File apk(String name, String permissions) throws IOException {
+        File apk = folder.newFile(name);
+        Files.setPosixFilePermissions(apk.toPath(), PosixFilePermissions.fromString(permissions));
+        return apk;
+    }
+
+    private static String permissions(File file) throws IOException {
+        return PosixFilePermissions.toString(Files.getPosixFilePermissions(file.toPath()));
+    }
+
+    // PosixFilePermission is declared from OWNER_READ (0400) down to OTHERS_EXECUTE (0001)
+    static int toMode(Set<PosixFilePermission> permissions) {
+        int mode = 0;
+        for (PosixFilePermission permission : permissions) {
+            mode |= 0400 >> permission.ordinal();
+        }
+        return mode;
+    }
+
+    static Set<PosixFilePermission> fromMode(int mode) {
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        for (PosixFilePermission permission : PosixFilePermission.values()) {
+            if ((mode & (0400 >> permission.ordinal())) != 0) {
+                permissions.add(permission);
+            }
+        }
+        return permissions;
+    }
+}
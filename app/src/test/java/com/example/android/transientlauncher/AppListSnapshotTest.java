@@ -0,0 +1,96 @@
+package com.example.android.transientlauncher;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link AppListSnapshot}, written to and read from a temporary folder.
+ */
+public class AppListSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private AppListSnapshot snapshot;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), AppListSnapshot.FILE_NAME);
+        snapshot = new AppListSnapshot(file);
+    }
+
+    @Test
+    public void read_returnsWrittenRows() throws IOException {
+        snapshot.write(AppRegistry.Apps.of(Arrays.asList(
+                new AppMetadata("Facebook", "com.facebook.katana", Boolean.FALSE, Boolean.TRUE),
+                new AppMetadata("Cam\u00e9ra", "com.android.camera", Boolean.TRUE, Boolean.FALSE))));
+
+        AppRegistry.Apps rows = snapshot.read();
+
+        assertEquals(2, rows.size());
+        assertEquals("com.facebook.katana", rows.getPackageName(0));
+        assertEquals("Facebook", rows.getLabel(0));
+        assertFalse(rows.isEnabled(0));
+        assertTrue(rows.isTransient(0));
+        assertEquals("Cam\u00e9ra", rows.getLabel(1));
+        assertTrue(rows.isEnabled(1));
+        assertFalse(rows.isTransient(1));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void read_missingFileReturnsNull() {
+        assertNull(snapshot.read());
+    }
+
+    @Test
+    public void read_otherVersionReturnsNull() throws IOException {
+        snapshot.write(AppRegistry.Apps.of(Collections.singletonList(
+                new AppMetadata("Facebook", "com.facebook.katana", Boolean.FALSE, Boolean.TRUE))));
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(4);
+        raf.writeInt(AppListSnapshot.VERSION + 1);
+        raf.close();
+
+        assertNull(snapshot.read());
+    }
+
+    @Test
+    public void read_truncatedFileReturnsNull() throws IOException {
+        snapshot.write(AppRegistry.Apps.of(Collections.singletonList(
+                new AppMetadata("Facebook", "com.facebook.katana", Boolean.FALSE, Boolean.TRUE))));
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        assertNull(snapshot.read());
+    }
+
+    @Test
+    public void countStale_countsChangedAddedAndRemovedRows() {
+        AppRegistry.Apps snapshotRows = AppRegistry.Apps.of(Arrays.asList(
+                new AppMetadata("Facebook", "com.facebook.katana", Boolean.FALSE, Boolean.TRUE),
+                new AppMetadata("Camera", "com.android.camera", Boolean.TRUE, Boolean.FALSE),
+                new AppMetadata("Snapchat", "com.snapchat.android", Boolean.FALSE, Boolean.TRUE)));
+        AppRegistry.Apps dbRows = AppRegistry.Apps.of(Arrays.asList(
+                new AppMetadata("Facebook", "com.facebook.katana", Boolean.TRUE, Boolean.TRUE),
+                new AppMetadata("Camera", "com.android.camera", Boolean.TRUE, Boolean.FALSE),
+                new AppMetadata("Instagram", "com.instagram.android", Boolean.FALSE, Boolean.TRUE)));
+
+        assertEquals(0, AppListSnapshot.countStale(snapshotRows, snapshotRows));
+        assertEquals(3, AppListSnapshot.countStale(snapshotRows, dbRows));
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.android.transientlauncher;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link AppRegistry}.
+ */
+public class AppRegistryTest {
+
+    private static final String FACEBOOK = "com.facebook.katana";
+    private static final String SNAPCHAT = "com.snapchat.android";
+    private static final String CHROME = "com.android.chrome";
+
+    private AppRegistry registry;
+
+    private static AppMetadata app(String packageName, String label, boolean enabled, boolean transientApp) {
+        AppMetadata app = new AppMetadata(label, packageName, enabled, transientApp);
+        app.setSourceDir("/data/app/" + packageName + "-1/base.apk");
+        app.setLastUpdateTime(1000);
+        app.setVersionCode(7);
+        return app;
+    }
+
+    @Before
+    public void setUp() {
+        registry = new AppRegistry();
+        registry.put(app(FACEBOOK, "Facebook", true, true));
+        registry.put(app(SNAPCHAT, "Snapchat", false, true));
+        registry.put(app(CHROME, "Chrome", true, false));
+    }
+
+    @Test
+    public void view_readsEveryField() {
+        AppRegistry.Apps apps = registry.view();
+
+        assertEquals(3, apps.size());
+        int pos = apps.indexOf(SNAPCHAT);
+        assertEquals(1, pos);
+        assertEquals("Snapchat", apps.getLabel(pos));
+        assertFalse(apps.isEnabled(pos));
+        assertTrue(apps.isTransient(pos));
+        assertEquals("/data/app/com.snapchat.android-1/base.apk", apps.getSourceDir(pos));
+        assertEquals(1000, apps.getLastUpdateTime(pos));
+        assertEquals(7, apps.getVersionCode(pos));
+        assertEquals(-1, apps.indexOf("not.installed"));
+
+        AppMetadata row = apps.toAppMetadata(pos);
+        assertEquals(SNAPCHAT, row.getPackageName());
+        assertEquals(Boolean.FALSE, row.getEnabledApp());
+        assertEquals(7, row.getVersionCode());
+    }
+
+    @Test
+    public void view_isNotChangedByLaterWrites() {
+        AppRegistry.Apps before = registry.view();
+
+        registry.setEnabled(SNAPCHAT, true);
+        registry.setLabel(FACEBOOK, "Facebook Lite", 8);
+        registry.remove(CHROME);
+        registry.put(app("org.mozilla.firefox", "Firefox", true, true));
+
+        assertEquals(3, before.size());
+        assertFalse(before.isEnabled(before.indexOf(SNAPCHAT)));
+        assertEquals("Facebook", before.getLabel(before.indexOf(FACEBOOK)));
+        assertEquals(2, before.indexOf(CHROME));
+        assertEquals(-1, before.indexOf("org.mozilla.firefox"));
+
+        AppRegistry.Apps after = registry.view();
+        assertEquals(3, after.size());
+        assertTrue(after.isEnabled(after.indexOf(SNAPCHAT)));
+        assertEquals("Facebook Lite", after.getLabel(after.indexOf(FACEBOOK)));
+        assertEquals(-1, after.indexOf(CHROME));
+    }
+
+    @Test
+    public void setters_reportWhetherSomethingChanged() {
+        assertFalse(registry.setEnabled(FACEBOOK, true));
+        assertTrue(registry.setEnabled(FACEBOOK, false));
+        assertFalse(registry.setEnabled("not.installed", true));
+        assertTrue(registry.setTransient(CHROME, true));
+        assertFalse(registry.setLabel(CHROME, "Chrome", 7));
+        assertTrue(registry.setLabel(CHROME, "Chrome", 8));
+        assertTrue(registry.setLastUsed(CHROME, 42));
+
+        assertEquals(Boolean.FALSE, registry.isEnabled(FACEBOOK));
+        assertEquals(Boolean.TRUE, registry.isTransient(CHROME));
+        assertNull(registry.isEnabled("not.installed"));
+    }
+
+    @Test
+    public void getPackagesByState_matchesBothFlags() {
+        assertEquals(Collections.singletonList(FACEBOOK), registry.getPackagesByState(true, true));
+        assertEquals(Collections.singletonList(SNAPCHAT), registry.getPackagesByState(true, false));
+        assertEquals(Collections.singletonList(CHROME), registry.getPackagesByState(false, true));
+        assertTrue(registry.getPackagesByState(false, false).isEmpty());
+
+        registry.remove(FACEBOOK);
+        assertTrue(registry.getPackagesByState(true, true).isEmpty());
+    }
+
+    @Test
+    public void removedApp_getsItsPlaceBackWhenAddedAgain() {
+        registry.remove(SNAPCHAT);
+        assertFalse(registry.contains(SNAPCHAT));
+        assertEquals(Arrays.asList(FACEBOOK, CHROME), registry.getPackageNames());
+
+        registry.put(app(SNAPCHAT, "Snapchat", true, true));
+
+        assertEquals(Arrays.asList(FACEBOOK, SNAPCHAT, CHROME), registry.getPackageNames());
+        assertEquals(Boolean.TRUE, registry.isEnabled(SNAPCHAT));
+    }
+
+    @Test
+    public void manyApps_growAndCompactKeepingTheOrder() {
+        List<String> kept = new ArrayList<>(Arrays.asList(FACEBOOK, SNAPCHAT, CHROME));
+        for (int i = 0; i < 1000; i++) {
+            registry.put(app("com.example.app" + i, "App " + i, i % 2 == 0, i % 3 == 0));
+            if (i % 10 == 0) {
+                kept.add("com.example.app" + i);
+            }
+        }
+        AppRegistry.Apps full = registry.view();
+
+        // Remove 9 apps out of 10: the IDs get packed again on the way
+        for (int i = 0; i < 1000; i++) {
+            if (i % 10 != 0) {
+                assertTrue(registry.remove("com.example.app" + i));
+            }
+        }
+
+        assertEquals(kept, registry.getPackageNames());
+        AppRegistry.Apps apps = registry.view();
+        assertEquals(kept.size(), apps.size());
+        int pos = apps.indexOf("com.example.app990");
+        assertEquals("App 990", apps.getLabel(pos));
+        assertTrue(apps.isEnabled(pos));
+        assertTrue(apps.isTransient(pos));
+        assertEquals(1003, full.size());
+        assertEquals("App 999", full.getLabel(full.indexOf("com.example.app999")));
+    }
+
+    @Test
+    public void select_keepsTheGivenOrder() {
+        AppRegistry.Apps some = registry.view().select(Arrays.asList(CHROME, "not.installed", FACEBOOK));
+
+        assertEquals(2, some.size());
+        assertEquals(CHROME, some.getPackageName(0));
+        assertEquals(FACEBOOK, some.getPackageName(1));
+        assertEquals(1, some.indexOf(FACEBOOK));
+        assertEquals(-1, some.indexOf(SNAPCHAT));
+    }
+
+    @Test
+    public void clear_leavesViewsAlone() {
+        AppRegistry.Apps before = registry.view();
+
+        registry.clear();
+
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.view().size());
+        assertEquals(3, before.size());
+        assertEquals(0, before.indexOf(FACEBOOK));
+    }
+}
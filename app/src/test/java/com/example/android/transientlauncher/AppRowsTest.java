@@ -0,0 +1,46 @@
+package com.example.android.transientlauncher;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link AppRows}.
+ */
+public class AppRowsTest {
+
+    @Test
+    public void add_classifiesAndKeepsThePmValues() {
+        AppRows rows = new AppRows(TransiencyPolicy.builtIn(Boolean.FALSE), 2);
+        rows.add("com.android.chrome", 1000L, "/data/app/com.android.chrome-1/base.apk");
+        rows.add("com.facebook.katana", 2000L, null);
+
+        List<AppMetadata> apps = rows.get();
+        assertEquals(2, apps.size());
+
+        AppMetadata chrome = apps.get(0);
+        assertEquals("com.android.chrome", chrome.getPackageName());
+        assertEquals("com.android.chrome", chrome.getAppName());
+        assertEquals(Boolean.TRUE, chrome.getEnabledApp());
+        assertEquals(Boolean.FALSE, chrome.getTransientApp());
+        assertEquals(1000L, chrome.getLastUpdateTime());
+        assertEquals("/data/app/com.android.chrome-1/base.apk", chrome.getSourceDir());
+        assertEquals(AppMetadata.UNKNOWN_VERSION, chrome.getVersionCode());
+
+        AppMetadata facebook = apps.get(1);
+        assertEquals(Boolean.TRUE, facebook.getTransientApp());
+        assertEquals(2000L, facebook.getLastUpdateTime());
+        assertNull(facebook.getSourceDir());
+    }
+
+    @Test
+    public void newRow_isNotAdded() {
+        AppRows rows = new AppRows(TransiencyPolicy.builtIn(Boolean.TRUE), 0);
+        AppMetadata app = AppRows.newRow(TransiencyPolicy.builtIn(Boolean.TRUE), "com.facebook.katana", 5L, "/a.apk");
+
+        assertEquals(Boolean.TRUE, app.getTransientApp());
+        assertTrue(rows.get().isEmpty());
+    }
+}
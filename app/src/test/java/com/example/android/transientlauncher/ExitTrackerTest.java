@@ -0,0 +1,162 @@
+package com.example.android.transientlauncher;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ExitTracker}.
+ */
+public class ExitTrackerTest {
+
+    private static final long GRACE = 30000;
+    private static final String FACEBOOK = "com.facebook.katana";
+    private static final String SNAPCHAT = "com.snapchat.android";
+
+    private ExitTracker tracker;
+
+    @Before
+    public void setUp() {
+        tracker = new ExitTracker(GRACE);
+    }
+
+    @Test
+    public void expired_onlyAfterGracePeriodInBackground() {
+        tracker.onForeground(FACEBOOK, 1000);
+        List<String> candidates = Collections.singletonList(FACEBOOK);
+
+        assertTrue(tracker.expired(candidates, 100000).isEmpty());
+
+        tracker.onBackground(FACEBOOK, 100000);
+        assertTrue(tracker.expired(candidates, 100000 + GRACE - 1).isEmpty());
+        assertEquals(candidates, tracker.expired(candidates, 100000 + GRACE));
+    }
+
+    @Test
+    public void onLauncherShown_movesForegroundAppsToBackground() {
+        tracker.onForeground(FACEBOOK, 1000);
+        assertEquals(1000 + ExitTracker.FOREGROUND_RECHECK_MS, tracker.nextCheckTime(1000));
+
+        tracker.onLauncherShown(5000);
+
+        assertEquals(5000 + GRACE, tracker.nextCheckTime(5000));
+    }
+
+    @Test
+    public void olderEventsDoNotOverrideNewerOnes() {
+        tracker.onLauncherShown(0);
+        tracker.onForeground(FACEBOOK, 10000);
+        tracker.onBackground(FACEBOOK, 5000);
+
+        assertTrue(tracker.expired(Collections.singletonList(FACEBOOK), 10000 + 2 * GRACE).isEmpty());
+    }
+
+    @Test
+    public void stillRunning_backsOffUpToTheMaximum() {
+        tracker.onBackground(FACEBOOK, 0);
+        long now = GRACE;
+        long previousWait = 0;
+        for (int i = 0; i < 20; i++) {
+            tracker.stillRunning(FACEBOOK, now);
+            long wait = tracker.nextCheckTime(now) - now;
+            assertTrue(wait >= previousWait);
+            assertTrue(wait <= ExitTracker.MAX_RETRY_MS);
+            previousWait = wait;
+            now += wait;
+        }
+        assertEquals(ExitTracker.MAX_RETRY_MS, previousWait);
+    }
+
+    @Test
+    public void expired_stopsTrackingAppsThatAreNoLongerCandidates() {
+        tracker.onBackground(FACEBOOK, 0);
+        tracker.onBackground(SNAPCHAT, 0);
+
+        assertEquals(Collections.singletonList(SNAPCHAT), tracker.expired(Collections.singletonList(SNAPCHAT), GRACE));
+
+        tracker.forget(SNAPCHAT);
+        assertTrue(tracker.isEmpty());
+        assertEquals(ExitTracker.NONE, tracker.nextCheckTime(GRACE));
+    }
+
+    @Test
+    public void expired_newCandidatesGetAFullGracePeriod() {
+        List<String> candidates = Arrays.asList(FACEBOOK, SNAPCHAT);
+
+        assertTrue(tracker.expired(candidates, 1000).isEmpty());
+        assertEquals(2, tracker.expired(candidates, 1000 + GRACE).size());
+    }
+
+    @Test
+    public void preEnabledApps_areKeptWhileTheLauncherIsShown() {
+        List<String> candidates = Arrays.asList(FACEBOOK, SNAPCHAT);
+        List<String> preEnabled = Collections.singletonList(SNAPCHAT);
+        tracker.onLauncherShown(0);
+        assertTrue(tracker.expired(candidates, preEnabled, 0).isEmpty());
+
+        assertEquals(Collections.singletonList(FACEBOOK), tracker.expired(candidates, preEnabled, GRACE));
+        assertTrue(tracker.expired(candidates, preEnabled, 10 * GRACE).contains(FACEBOOK));
+        assertFalse(tracker.expired(candidates, preEnabled, 10 * GRACE).contains(SNAPCHAT));
+
+        // Their grace period starts once the launcher is hidden
+        tracker.onLauncherHidden(20 * GRACE);
+        assertFalse(tracker.expired(candidates, preEnabled, 21 * GRACE - 1).contains(SNAPCHAT));
+        assertTrue(tracker.expired(candidates, preEnabled, 21 * GRACE).contains(SNAPCHAT));
+    }
+
+    @Test
+    public void preEnabledApps_expireNormallyWhileTheLauncherIsHidden() {
+        List<String> preEnabled = Collections.singletonList(SNAPCHAT);
+        tracker.onLauncherShown(0);
+        tracker.onLauncherHidden(1000);
+
+        assertTrue(tracker.expired(preEnabled, preEnabled, 1000).isEmpty());
+        assertEquals(preEnabled, tracker.expired(preEnabled, preEnabled, 1000 + GRACE));
+    }
+
+    @Test
+    public void launchedPreEnabledApp_isNoLongerHeld() {
+        List<String> preEnabled = Collections.singletonList(SNAPCHAT);
+        tracker.onLauncherShown(0);
+        assertTrue(tracker.expired(preEnabled, preEnabled, 0).isEmpty());
+        assertEquals(ExitTracker.FOREGROUND_RECHECK_MS, tracker.nextCheckTime(0));
+
+        tracker.onForeground(SNAPCHAT, 1000);
+        tracker.onLauncherShown(5000);
+
+        assertEquals(5000 + GRACE, tracker.nextCheckTime(5000));
+    }
+
+    @Test
+    public void enableAll_keepsEveryAppUntilTransiencyIsBackOn() {
+        List<String> candidates = Arrays.asList(FACEBOOK, SNAPCHAT);
+        tracker.onForeground(FACEBOOK, 0);
+        tracker.onLauncherShown(1000);
+
+        // Enable All: nothing expires and the service may stop
+        tracker.setTransiencyOff(true, 2000);
+        assertTrue(tracker.expired(candidates, 100 * GRACE).isEmpty());
+        assertEquals(ExitTracker.NONE, tracker.nextCheckTime(100 * GRACE));
+
+        // The user disabled an app: the others get a full grace period from then on
+        tracker.setTransiencyOff(false, 200 * GRACE);
+        assertTrue(tracker.expired(candidates, 201 * GRACE - 1).isEmpty());
+        assertEquals(candidates.size(), tracker.expired(candidates, 201 * GRACE).size());
+    }
+
+    @Test
+    public void watched_leavesOutPreEnabledAppsWhileTheLauncherIsShown() {
+        List<String> candidates = Arrays.asList(FACEBOOK, SNAPCHAT);
+        List<String> preEnabled = Collections.singletonList(SNAPCHAT);
+
+        assertEquals(Collections.singletonList(FACEBOOK), ExitTracker.watched(candidates, preEnabled, true, false));
+        assertEquals(candidates, ExitTracker.watched(candidates, preEnabled, false, false));
+        assertTrue(ExitTracker.watched(preEnabled, preEnabled, true, false).isEmpty());
+        assertTrue(ExitTracker.watched(candidates, preEnabled, false, true).isEmpty());
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.android.transientlauncher;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentile_isWithinTheBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 10000; micros++) {
+            histogram.record(micros);
+        }
+
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000, histogram.getMax());
+        assertEquals(5000, histogram.percentile(0.5), 5000 * 0.125);
+        assertEquals(9000, histogram.percentile(0.9), 9000 * 0.125);
+        assertEquals(9900, histogram.percentile(0.99), 9900 * 0.125);
+        assertEquals(10000, histogram.percentile(1.0));
+    }
+
+    @Test
+    public void percentile_neverExceedsMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+
+        assertEquals(1000, histogram.percentile(0.5));
+        assertEquals(0, new LatencyHistogram().percentile(0.99));
+    }
+
+    @Test
+    public void buckets_coverEveryValueInOrder() {
+        int previous = -1;
+        for (long value = 0; value < (1L << 20); value = value * 5 / 4 + 1) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(bucket >= previous);
+            assertTrue(value <= LatencyHistogram.upperBoundOf(bucket));
+            previous = bucket;
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void writeTo_readFrom_roundTrips() throws IOException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(120);
+        histogram.record(4500);
+        histogram.record(250000);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        histogram.writeTo(new DataOutputStream(bytes));
+        LatencyHistogram copy = LatencyHistogram.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(histogram.getCount(), copy.getCount());
+        assertEquals(histogram.getMax(), copy.getMax());
+        assertEquals(histogram.getMean(), copy.getMean());
+        assertEquals(histogram.percentile(0.5), copy.percentile(0.5));
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.android.transientlauncher;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LaunchPredictor}.
+ */
+public class LaunchPredictorTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long DAY = 24 * HOUR;
+    private static final String FACEBOOK = "com.facebook.katana";
+    private static final String SNAPCHAT = "com.snapchat.android";
+    private static final String INSTAGRAM = "com.instagram.android";
+    private static final List<String> ALL = Arrays.asList(FACEBOOK, SNAPCHAT, INSTAGRAM);
+
+    private LaunchPredictor predictor;
+
+    @Before
+    public void setUp() {
+        predictor = new LaunchPredictor(TimeZone.getTimeZone("UTC"));
+    }
+
+    @Test
+    public void predict_prefersAppsUsedAtThisTimeOfDay() {
+        // Facebook in the mornings, Snapchat in the evenings, for a week
+        for (int day = 0; day < 7; day++) {
+            predictor.add(new LaunchRecord(FACEBOOK, day * DAY + 8 * HOUR, null));
+            predictor.add(new LaunchRecord(SNAPCHAT, day * DAY + 20 * HOUR, null));
+        }
+
+        assertEquals(FACEBOOK, predictor.predict(ALL, null, 10 * DAY + 8 * HOUR, 1).get(0));
+        assertEquals(SNAPCHAT, predictor.predict(ALL, null, 10 * DAY + 21 * HOUR, 1).get(0));
+    }
+
+    @Test
+    public void predict_followsCoLaunchSequences() {
+        // Instagram usually comes right after Snapchat
+        for (int i = 0; i < 5; i++) {
+            predictor.add(new LaunchRecord(SNAPCHAT, i * DAY, null));
+            predictor.add(new LaunchRecord(INSTAGRAM, i * DAY + 60000, SNAPCHAT));
+            predictor.add(new LaunchRecord(FACEBOOK, i * DAY + 12 * HOUR, null));
+        }
+
+        List<String> predicted = predictor.predict(Arrays.asList(FACEBOOK, INSTAGRAM), SNAPCHAT, 5 * DAY + 6 * HOUR, 1);
+
+        assertEquals(Collections.singletonList(INSTAGRAM), predicted);
+    }
+
+    @Test
+    public void predict_recentAppsWinTies() {
+        predictor.add(new LaunchRecord(FACEBOOK, 12 * HOUR, null));
+        predictor.add(new LaunchRecord(SNAPCHAT, 3 * DAY + 12 * HOUR, null));
+
+        assertEquals(Arrays.asList(SNAPCHAT, FACEBOOK), predictor.predict(ALL, null, 4 * DAY + 12 * HOUR, 5));
+    }
+
+    @Test
+    public void predict_neverReturnsUnknownAppsOrMoreThanK() {
+        assertTrue(predictor.predict(ALL, null, DAY, 3).isEmpty());
+
+        predictor.add(new LaunchRecord(FACEBOOK, 0, null));
+        predictor.add(new LaunchRecord(SNAPCHAT, 0, FACEBOOK));
+
+        assertEquals(1, predictor.predict(ALL, FACEBOOK, HOUR, 1).size());
+        assertEquals(0.0, predictor.score(INSTAGRAM, FACEBOOK, HOUR), 0.0);
+    }
+
+    @Test
+    public void predict_skipsAppsUnderTheMinimumScore() {
+        // Facebook once, a week ago at night; Snapchat an hour ago
+        predictor.add(new LaunchRecord(FACEBOOK, 2 * HOUR, null));
+        predictor.add(new LaunchRecord(SNAPCHAT, 7 * DAY + 11 * HOUR, null));
+        long now = 7 * DAY + 12 * HOUR;
+
+        assertTrue(predictor.score(FACEBOOK, null, now) > 0);
+        assertTrue(predictor.score(FACEBOOK, null, now) < LaunchPredictor.MIN_SCORE);
+        assertEquals(Collections.singletonList(SNAPCHAT), predictor.predict(ALL, null, now, 3));
+    }
+}
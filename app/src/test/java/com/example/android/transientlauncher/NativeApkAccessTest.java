@@ -0,0 +1,27 @@
+package com.example.android.transientlauncher;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Runs the {@link ApkAccessContract} on {@link NativeApkAccess}. android.system.Os is not available on
+ * the JVM, so its stat and chmod calls are made through java.nio here.
+ */
+public class NativeApkAccessTest extends ApkAccessContract {
+
+    @Override
+    protected ApkAccess createAccess() {
+        return new NativeApkAccess() {
+            @Override
+            int stat(String path) throws IOException {
+                return toMode(Files.getPosixFilePermissions(Paths.get(path)));
+            }
+
+            @Override
+            void chmod(String path, int mode) throws IOException {
+                Files.setPosixFilePermissions(Paths.get(path), fromMode(mode));
+            }
+        };
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.android.transientlauncher;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PackageChangeLog}.
+ */
+public class PackageChangeLogTest {
+
+    private static final String FACEBOOK = "com.facebook.katana";
+    private static final String SNAPCHAT = "com.snapchat.android";
+    private static final String CHROME = "com.android.chrome";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private PackageChangeLog log;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), PackageChangeLog.FILE_NAME);
+        log = new PackageChangeLog(file, false);
+    }
+
+    @Test
+    public void read_keepsTheLastEventOfEachPackage() {
+        log.append(PackageChangeLog.ADDED, FACEBOOK);
+        log.append(PackageChangeLog.ADDED, SNAPCHAT);
+        log.append(PackageChangeLog.REPLACED, FACEBOOK);
+
+        PackageChangeLog.Changes changes = log.read();
+
+        assertFalse(changes.resync);
+        assertEquals(3, changes.records);
+        assertEquals(Arrays.asList(SNAPCHAT, FACEBOOK), new ArrayList<>(changes.events.keySet()));
+        assertEquals(Byte.valueOf(PackageChangeLog.REPLACED), changes.events.get(FACEBOOK));
+    }
+
+    @Test
+    public void emptyLog_hasNothingToSync() {
+        PackageChangeLog.Changes changes = log.read();
+
+        assertFalse(changes.resync);
+        assertTrue(changes.events.isEmpty());
+        log.consume(changes);
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void consume_keepsEventsLoggedAfterTheRead() {
+        log.append(PackageChangeLog.ADDED, FACEBOOK);
+        PackageChangeLog.Changes changes = log.read();
+        log.append(PackageChangeLog.REMOVED, SNAPCHAT);
+
+        log.consume(changes);
+
+        PackageChangeLog.Changes next = log.read();
+        assertEquals(1, next.records);
+        assertEquals(Byte.valueOf(PackageChangeLog.REMOVED), next.events.get(SNAPCHAT));
+        log.consume(next);
+        assertEquals(0, file.length());
+    }
+
+    @Test
+    public void fullLog_asksForOneFullSync() {
+        long length = -1;
+        for (int i = 0; file.length() != length; i++) {
+            length = file.length();
+            log.append(PackageChangeLog.CHANGED, "com.example.app" + i);
+        }
+        log.append(PackageChangeLog.ADDED, CHROME);
+
+        assertEquals(length, file.length());
+        assertTrue(file.length() <= PackageChangeLog.MAX_BYTES);
+        PackageChangeLog.Changes changes = log.read();
+        assertTrue(changes.resync);
+        assertFalse(changes.events.containsKey(CHROME));
+
+        log.consume(changes);
+        assertFalse(log.read().resync);
+    }
+
+    @Test
+    public void eventsFillingTheLogExactly_stillAskForAFullSync() {
+        // 32-byte records (21-character names): the last one would end exactly at MAX_BYTES
+        int records = (int) (PackageChangeLog.MAX_BYTES / 32);
+        for (int i = 0; i < records; i++) {
+            log.append(PackageChangeLog.CHANGED, String.format("com.example.app%06d", i));
+        }
+        log.append(PackageChangeLog.ADDED, CHROME);
+
+        PackageChangeLog.Changes changes = log.read();
+        assertTrue(changes.resync);
+        assertFalse(changes.events.containsKey(CHROME));
+        assertTrue(file.length() <= PackageChangeLog.MAX_BYTES);
+    }
+
+    @Test
+    public void manyPackages_asksForAFullSync() {
+        for (int i = 0; i <= PackageChangeLog.MAX_PACKAGES; i++) {
+            log.append(PackageChangeLog.ADDED, "com.example.app" + i);
+        }
+
+        assertTrue(log.read().resync);
+    }
+
+    @Test
+    public void cutShortRecord_asksForAFullSync() throws IOException {
+        log.append(PackageChangeLog.ADDED, FACEBOOK);
+        log.append(PackageChangeLog.ADDED, SNAPCHAT);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        PackageChangeLog.Changes changes = log.read();
+
+        assertTrue(changes.resync);
+        log.consume(changes);
+        assertEquals(0, file.length());
+    }
+
+    @Test
+    public void requestResync_andMissedEvents_askForAFullSyncOnce() {
+        log.requestResync();
+        PackageChangeLog.Changes changes = log.read();
+        assertTrue(changes.resync);
+        log.consume(changes);
+        assertFalse(log.read().resync);
+
+        // New process on a device that does not log events while it is not running
+        PackageChangeLog restarted = new PackageChangeLog(file, true);
+        changes = restarted.read();
+        assertTrue(changes.resync);
+        restarted.consume(changes);
+        assertFalse(restarted.read().resync);
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.android.transientlauncher;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ProcScanner}, run against a fake /proc directory.
+ */
+public class ProcScannerTest {
+
+    @Rule
+    public TemporaryFolder procRoot = new TemporaryFolder();
+
+    private ProcScanner scanner;
+
+    @Before
+    public void setUp() {
+        scanner = new ProcScanner(procRoot.getRoot());
+    }
+
+    @Test
+    public void scan_findsAppPackagesOfAnyPrefix() throws IOException {
+        addProcess("100", "com.example.android.hellotoast");
+        addProcess("101", "org.mozilla.firefox");
+        addProcess("102", "net.example.app");
+        addProcess("103", "com.whatsapp");
+
+        Set<String> running = scanner.scan();
+
+        assertEquals(4, running.size());
+        assertTrue(running.contains("com.example.android.hellotoast"));
+        assertTrue(running.contains("org.mozilla.firefox"));
+        assertTrue(running.contains("net.example.app"));
+        assertTrue(running.contains("com.whatsapp"));
+    }
+
+    @Test
+    public void scan_stripsProcessSuffixAndArguments() throws IOException {
+        addProcess("200", "com.facebook.katana:remote");
+        addProcess("201", "com.snapchat.android\0--flag\0");
+
+        Set<String> running = scanner.scan();
+
+        assertEquals(2, running.size());
+        assertTrue(running.contains("com.facebook.katana"));
+        assertTrue(running.contains("com.snapchat.android"));
+    }
+
+    @Test
+    public void scan_ignoresNonAppProcesses() throws IOException {
+        addProcess("1", "/system/bin/init\0second_stage\0");
+        addProcess("2", "");
+        addProcess("300", "zygote");
+        addProcess("301", "system_server");
+        addProcess("302", "com.");
+        new File(procRoot.getRoot(), "self").mkdir();
+        new File(procRoot.getRoot(), "meminfo").createNewFile();
+
+        assertTrue(scanner.scan().isEmpty());
+    }
+
+    @Test
+    public void scan_skipsPidsWithoutCmdline() throws IOException {
+        procRoot.newFolder("400");
+        addProcess("401", "com.instagram.android");
+
+        Set<String> running = scanner.scan();
+
+        assertEquals(1, running.size());
+        assertTrue(running.contains("com.instagram.android"));
+    }
+
+    @Test
+    public void scan_reflectsProcessesThatExited() throws IOException {
+        addProcess("500", "com.example.android.metis");
+        assertTrue(scanner.scan().contains("com.example.android.metis"));
+
+        new File(new File(procRoot.getRoot(), "500"), "cmdline").delete();
+        new File(procRoot.getRoot(), "500").delete();
+        assertFalse(scanner.scan().contains("com.example.android.metis"));
+    }
+
+    @Test
+    public void statOf_readsParentAndStartTime() throws IOException {
+        addProcess("600", "com.whatsapp");
+        FileOutputStream out = new FileOutputStream(new File(new File(procRoot.getRoot(), "600"), "stat"));
+        try {
+            out.write("600 (odd) name) S 512 600 0 0 -1 1077952832 100 0 0 0 5 3 0 0 20 0 30 0 424242 100000 5000\n"
+                    .getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+
+        ProcScanner.Stat stat = scanner.statOf("600");
+
+        assertEquals(512, stat.parentPid);
+        assertEquals(424242, stat.startTime);
+        assertNull(scanner.statOf("601"));
+        assertFalse(ProcScanner.isFinalName("<pre-initialized>", 512));
+        assertFalse(ProcScanner.isFinalName("", 512));
+        assertTrue(ProcScanner.isFinalName("", ProcScanner.KTHREADD_PID));
+    }
+
+    @Test
+    public void scan_missingProcRootIsEmpty() {
+        ProcScanner missing = new ProcScanner(new File(procRoot.getRoot(), "nowhere"));
+        assertTrue(missing.scan().isEmpty());
+    }
+
+    private void addProcess(String pid, String cmdline) throws IOException {
+        File dir = new File(procRoot.getRoot(), pid);
+        dir.mkdir();
+        FileOutputStream out = new FileOutputStream(new File(dir, "cmdline"));
+        try {
+            out.write(cmdline.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.android.transientlauncher;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ProcessSnapshot}, run against a fake /proc directory.
+ */
+public class ProcessSnapshotTest {
+
+    @Rule
+    public TemporaryFolder procRoot = new TemporaryFolder();
+
+    private ProcessSnapshot snapshot;
+
+    @Before
+    public void setUp() throws IOException {
+        addProcess("100", "com.facebook.katana");
+        addProcess("101", "com.snapchat.android");
+        snapshot = new ProcessSnapshot(new ProcScanner(procRoot.getRoot()), 60000);
+    }
+
+    @Test
+    public void isAppRunning_servesFromSnapshotUntilInvalidated() throws IOException {
+        assertTrue(snapshot.isAppRunning("com.facebook.katana"));
+        assertFalse(snapshot.isAppRunning("com.instagram.android"));
+
+        // Within the refresh interval a new process is not seen
+        addProcess("102", "com.instagram.android");
+        assertFalse(snapshot.isAppRunning("com.instagram.android"));
+
+        snapshot.invalidate();
+        assertTrue(snapshot.isAppRunning("com.instagram.android"));
+    }
+
+    @Test
+    public void refresh_dropsDeadProcesses() {
+        assertTrue(snapshot.isAppRunning("com.snapchat.android"));
+
+        removeProcess("101");
+        snapshot.invalidate();
+
+        assertFalse(snapshot.isAppRunning("com.snapchat.android"));
+        assertTrue(snapshot.isAppRunning("com.facebook.katana"));
+    }
+
+    @Test
+    public void refresh_zeroIntervalAlwaysRescans() throws IOException {
+        snapshot.setRefreshInterval(0);
+        assertFalse(snapshot.isAppRunning("com.example.android.metis"));
+
+        addProcess("103", "com.example.android.metis");
+        assertTrue(snapshot.isAppRunning("com.example.android.metis"));
+    }
+
+    @Test
+    public void runningAmong_returnsOnlyRunningPackages() {
+        Set<String> running = snapshot.runningAmong(Arrays.asList(
+                "com.facebook.katana", "com.instagram.android", "com.snapchat.android"));
+
+        assertEquals(2, running.size());
+        assertTrue(running.contains("com.facebook.katana"));
+        assertTrue(running.contains("com.snapchat.android"));
+        assertTrue(snapshot.runningAmong(Collections.<String>emptyList()).isEmpty());
+    }
+
+    @Test
+    public void refresh_readsAgainAZygoteChildUntilItIsRenamed() throws IOException {
+        addProcess("104", "<pre-initialized>", 5000);
+        addProcess("105", "", 5000);
+        snapshot.invalidate();
+        assertFalse(snapshot.isAppRunning("com.whatsapp"));
+
+        // Same process (same start time), now named after its package
+        addProcess("104", "com.whatsapp", 5000);
+        addProcess("105", "com.instagram.android", 5000);
+        snapshot.invalidate();
+
+        assertTrue(snapshot.isAppRunning("com.whatsapp"));
+        assertTrue(snapshot.isAppRunning("com.instagram.android"));
+    }
+
+    @Test
+    public void refresh_readsAgainAReusedPid() throws IOException {
+        assertTrue(snapshot.isAppRunning("com.snapchat.android"));
+
+        // Snapchat exited and its pid went to another app between two refreshes
+        addProcess("101", "com.whatsapp", 9000);
+        snapshot.invalidate();
+
+        assertFalse(snapshot.isAppRunning("com.snapchat.android"));
+        assertTrue(snapshot.isAppRunning("com.whatsapp"));
+    }
+
+    @Test
+    public void refresh_keepsDaemonsAndKernelThreadsOnceRead() throws IOException {
+        addProcess("106", "/system/bin/surfaceflinger", 10);
+        addProcess("107", "", 10, 2);
+        snapshot.invalidate();
+        snapshot.getRunningPackages();
+
+        // A final name is not read again while the process lives
+        addProcess("106", "com.example.not.read", 10);
+        addProcess("107", "com.example.not.read.either", 10, 2);
+        snapshot.invalidate();
+
+        assertFalse(snapshot.isAppRunning("com.example.not.read"));
+        assertFalse(snapshot.isAppRunning("com.example.not.read.either"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void getRunningPackages_isImmutable() {
+        snapshot.getRunningPackages().add("com.example.android.hellotoast");
+    }
+
+    private void addProcess(String pid, String cmdline) throws IOException {
+        addProcess(pid, cmdline, 1000);
+    }
+
+    private void addProcess(String pid, String cmdline, long startTime) throws IOException {
+        addProcess(pid, cmdline, startTime, 600);
+    }
+
+    private void addProcess(String pid, String cmdline, long startTime, long parentPid) throws IOException {
+        File dir = new File(procRoot.getRoot(), pid);
+        dir.mkdir();
+        write(new File(dir, "cmdline"), cmdline);
+        write(new File(dir, "stat"), pid + " (app (main)) S " + parentPid
+                + " 600 0 0 -1 1077952832 100 0 0 0 5 3 0 0 20 0 30 0 " + startTime + " 100000 5000\n");
+    }
+
+    private void removeProcess(String pid) {
+        File dir = new File(procRoot.getRoot(), pid);
+        new File(dir, "cmdline").delete();
+        new File(dir, "stat").delete();
+        dir.delete();
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+    }
+}
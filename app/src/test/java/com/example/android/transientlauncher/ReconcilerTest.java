@@ -0,0 +1,105 @@
+package com.example.android.transientlauncher;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link Reconciler}.
+ */
+public class ReconcilerTest {
+
+    private static final String FACEBOOK = "com.facebook.katana";
+    private static final String SNAPCHAT = "com.snapchat.android";
+    private static final String CHROME = "com.android.chrome";
+
+    private static AppMetadata app(String packageName, boolean enabled) {
+        return new AppMetadata(packageName, packageName, enabled, Boolean.TRUE);
+    }
+
+    @Test
+    public void plan_matchingAppsNeedNothing() {
+        List<AppMetadata> apps = Arrays.asList(app(FACEBOOK, true), app(SNAPCHAT, false));
+        Map<String, Integer> modes = new HashMap<>();
+        modes.put(FACEBOOK, 0644);
+        modes.put(SNAPCHAT, 0200);
+
+        Reconciler.Plan plan = Reconciler.plan(apps, modes, Reconciler.REPAIR_FILES);
+
+        assertEquals(2, plan.checked);
+        assertEquals(0, plan.mismatched);
+        assertTrue(plan.filesToEnable.isEmpty() && plan.filesToDisable.isEmpty());
+        assertTrue(plan.rowsToEnable.isEmpty() && plan.rowsToDisable.isEmpty());
+    }
+
+    @Test
+    public void plan_repairFiles_followsTheDb() {
+        // Snapchat was reinstalled (readable again), Facebook's APK was made unreadable by hand
+        List<AppMetadata> apps = Arrays.asList(app(FACEBOOK, true), app(SNAPCHAT, false));
+        Map<String, Integer> modes = new HashMap<>();
+        modes.put(FACEBOOK, 0200);
+        modes.put(SNAPCHAT, 0644);
+
+        Reconciler.Plan plan = Reconciler.plan(apps, modes, Reconciler.REPAIR_FILES);
+
+        assertEquals(2, plan.mismatched);
+        assertEquals(Collections.singletonList(FACEBOOK), plan.filesToEnable);
+        assertEquals(Collections.singletonList(SNAPCHAT), plan.filesToDisable);
+        assertTrue(plan.rowsToEnable.isEmpty() && plan.rowsToDisable.isEmpty());
+    }
+
+    @Test
+    public void plan_repairDb_followsTheFiles() {
+        List<AppMetadata> apps = Arrays.asList(app(FACEBOOK, true), app(SNAPCHAT, false));
+        Map<String, Integer> modes = new HashMap<>();
+        modes.put(FACEBOOK, 0200);
+        modes.put(SNAPCHAT, 0644);
+
+        Reconciler.Plan plan = Reconciler.plan(apps, modes, Reconciler.REPAIR_DB);
+
+        assertEquals(Collections.singletonList(SNAPCHAT), plan.rowsToEnable);
+        assertEquals(Collections.singletonList(FACEBOOK), plan.rowsToDisable);
+        assertTrue(plan.filesToEnable.isEmpty() && plan.filesToDisable.isEmpty());
+    }
+
+    @Test
+    public void plan_partialReadBits_alwaysRepairTheFile() {
+        List<AppMetadata> apps = Arrays.asList(app(FACEBOOK, true), app(SNAPCHAT, false));
+        Map<String, Integer> modes = new HashMap<>();
+        modes.put(FACEBOOK, 0640);
+        modes.put(SNAPCHAT, 0600);
+
+        Reconciler.Plan plan = Reconciler.plan(apps, modes, Reconciler.REPAIR_DB);
+
+        assertEquals(Collections.singletonList(FACEBOOK), plan.filesToEnable);
+        assertEquals(Collections.singletonList(SNAPCHAT), plan.filesToDisable);
+        assertTrue(plan.rowsToEnable.isEmpty() && plan.rowsToDisable.isEmpty());
+    }
+
+    @Test
+    public void plan_appsWithoutMode_areCountedAsMissing() {
+        List<AppMetadata> apps = Arrays.asList(app(FACEBOOK, true), app(CHROME, false));
+        Map<String, Integer> modes = new HashMap<>();
+        modes.put(FACEBOOK, ApkAccess.NO_MODE);
+
+        Reconciler.Plan plan = Reconciler.plan(apps, modes, Reconciler.REPAIR_FILES);
+
+        assertEquals(2, plan.checked);
+        assertEquals(2, plan.missing);
+        assertEquals(0, plan.mismatched);
+    }
+
+    @Test
+    public void parsePolicy_fallsBackToTheDefault() {
+        assertEquals(Reconciler.REPAIR_DB, Reconciler.parsePolicy("db", Reconciler.REPAIR_FILES));
+        assertEquals(Reconciler.REPAIR_FILES, Reconciler.parsePolicy("files", Reconciler.REPAIR_DB));
+        assertEquals(Reconciler.REPAIR_DB, Reconciler.parsePolicy(null, Reconciler.REPAIR_DB));
+        assertEquals("db", Reconciler.policyName(Reconciler.REPAIR_DB));
+    }
+}
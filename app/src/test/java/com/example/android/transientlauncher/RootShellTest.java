@@ -0,0 +1,83 @@
+package com.example.android.transientlauncher;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link RootShell}, with "sh" in place of "su".
+ */
+public class RootShellTest {
+
+    private RootShell shell;
+
+    @After
+    public void tearDown() {
+        if (shell != null) {
+            shell.close();
+        }
+    }
+
+    @Test
+    public void run_framesTheOutputOfEachCommand() throws IOException {
+        shell = new RootShell("sh", 60 * 1000);
+
+        List<RootShell.Result> results = shell.run(Arrays.asList(
+                "echo one; echo two", "printf no-newline", "false", "echo 'it''s' >&2"));
+
+        assertEquals(Arrays.asList("one", "two"), results.get(0).output);
+        assertTrue(results.get(0).isSuccess());
+        assertEquals(Collections.singletonList("no-newline"), results.get(1).output);
+        assertEquals(1, results.get(2).exitCode);
+        assertTrue(results.get(2).output.isEmpty());
+        assertEquals(Collections.singletonList("its"), results.get(3).output);
+    }
+
+    @Test
+    public void run_restartsTheShellOnceItDied() throws Exception {
+        shell = new RootShell("sh", 60 * 1000);
+        String pid = shell.run("echo $$").output.get(0);
+
+        Runtime.getRuntime().exec(new String[]{"kill", "-9", pid}).waitFor();
+        Thread.sleep(100);
+
+        RootShell.Result result = shell.run("echo $$");
+        assertTrue(result.isSuccess());
+        assertNotEquals(pid, result.output.get(0));
+    }
+
+    @Test
+    public void idleShell_isClosed() throws Exception {
+        shell = new RootShell("sh", 200);
+        shell.start();
+        assertTrue(shell.isRunning());
+
+        Thread.sleep(800);
+
+        assertFalse(shell.isRunning());
+        assertEquals(Collections.singletonList("back"), shell.run("echo back").output);
+    }
+
+    @Test
+    public void hungCommand_timesOutAndFreesTheShell() throws IOException {
+        shell = new RootShell("sh", 60 * 1000, 300);
+
+        long start = System.nanoTime();
+        try {
+            shell.run("sleep 10");
+            fail("A command that does not answer should time out");
+        } catch (InterruptedIOException e) {
+            // Expected
+        }
+        assertTrue(System.nanoTime() - start < 5000L * 1000 * 1000);
+
+        assertEquals(Collections.singletonList("ok"), shell.run("echo ok").output);
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.android.transientlauncher;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SearchIndex}.
+ */
+public class SearchIndexTest {
+
+    private static final String MAPS = "com.google.android.apps.maps";
+    private static final String GMAIL = "com.google.android.gm";
+    private static final String FACEBOOK = "com.facebook.katana";
+    private static final String MESSENGER = "com.facebook.orca";
+    private static final String CAFE = "com.example.cafe";
+
+    private SearchIndex index;
+
+    private static AppMetadata app(String packageName, String label) {
+        return new AppMetadata(label, packageName, Boolean.TRUE, Boolean.TRUE);
+    }
+
+    @Before
+    public void setUp() {
+        index = new SearchIndex();
+        index.sync(AppRegistry.Apps.of(Arrays.asList(app(MAPS, "Maps"), app(GMAIL, "Gmail"),
+                app(FACEBOOK, "Facebook"), app(MESSENGER, "Messenger"), app(CAFE, "Caf\u00e9 Bistro"))));
+    }
+
+    @Test
+    public void search_matchesLabelPrefixes() {
+        assertEquals(Collections.singletonList(MAPS), index.search("ma", 10));
+        assertEquals(Collections.singletonList(CAFE), index.search("bis", 10));
+    }
+
+    @Test
+    public void search_matchesPackageNameSegments() {
+        assertEquals(Arrays.asList(FACEBOOK, MESSENGER), index.search("face", 10));
+        assertEquals(Collections.singletonList(MESSENGER), index.search("orca", 10));
+    }
+
+    @Test
+    public void search_ignoresCaseAndAccents() {
+        assertEquals(Collections.singletonList(CAFE), index.search("CAFE", 10));
+        assertEquals(Collections.singletonList(CAFE), index.search("caf\u00e9", 10));
+    }
+
+    @Test
+    public void search_needsEveryQueryWord() {
+        assertEquals(Collections.singletonList(MAPS), index.search("goo ma", 10));
+        assertEquals(Arrays.asList(GMAIL, MAPS), index.search("google", 10));
+        assertTrue(index.search("google face", 10).isEmpty());
+    }
+
+    @Test
+    public void search_ranksLabelMatchesFirst() {
+        index.put("com.example.gallery", "Gallery");
+
+        // Gmail and Gallery start with "g", Maps only has it in its package name
+        assertEquals(Arrays.asList("com.example.gallery", GMAIL, MAPS), index.search("g", 10));
+    }
+
+    @Test
+    public void search_emptyQueryAndLimit() {
+        assertTrue(index.search("", 10).isEmpty());
+        assertTrue(index.search("  . ", 10).isEmpty());
+        assertEquals(1, index.search("com", 1).size());
+    }
+
+    @Test
+    public void put_relabelReplacesTheOldWords() {
+        index.put(MAPS, "Navigation");
+
+        assertEquals(Collections.singletonList(MAPS), index.search("nav", 10));
+        assertEquals(Collections.singletonList(MESSENGER), index.search("mes", 10));
+
+        // "Maps" is only left in the package name: now behind the label match of Messenger
+        assertEquals(Arrays.asList(MESSENGER, MAPS), index.search("m", 10));
+    }
+
+    @Test
+    public void sync_onlyReindexesChangedApps() {
+        List<AppMetadata> apps = new ArrayList<>(Arrays.asList(app(MAPS, "Maps"), app(GMAIL, "Gmail"),
+                app(FACEBOOK, "Facebook"), app(MESSENGER, "Messenger"), app(CAFE, "Caf\u00e9 Bistro")));
+        assertEquals(0, index.sync(AppRegistry.Apps.of(apps)));
+
+        apps.remove(4);                                         // Uninstalled
+        apps.set(1, app(GMAIL, "Mail"));                        // Relabelled
+        apps.add(app("org.mozilla.firefox", "Firefox"));        // Installed
+
+        assertEquals(3, index.sync(AppRegistry.Apps.of(apps)));
+        assertEquals(5, index.size());
+        assertTrue(index.search("cafe", 10).isEmpty());
+        assertEquals(Collections.singletonList(GMAIL), index.search("mai", 10));
+        assertEquals(Collections.singletonList("org.mozilla.firefox"), index.search("fire", 10));
+    }
+
+    @Test
+    public void remove_dropsTheApp() {
+        index.remove(FACEBOOK);
+        index.remove("not.installed");
+
+        assertEquals(Collections.singletonList(MESSENGER), index.search("facebook", 10));
+        assertEquals(4, index.size());
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.android.transientlauncher;
+
+import org.junit.After;
+
+/**
+ * Runs the {@link ApkAccessContract} on {@link ShellApkAccess}, with "sh" in place of "su".
+ */
+public class ShellApkAccessTest extends ApkAccessContract {
+
+    private RootShell shell;
+
+    @Override
+    protected ApkAccess createAccess() {
+        shell = new RootShell("sh", 60 * 1000);
+        return new ShellApkAccess(shell);
+    }
+
+    @After
+    public void tearDown() {
+        if (shell != null) {
+            shell.close();
+        }
+    }
+}
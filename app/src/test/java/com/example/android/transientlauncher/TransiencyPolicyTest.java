@@ -0,0 +1,87 @@
+package com.example.android.transientlauncher;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TransiencyPolicy}.
+ */
+public class TransiencyPolicyTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static TransiencyPolicy parse(String config) throws IOException {
+        return TransiencyPolicy.parse(new StringReader(config));
+    }
+
+    @Test
+    public void isTransient_exactRulesWinOverPrefixes() throws IOException {
+        TransiencyPolicy policy = parse(
+                "# Platform apps stay, except one\n" +
+                "default deny\n" +
+                "prefix allow com.google\n" +
+                "deny com.google.android.youtube\n");
+
+        assertFalse(policy.isTransient("com.google.android.gm"));
+        assertTrue(policy.isTransient("com.google.android.youtube"));
+        assertFalse(policy.isTransient("com.google.android.youtube.tv"));
+        assertTrue(policy.isTransient("com.facebook.katana"));
+        assertEquals(2, policy.getRuleCount());
+    }
+
+    @Test
+    public void isTransient_longestPrefixWins() throws IOException {
+        TransiencyPolicy policy = parse(
+                "prefix allow com.example\n" +
+                "prefix deny com.example.games\n");
+
+        assertFalse(policy.isTransient("com.example.notes"));
+        assertTrue(policy.isTransient("com.example.games.chess"));
+        assertTrue(policy.isTransient("com.example.games"));
+        assertFalse(policy.isTransient("com.exam"));
+        assertFalse(policy.isTransient(""));
+    }
+
+    @Test
+    public void builtIn_matchesTheDemoList() {
+        TransiencyPolicy demo = TransiencyPolicy.builtIn(Boolean.TRUE);
+        assertTrue(demo.isTransient("com.facebook.katana"));
+        assertTrue(demo.isTransient("com.NikSanTech.FireDots3D"));
+        assertFalse(demo.isTransient("com.facebook.orca"));
+
+        TransiencyPolicy regular = TransiencyPolicy.builtIn(Boolean.FALSE);
+        assertFalse(regular.isTransient("com.android.chrome"));
+        assertFalse(regular.isTransient("com.example.android.transientlauncher"));
+        assertTrue(regular.isTransient("com.facebook.katana"));
+    }
+
+    @Test(expected = IOException.class)
+    public void parse_rejectsMalformedRules() throws IOException {
+        parse("prefix maybe com.example\n");
+    }
+
+    @Test
+    public void load_fallsBackToBuiltInRules() throws IOException {
+        File file = new File(folder.getRoot(), TransiencyPolicy.FILE_NAME);
+        assertTrue(TransiencyPolicy.load(file, Boolean.TRUE).isTransient("com.facebook.katana"));
+
+        FileWriter writer = new FileWriter(file);
+        writer.write("allow com.facebook.katana\n");
+        writer.close();
+        assertFalse(TransiencyPolicy.load(file, Boolean.TRUE).isTransient("com.facebook.katana"));
+
+        writer = new FileWriter(file);
+        writer.write("not a rule\n");
+        writer.close();
+        assertTrue(TransiencyPolicy.load(file, Boolean.TRUE).isTransient("com.facebook.katana"));
+    }
+}
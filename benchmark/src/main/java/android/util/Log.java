@@ -0,0 +1,37 @@
+package android.util;
+
+
+
+/*
+Class           Log
+Description     Stand-in for android.util.Log on the desktop JVM: warnings and errors go to stderr,
+                the rest is dropped so it does not show up in the measurements.
+ */
+public final class Log {
+
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+
+    public static int i(String tag, String msg) {
+        return 0;
+    }
+
+    public static int w(String tag, String msg) {
+        System.err.println("W/" + tag + ": " + msg);
+        return 0;
+    }
+
+    public static int e(String tag, String msg) {
+        System.err.println("E/" + tag + ": " + msg);
+        return 0;
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        System.err.println("E/" + tag + ": " + msg + " " + tr);
+        return 0;
+    }
+
+    private Log() {
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.android.transientlauncher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+
+/*
+Class           App Access Benchmark
+Description     The shell side of TransiencyManager.enableApp/disableApp and enableApps/disableApps:
+                ShellApkAccess.setReadable on the APK files, with "sh" in place of "su".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AppAccessBenchmark {
+
+    /** Attributes **/
+    @Param({"10", "100", "1000", "10000"})
+    public int packages;
+
+    private File directory;
+    private RootShell shell;
+    private ApkAccess apkAccess;
+    private List<String> apks;
+    private boolean enabled = true;
+
+
+
+
+    /** Methods **/
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("apks").toFile();
+        apks = FakePackages.createApks(directory, FakePackages.packageNames(packages));
+
+        shell = new RootShell("sh", 60 * 60 * 1000);
+        shell.start();
+        apkAccess = new ShellApkAccess(shell);
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        shell.close();
+        FakePackages.deleteRecursively(directory);
+    }
+
+
+    /*
+    Name                toggleOne
+    Description         enableApp or disableApp: one chmod round trip
+     */
+    @Benchmark
+    public ApkAccess.Result toggleOne() throws IOException {
+        enabled = !enabled;
+        return apkAccess.setReadable(apks.subList(0, 1), enabled);
+    }
+
+
+    /*
+    Name                toggleAllPipelined
+    Description         enableApps or disableApps: every chmod written at once, then all results read
+     */
+    @Benchmark
+    public ApkAccess.Result toggleAllPipelined() throws IOException {
+        enabled = !enabled;
+        return apkAccess.setReadable(apks, enabled);
+    }
+
+
+    /*
+    Name                toggleAllOneByOne
+    Description         enableApp or disableApp called for every app (baseline of toggleAllPipelined)
+     */
+    @Benchmark
+    public int toggleAllOneByOne() throws IOException {
+        enabled = !enabled;
+        int succeeded = 0;
+        for (int i = 0; i < apks.size(); i++) {
+            if (apkAccess.setReadable(apks.subList(i, i + 1), enabled).succeeded.get(0)) {
+                succeeded++;
+            }
+        }
+        return succeeded;
+    }
+}
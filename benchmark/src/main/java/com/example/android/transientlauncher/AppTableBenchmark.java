@@ -0,0 +1,117 @@
+package com.example.android.transientlauncher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+
+/*
+Class           App Table Benchmark
+Description     The AppMetadataRoomDatabase operations on apps_table: read all rows, bulk flag updates
+                (chunked IN, one transaction) against one update per row, and the write-through upsert.
+                The sweeps compare reading every row and filtering it with the indexed state projection.
+
+Notes           One package in four is transient.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AppTableBenchmark {
+
+    /** Attributes **/
+    @Param({"10", "100", "1000", "10000"})
+    public int packages;
+
+    private AppsTable table;
+    private List<String> packageNames;
+    private List<AppMetadata> rows;
+    private boolean flag;
+
+
+
+
+    /** Methods **/
+    @Setup
+    public void setUp() throws SQLException {
+        packageNames = FakePackages.packageNames(packages);
+        rows = new ArrayList<>(packageNames.size());
+        for (int i = 0; i < packageNames.size(); i++) {
+            String packageName = packageNames.get(i);
+            AppMetadata app = new AppMetadata(packageName, packageName, Boolean.TRUE, i % 4 == 0);
+            app.setSourceDir("/data/app/" + packageName + "-1/base.apk");
+            rows.add(app);
+        }
+        table = new AppsTable();
+        table.insertAll(rows);
+    }
+
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        table.close();
+    }
+
+
+    @Benchmark
+    public List<AppMetadata> getAllApps() throws SQLException {
+        return table.getAllApps();
+    }
+
+
+    @Benchmark
+    public List<String> sweepAllRows() throws SQLException {
+        List<String> candidates = new ArrayList<>();
+        for (AppMetadata app : table.getAllApps()) {
+            if (app.getEnabledApp() == Boolean.TRUE && app.getTransientApp() == Boolean.TRUE) {
+                candidates.add(app.getPackageName());
+            }
+        }
+        return candidates;
+    }
+
+
+    @Benchmark
+    public List<String> sweepProjection() throws SQLException {
+        return table.getPackagesByState(true, true);
+    }
+
+
+    @Benchmark
+    public void updateAppsEnabled() throws SQLException {
+        flag = !flag;
+        table.updateEnableFields(packageNames, flag);
+    }
+
+
+    @Benchmark
+    public void updateAppEnabledEach() throws SQLException {
+        flag = !flag;
+        for (String packageName : packageNames) {
+            table.updateEnableField(packageName, flag);
+        }
+    }
+
+
+    @Benchmark
+    public void insertApps() throws SQLException {
+        table.insertAll(rows);
+    }
+}
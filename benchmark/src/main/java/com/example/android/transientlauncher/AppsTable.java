@@ -0,0 +1,220 @@
+package com.example.android.transientlauncher;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+
+
+/*
+Class           Apps Table
+Description     In-memory SQLite stand-in for apps_table, running the statements of AppMetadataDao
+                (Room needs the Android SQLite classes, which are not available on the desktop JVM).
+
+Notes           The @Query statements are the DAO's own constants, their ":name" parameters bound by
+                position. The schema and the insert are generated by Room from AppMetadata, there is no
+                constant to share: they mirror the current DB version.
+ */
+class AppsTable implements AutoCloseable {
+
+    /** Attributes **/
+    static final int MAX_BOUND_NAMES = 500;     // Same chunking as AppMetadataRoomDatabase
+
+    private final Connection connection;
+
+
+
+
+    /** Constructor **/
+    AppsTable() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        Statement statement = connection.createStatement();
+        statement.execute("CREATE TABLE apps_table (packageName TEXT NOT NULL PRIMARY KEY, appName TEXT, "
+                + "enabledApp INTEGER, transientApp INTEGER, lastUpdateTime INTEGER NOT NULL DEFAULT 0, "
+                + "versionCode INTEGER NOT NULL DEFAULT -1, lastUsed INTEGER NOT NULL DEFAULT 0, sourceDir TEXT)");
+        statement.execute("CREATE INDEX index_apps_table_transientApp_enabledApp ON apps_table (transientApp, enabledApp)");
+        statement.execute("CREATE INDEX index_apps_table_lastUsed ON apps_table (lastUsed)");
+        statement.execute("CREATE INDEX index_apps_table_sourceDir ON apps_table (sourceDir)");
+        statement.close();
+    }
+
+
+
+
+    /** Methods **/
+    /*
+    Name                insertAll
+    Description         AppMetadataDao.insertAll: insert or replace the rows, in one transaction
+     */
+    void insertAll(List<AppMetadata> apps) throws SQLException {
+
+        connection.setAutoCommit(false);
+        try {
+            PreparedStatement insert = prepareInsert();
+            for (AppMetadata app : apps) {
+                bind(insert, app);
+                insert.executeUpdate();
+            }
+            insert.close();
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+
+    /*
+    Name                insertEach
+    Description         AppMetadataDao.insert once per row, each in its own transaction (how the first load
+                        used to be done, kept as the baseline)
+     */
+    void insertEach(List<AppMetadata> apps) throws SQLException {
+
+        PreparedStatement insert = prepareInsert();
+        for (AppMetadata app : apps) {
+            bind(insert, app);
+            insert.executeUpdate();
+        }
+        insert.close();
+    }
+
+
+    /*
+    Name                updateEnableFields
+    Description         AppMetadataDao.updateEnableFields, chunked, in one transaction
+     */
+    void updateEnableFields(List<String> names, boolean flag) throws SQLException {
+
+        connection.setAutoCommit(false);
+        try {
+            for (int from = 0; from < names.size(); from += MAX_BOUND_NAMES) {
+                List<String> chunk = names.subList(from, Math.min(from + MAX_BOUND_NAMES, names.size()));
+                PreparedStatement update = prepare(AppMetadataDao.UPDATE_ENABLE_FIELDS, chunk.size());
+                update.setBoolean(1, flag);
+                for (int i = 0; i < chunk.size(); i++) {
+                    update.setString(i + 2, chunk.get(i));
+                }
+                update.executeUpdate();
+                update.close();
+            }
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+
+    /*
+    Name                updateEnableField
+    Description         AppMetadataDao.updateEnableField, one row
+     */
+    void updateEnableField(String name, boolean flag) throws SQLException {
+
+        PreparedStatement update = prepare(AppMetadataDao.UPDATE_ENABLE_FIELD, 0);
+        update.setBoolean(1, flag);
+        update.setString(2, name);
+        update.executeUpdate();
+        update.close();
+    }
+
+
+    /*
+    Name                getAllApps
+    Description         AppMetadataDao.getAllApps
+     */
+    List<AppMetadata> getAllApps() throws SQLException {
+
+        List<AppMetadata> apps = new ArrayList<>();
+        Statement query = connection.createStatement();
+        ResultSet rows = query.executeQuery(AppMetadataDao.GET_ALL_APPS);
+        while (rows.next()) {
+            AppMetadata app = new AppMetadata(rows.getString("appName"), rows.getString("packageName"),
+                    rows.getBoolean("enabledApp"), rows.getBoolean("transientApp"));
+            app.setLastUpdateTime(rows.getLong("lastUpdateTime"));
+            app.setVersionCode(rows.getLong("versionCode"));
+            app.setLastUsed(rows.getLong("lastUsed"));
+            app.setSourceDir(rows.getString("sourceDir"));
+            apps.add(app);
+        }
+        rows.close();
+        query.close();
+
+        return apps;
+    }
+
+
+    /*
+    Name                getPackagesByState
+    Description         AppMetadataDao.getPackagesByState
+     */
+    List<String> getPackagesByState(boolean transientApp, boolean enabledApp) throws SQLException {
+
+        List<String> packageNames = new ArrayList<>();
+        PreparedStatement query = prepare(AppMetadataDao.GET_PACKAGES_BY_STATE, 0);
+        query.setBoolean(1, transientApp);
+        query.setBoolean(2, enabledApp);
+        ResultSet rows = query.executeQuery();
+        while (rows.next()) {
+            packageNames.add(rows.getString(1));
+        }
+        rows.close();
+        query.close();
+
+        return packageNames;
+    }
+
+
+    /*
+    Name                deleteAll
+    Description         AppMetadataDao.deleteAll
+     */
+    void deleteAll() throws SQLException {
+        Statement statement = connection.createStatement();
+        statement.execute(AppMetadataDao.DELETE_ALL);
+        statement.close();
+    }
+
+
+    @Override
+    public void close() throws SQLException {
+        connection.close();
+    }
+
+
+    /*
+    Name                prepare
+    Description         Prepares a DAO statement: each ":name" parameter becomes a "?", a list parameter
+                        "(:names)" one "?" per element
+     */
+    private PreparedStatement prepare(String query, int listSize) throws SQLException {
+
+        StringBuilder list = new StringBuilder("(");
+        for (int i = 0; i < listSize; i++) {
+            list.append(i == 0 ? "?" : ",?");
+        }
+        String sql = query.replace("(:names)", list.append(')').toString()).replaceAll(":\\w+", "?");
+
+        return connection.prepareStatement(sql);
+    }
+
+    private PreparedStatement prepareInsert() throws SQLException {
+        return connection.prepareStatement("INSERT OR REPLACE INTO apps_table (packageName, appName, enabledApp, "
+                + "transientApp, lastUpdateTime, versionCode, lastUsed, sourceDir) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+    }
+
+    private static void bind(PreparedStatement insert, AppMetadata app) throws SQLException {
+        insert.setString(1, app.getPackageName());
+        insert.setString(2, app.getAppName());
+        insert.setBoolean(3, app.getEnabledApp() == Boolean.TRUE);
+        insert.setBoolean(4, app.getTransientApp() == Boolean.TRUE);
+        insert.setLong(5, app.getLastUpdateTime());
+        insert.setLong(6, app.getVersionCode());
+        insert.setLong(7, app.getLastUsed());
+        insert.setString(8, app.getSourceDir());
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.android.transientlauncher;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+
+
+/*
+Class           Fake Packages
+Description     Stand-ins for what the PackageManager and the system provide on a device: a list of
+                installed launchable packages, their APK files and a /proc directory with their processes.
+
+Notes           There is no fake PackageManager: android.content.pm.PackageManager is abstract and only
+                exists in the Android runtime (the android.jar classes are stubs that throw), so it cannot
+                be subclassed on the JVM. The benchmarks hand these values to the plain-Java code the
+                manager uses (AppRows, ShellApkAccess) instead.
+ */
+final class FakePackages {
+
+    /** Attributes **/
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int VENDORS = 50;
+
+
+
+
+    /** Methods **/
+    /*
+    Name                packageNames
+    Description         Returns the names of count installed packages: a quarter com.google.*, a quarter
+                        com.android.* and the rest from third party vendors (the mix of a typical phone)
+     */
+    static List<String> packageNames(int count) {
+
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            switch (i % 4) {
+                case 0:
+                    names.add("com.google.android.app" + i);
+                    break;
+                case 1:
+                    names.add("com.android.app" + i);
+                    break;
+                default:
+                    names.add("com.vendor" + (i % VENDORS) + ".app" + i);
+                    break;
+            }
+        }
+
+        return names;
+    }
+
+
+    /*
+    Name                sourceDirs
+    Description         Returns the APK path the PackageManager reports for every package (the files do not
+                        exist, see createApks)
+     */
+    static List<String> sourceDirs(List<String> packageNames) {
+
+        List<String> paths = new ArrayList<>(packageNames.size());
+        for (String packageName : packageNames) {
+            paths.add("/data/app/" + packageName + "-1/base.apk");
+        }
+
+        return paths;
+    }
+
+
+    /*
+    Name                lastUpdateTime
+    Description         Returns the change token the PackageManager reports for the package at index i
+     */
+    static long lastUpdateTime(int i) {
+        return 1500000000000L + i;
+    }
+
+
+    /*
+    Name                createApks
+    Description         Creates one readable "APK" file per package, returns their paths
+     */
+    static List<String> createApks(File directory, List<String> packageNames) throws IOException {
+
+        List<String> paths = new ArrayList<>(packageNames.size());
+        for (String packageName : packageNames) {
+            File apk = new File(directory, packageName + ".apk");
+            write(apk, "apk");
+            paths.add(apk.getPath());
+        }
+
+        return paths;
+    }
+
+
+    /*
+    Name                createProc
+    Description         Creates a /proc directory with one process per package, plus native daemons and
+                        secondary (":remote") processes like on a device
+     */
+    static void createProc(File procRoot, List<String> packageNames) throws IOException {
+
+        int pid = 1;
+        addProcess(procRoot, pid++, "/system/bin/init\0second_stage\0");
+        addProcess(procRoot, pid++, "zygote");
+        for (String packageName : packageNames) {
+            addProcess(procRoot, pid++, packageName);
+            if (pid % 10 == 0) {
+                addProcess(procRoot, pid++, packageName + ":remote");
+            }
+        }
+        new File(procRoot, "self").mkdirs();
+        write(new File(procRoot, "uptime"), "1000.00 900.00");
+    }
+
+
+    static void addProcess(File procRoot, int pid, String cmdline) throws IOException {
+        File directory = new File(procRoot, Integer.toString(pid));
+        directory.mkdirs();
+        write(new File(directory, "cmdline"), cmdline);
+        write(new File(directory, "stat"), pid + " (" + cmdline.split("\0")[0] + ") S 1 " + pid
+                + " 0 0 -1 1077952832 100 0 0 0 5 3 0 0 20 0 30 0 " + (1000 + pid) + " 100000 5000\n");
+    }
+
+
+    /*
+    Name                deleteRecursively
+    Description         Removes a temporary directory and everything in it
+     */
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+
+    private static void write(File file, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes(UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+    private FakePackages() {
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.android.transientlauncher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+
+/*
+Class           Launchable Apps Benchmark
+Description     TransiencyManager.getLaunchableAppsAndLoadDb without the PackageManager: classify every
+                installed package, build its row (AppRows, as the manager does) and load apps_table (one
+                transaction, and row by row as the baseline).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LaunchableAppsBenchmark {
+
+    /** Attributes **/
+    @Param({"10", "100", "1000", "10000"})
+    public int packages;
+
+    private List<String> packageNames;
+    private List<String> sourceDirs;
+    private TransiencyPolicy policy;
+    private AppsTable table;
+
+
+
+
+    /** Methods **/
+    @Setup
+    public void setUp() throws SQLException {
+        packageNames = FakePackages.packageNames(packages);
+        sourceDirs = FakePackages.sourceDirs(packageNames);
+        policy = TransiencyPolicy.builtIn(Boolean.FALSE);
+        table = new AppsTable();
+    }
+
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        table.close();
+    }
+
+
+    @Benchmark
+    public int classify() {
+        int transientApps = 0;
+        for (String packageName : packageNames) {
+            if (policy.isTransient(packageName)) {
+                transientApps++;
+            }
+        }
+        return transientApps;
+    }
+
+
+    @Benchmark
+    public List<AppMetadata> scanAndLoadDb() throws SQLException {
+        List<AppMetadata> apps = buildRows();
+        table.deleteAll();
+        table.insertAll(apps);
+        return apps;
+    }
+
+
+    @Benchmark
+    public List<AppMetadata> scanAndLoadDbRowByRow() throws SQLException {
+        List<AppMetadata> apps = buildRows();
+        table.deleteAll();
+        table.insertEach(apps);
+        return apps;
+    }
+
+
+    /*
+    Name                buildRows
+    Description         The rows getLaunchableAppsAndLoadDb builds, from what the PackageManager would report
+     */
+    private List<AppMetadata> buildRows() {
+        AppRows rows = new AppRows(policy, packageNames.size());
+        for (int i = 0; i < packageNames.size(); i++) {
+            rows.add(packageNames.get(i), FakePackages.lastUpdateTime(i), sourceDirs.get(i));
+        }
+        return rows.get();
+    }
+}
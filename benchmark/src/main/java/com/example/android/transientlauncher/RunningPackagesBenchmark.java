@@ -0,0 +1,90 @@
+package com.example.android.transientlauncher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+
+
+/*
+Class           Running Packages Benchmark
+Description     TransiencyManager.getRunningPackages: a full /proc scan, the incremental refresh of the
+                shared snapshot, and a lookup served from the snapshot. Runs against a fake /proc.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RunningPackagesBenchmark {
+
+    /** Attributes **/
+    @Param({"10", "100", "1000", "10000"})
+    public int packages;
+
+    private File procRoot;
+    private List<String> packageNames;
+    private ProcScanner scanner;
+    private ProcessSnapshot snapshot;
+    private ProcessSnapshot cachedSnapshot;
+    private int lookup;
+
+
+
+
+    /** Methods **/
+    @Setup
+    public void setUp() throws IOException {
+        procRoot = Files.createTempDirectory("proc").toFile();
+        packageNames = FakePackages.packageNames(packages);
+        FakePackages.createProc(procRoot, packageNames);
+
+        scanner = new ProcScanner(procRoot);
+        snapshot = new ProcessSnapshot(new ProcScanner(procRoot), 0);
+        cachedSnapshot = new ProcessSnapshot(new ProcScanner(procRoot), 60 * 60 * 1000);
+        cachedSnapshot.getRunningPackages();
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        FakePackages.deleteRecursively(procRoot);
+    }
+
+
+    @Benchmark
+    public Set<String> fullScan() {
+        return scanner.scan();
+    }
+
+
+    @Benchmark
+    public Set<String> snapshotRefresh() {
+        snapshot.invalidate();
+        return snapshot.getRunningPackages();
+    }
+
+
+    @Benchmark
+    public boolean cachedLookup() {
+        lookup = (lookup + 1) % packageNames.size();
+        return cachedSnapshot.isAppRunning(packageNames.get(lookup));
+    }
+}